@@ -2466,6 +2466,7 @@ public class AppController implements Initializable {
 
     private void deleteStorage(Storage storage, boolean deleteBackups) {
         if(storage.isClosed()) {
+            ElectrumServer.deleteCormorantIndex();
             Platform.runLater(() -> {
                 Storage.DeleteWalletService deleteWalletService = new Storage.DeleteWalletService(storage, deleteBackups);
                 deleteWalletService.setDelay(Duration.seconds(3));
@@ -2520,6 +2521,7 @@ public class AppController implements Initializable {
                 if(optButtonType.isPresent() && optButtonType.get() == ButtonType.OK) {
                     Wallet deletedWallet = AppServices.get().getWallet(walletId);
                     EventManager.get().post(new WalletDeletedEvent(deletedWallet));
+                    ElectrumServer.deleteCormorantIndex();
                     subTabs.getTabs().remove(subTab);
                     if(subTabs.getTabs().size() == 1) {
                         setSubTabsVisible(subTabs, areSubTabsVisible());
@@ -4,9 +4,7 @@ import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import com.sparrowwallet.drongo.wallet.WalletNode;
 import com.sparrowwallet.sparrow.net.ElectrumServer;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.sparrowwallet.sparrow.net.ScriptHashIndex;
 
 /**
  * Used to notify that a wallet node (identified by it's script hash) has been updated on the blockchain.
@@ -53,25 +51,7 @@ public class WalletNodeHistoryChangedEvent {
     }
 
     private WalletNode getNode(Wallet wallet) {
-        for(KeyPurpose keyPurpose : KeyPurpose.DEFAULT_PURPOSES) {
-            WalletNode changedNode = getWalletNode(wallet, keyPurpose);
-            if(changedNode != null) {
-                return changedNode;
-            }
-        }
-
-        return null;
-    }
-
-    private WalletNode getWalletNode(Wallet wallet, KeyPurpose keyPurpose) {
-        WalletNode purposeNode = wallet.getNode(keyPurpose);
-        for(WalletNode addressNode : new ArrayList<>(purposeNode.getChildren())) {
-            if(ElectrumServer.getScriptHash(addressNode).equals(scriptHash)) {
-                return addressNode;
-            }
-        }
-
-        return null;
+        return ScriptHashIndex.get(wallet).getNode(scriptHash);
     }
 
     public String getScriptHash() {
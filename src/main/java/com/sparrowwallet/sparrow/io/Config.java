@@ -20,6 +20,8 @@ import java.lang.reflect.Type;
 import java.util.*;
 
 import static com.sparrowwallet.sparrow.AppServices.ENUMERATE_HW_PERIOD_SECS;
+import static com.sparrowwallet.sparrow.net.ElectrumServer.DEFAULT_MAX_CONCURRENT_WALLET_SYNCS;
+import static com.sparrowwallet.sparrow.net.ElectrumServer.DEFAULT_MAX_GAP_LIMIT_LOOKAHEAD;
 import static com.sparrowwallet.sparrow.net.PagedBatchRequestBuilder.DEFAULT_PAGE_SIZE;
 import static com.sparrowwallet.sparrow.net.TcpTransport.DEFAULT_MAX_TIMEOUT;
 import static com.sparrowwallet.sparrow.wallet.WalletUtxosEntry.DUST_ATTACK_THRESHOLD_SATS;
@@ -90,6 +92,10 @@ public class Config {
     private boolean autoSwitchProxy = true;
     private int maxServerTimeout = DEFAULT_MAX_TIMEOUT;
     private int maxPageSize = DEFAULT_PAGE_SIZE;
+    private boolean pipelineServerRequests;
+    private int maxConcurrentWalletSyncs = DEFAULT_MAX_CONCURRENT_WALLET_SYNCS;
+    private int maxGapLimitLookahead = DEFAULT_MAX_GAP_LIMIT_LOOKAHEAD;
+    private boolean persistCormorantIndex;
     private boolean usePayNym;
     private boolean mempoolFullRbf;
     private double minRelayFeeRate = Transaction.DEFAULT_MIN_RELAY_FEE;
@@ -751,6 +757,32 @@ public class Config {
         return maxPageSize;
     }
 
+    public boolean isPipelineServerRequests() {
+        return pipelineServerRequests;
+    }
+
+    public void setPipelineServerRequests(boolean pipelineServerRequests) {
+        this.pipelineServerRequests = pipelineServerRequests;
+        flush();
+    }
+
+    public int getMaxConcurrentWalletSyncs() {
+        return maxConcurrentWalletSyncs;
+    }
+
+    public int getMaxGapLimitLookahead() {
+        return maxGapLimitLookahead;
+    }
+
+    public boolean isPersistCormorantIndex() {
+        return persistCormorantIndex;
+    }
+
+    public void setPersistCormorantIndex(boolean persistCormorantIndex) {
+        this.persistCormorantIndex = persistCormorantIndex;
+        flush();
+    }
+
     public boolean isUsePayNym() {
         return usePayNym;
     }
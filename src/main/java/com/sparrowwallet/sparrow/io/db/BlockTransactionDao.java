@@ -1,33 +1,48 @@
 package com.sparrowwallet.sparrow.io.db;
 
+import com.google.common.collect.Lists;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.drongo.wallet.Wallet;
 import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.customizer.Define;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 public interface BlockTransactionDao {
+    int TXID_QUERY_BATCH_SIZE = 1000;
+
     @SqlQuery("select id, txid, hash, height, date, fee, label, transaction, blockHash from blockTransaction where wallet = ? order by id")
     @RegisterRowMapper(BlockTransactionMapper.class)
     Map<Sha256Hash, BlockTransaction> getForWalletId(Long id);
 
-    @SqlQuery("select id, txid, hash, height, date, fee, label, transaction, blockHash from blockTransaction where txid = ?")
+    @SqlQuery("select id, txid, hash, height, date, fee, label, blockHash from blockTransaction where wallet = :wallet order by id")
     @RegisterRowMapper(BlockTransactionMapper.class)
-    Map<Sha256Hash, BlockTransaction> getForTxId(byte[] id);
+    Map<Sha256Hash, BlockTransaction> getLazyForWalletId(@Bind("wallet") Long id, @Define(BlockTransactionMapper.TRANSACTION_LOADER) LazyBlockTransaction.TransactionLoader transactionLoader);
+
+    @SqlQuery("select transaction from blockTransaction where txid = ?")
+    byte[] getTransactionBytes(byte[] txid);
 
-    @SqlUpdate("insert into blockTransaction (txid, hash, height, date, fee, label, transaction, blockHash, wallet) values (?, ?, ?, ?, ?, ?, ?, ?, ?)")
+    @SqlQuery("select id, txid, hash, height, date, fee, label, transaction, blockHash from blockTransaction where txid in (<txids>)")
+    @RegisterRowMapper(BlockTransactionMapper.class)
+    Map<Sha256Hash, BlockTransaction> getForTxIds(@BindList("txids") List<byte[]> ids);
+
+    @SqlBatch("insert into blockTransaction (txid, hash, height, date, fee, label, transaction, blockHash, wallet) values (?, ?, ?, ?, ?, ?, ?, ?, ?)")
     @GetGeneratedKeys("id")
-    long insertBlockTransaction(byte[] txid, byte[] hash, int height, Date date, Long fee, String label, byte[] transaction, byte[] blockHash, long wallet);
+    long[] insertBlockTransactions(List<byte[]> txids, List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<byte[]> transactions, List<byte[]> blockHashes, long wallet);
+
+    @SqlBatch("update blockTransaction set txid = ?, hash = ?, height = ?, date = ?, fee = ?, label = ?, transaction = ?, blockHash = ?, wallet = ? where id = ?")
+    void updateBlockTransactions(List<byte[]> txids, List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<byte[]> transactions, List<byte[]> blockHashes, long wallet, List<Long> ids);
 
-    @SqlUpdate("update blockTransaction set txid = ?, hash = ?, height = ?, date = ?, fee = ?, label = ?, transaction = ?, blockHash = ?, wallet = ? where id = ?")
-    void updateBlockTransaction(byte[] txid, byte[] hash, int height, Date date, Long fee, String label, byte[] transaction, byte[] blockHash, long wallet, long id);
+    @SqlBatch("update blockTransaction set txid = ?, hash = ?, height = ?, date = ?, fee = ?, label = ?, blockHash = ?, wallet = ? where id = ?")
+    void updateBlockTransactionsMetadata(List<byte[]> txids, List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<byte[]> blockHashes, long wallet, List<Long> ids);
 
     @SqlUpdate("update blockTransaction set label = :label where id = :id")
     void updateLabel(@Bind("id") long id, @Bind("label") String label);
@@ -37,30 +52,93 @@ public interface BlockTransactionDao {
 
     default void addBlockTransactions(Wallet wallet) {
         Map<Sha256Hash, BlockTransaction> walletTransactions = new HashMap<>(wallet.getTransactions());
-        for(Map.Entry<Sha256Hash, BlockTransaction> blkTxEntry : walletTransactions.entrySet()) {
-            blkTxEntry.getValue().setId(null);
-            addOrUpdate(wallet, blkTxEntry.getKey(), blkTxEntry.getValue());
+        for(BlockTransaction blkTx : walletTransactions.values()) {
+            blkTx.setId(null);
         }
+
+        addOrUpdate(wallet, walletTransactions);
     }
 
-    default void addOrUpdate(Wallet wallet, Sha256Hash txid, BlockTransaction blkTx) {
-        Map<Sha256Hash, BlockTransaction> existing = getForTxId(txid.getBytes());
-
-        if(existing.isEmpty() && blkTx.getId() == null) {
-            long id = insertBlockTransaction(txid.getBytes(), blkTx.getHash().getBytes(), blkTx.getHeight(), blkTx.getDate(), blkTx.getFee(), truncate(blkTx.getLabel()),
-                    blkTx.getTransaction() == null ? null : blkTx.getTransaction().bitcoinSerialize(),
-                    blkTx.getBlockHash() == null ? null : blkTx.getBlockHash().getBytes(), wallet.getId());
-            blkTx.setId(id);
-        } else {
-            Long existingId = existing.get(txid) != null ? existing.get(txid).getId() : blkTx.getId();
-            updateBlockTransaction(txid.getBytes(), blkTx.getHash().getBytes(), blkTx.getHeight(), blkTx.getDate(), blkTx.getFee(), truncate(blkTx.getLabel()),
-                    blkTx.getTransaction() == null ? null : blkTx.getTransaction().bitcoinSerialize(),
-                    blkTx.getBlockHash() == null ? null : blkTx.getBlockHash().getBytes(), wallet.getId(), existingId);
-            blkTx.setId(existingId);
+    default void addOrUpdate(Wallet wallet, Map<Sha256Hash, BlockTransaction> blockTransactions) {
+        //Only transactions without an id may already be stored, so the existing rows are queried for those alone
+        List<byte[]> newTxids = blockTransactions.entrySet().stream().filter(entry -> entry.getValue().getId() == null).map(entry -> entry.getKey().getBytes()).toList();
+        Map<Sha256Hash, BlockTransaction> existing = new HashMap<>();
+        for(List<byte[]> txids : Lists.partition(newTxids, TXID_QUERY_BATCH_SIZE)) {
+            existing.putAll(getForTxIds(txids));
+        }
+
+        TransactionBatch inserts = new TransactionBatch(true);
+        TransactionBatch updates = new TransactionBatch(true);
+        List<Long> updateIds = new ArrayList<>();
+        //Lazily loaded transactions are updated in their own rows, which already hold the raw transaction, so it is neither read nor written again
+        TransactionBatch metadataUpdates = new TransactionBatch(false);
+        List<Long> metadataUpdateIds = new ArrayList<>();
+        for(Map.Entry<Sha256Hash, BlockTransaction> blkTxEntry : blockTransactions.entrySet()) {
+            Sha256Hash txid = blkTxEntry.getKey();
+            BlockTransaction blkTx = blkTxEntry.getValue();
+            if(blkTx.getId() == null && !existing.containsKey(txid)) {
+                inserts.add(txid, blkTx, truncate(blkTx.getLabel()));
+            } else if(blkTx instanceof LazyBlockTransaction && blkTx.getId() != null) {
+                metadataUpdates.add(txid, blkTx, truncate(blkTx.getLabel()));
+                metadataUpdateIds.add(blkTx.getId());
+            } else {
+                Long existingId = existing.get(txid) != null ? existing.get(txid).getId() : blkTx.getId();
+                blkTx.setId(existingId);
+                updates.add(txid, blkTx, truncate(blkTx.getLabel()));
+                updateIds.add(existingId);
+            }
+        }
+
+        if(!inserts.blkTxes.isEmpty()) {
+            long[] ids = insertBlockTransactions(inserts.txids, inserts.hashes, inserts.heights, inserts.dates, inserts.fees, inserts.labels, inserts.transactions, inserts.blockHashes, wallet.getId());
+            for(int i = 0; i < inserts.blkTxes.size(); i++) {
+                inserts.blkTxes.get(i).setId(ids[i]);
+            }
+        }
+
+        if(!updates.blkTxes.isEmpty()) {
+            updateBlockTransactions(updates.txids, updates.hashes, updates.heights, updates.dates, updates.fees, updates.labels, updates.transactions, updates.blockHashes, wallet.getId(), updateIds);
+        }
+
+        if(!metadataUpdates.blkTxes.isEmpty()) {
+            updateBlockTransactionsMetadata(metadataUpdates.txids, metadataUpdates.hashes, metadataUpdates.heights, metadataUpdates.dates, metadataUpdates.fees, metadataUpdates.labels,
+                    metadataUpdates.blockHashes, wallet.getId(), metadataUpdateIds);
         }
     }
 
     default String truncate(String label) {
         return (label != null && label.length() > BlockTransaction.MAX_LABEL_LENGTH ? label.substring(0, BlockTransaction.MAX_LABEL_LENGTH) : label);
     }
+
+    class TransactionBatch {
+        private final boolean includeTransactions;
+        private final List<BlockTransaction> blkTxes = new ArrayList<>();
+        private final List<byte[]> txids = new ArrayList<>();
+        private final List<byte[]> hashes = new ArrayList<>();
+        private final List<Integer> heights = new ArrayList<>();
+        private final List<Date> dates = new ArrayList<>();
+        private final List<Long> fees = new ArrayList<>();
+        private final List<String> labels = new ArrayList<>();
+        private final List<byte[]> transactions = new ArrayList<>();
+        private final List<byte[]> blockHashes = new ArrayList<>();
+
+        private TransactionBatch(boolean includeTransactions) {
+            this.includeTransactions = includeTransactions;
+        }
+
+        private void add(Sha256Hash txid, BlockTransaction blkTx, String label) {
+            blkTxes.add(blkTx);
+            txids.add(txid.getBytes());
+            hashes.add(blkTx.getHash().getBytes());
+            heights.add(blkTx.getHeight());
+            dates.add(blkTx.getDate());
+            fees.add(blkTx.getFee());
+            labels.add(label);
+            if(includeTransactions) {
+                Transaction transaction = blkTx.getTransaction();
+                transactions.add(transaction == null ? null : transaction.bitcoinSerialize());
+            }
+            blockHashes.add(blkTx.getBlockHash() == null ? null : blkTx.getBlockHash().getBytes());
+        }
+    }
 }
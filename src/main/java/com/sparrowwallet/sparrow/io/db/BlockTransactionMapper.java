@@ -11,24 +11,34 @@ import java.sql.SQLException;
 import java.util.Map;
 
 public class BlockTransactionMapper implements RowMapper<Map.Entry<Sha256Hash, BlockTransaction>> {
+    //When a TransactionLoader is defined under this attribute, the raw transaction is not selected and is instead loaded on demand
+    public static final String TRANSACTION_LOADER = "transactionLoader";
 
     @Override
     public Map.Entry<Sha256Hash, BlockTransaction> map(ResultSet rs, StatementContext ctx) throws SQLException {
         Sha256Hash txid = Sha256Hash.wrap(rs.getBytes("txid"));
 
-        byte[] txBytes = rs.getBytes("transaction");
-        Transaction transaction = null;
-        if(txBytes != null) {
-            transaction = new Transaction(txBytes);
-        }
-
         Long fee = rs.getLong("fee");
         if(rs.wasNull()) {
             fee = null;
         }
 
-        BlockTransaction blockTransaction = new BlockTransaction(Sha256Hash.wrap(rs.getBytes("hash")), rs.getInt("height"), rs.getTimestamp("date"),
-                fee, transaction, rs.getBytes("blockHash") == null ? null : Sha256Hash.wrap(rs.getBytes("blockHash")), rs.getString("label"));
+        Sha256Hash blockHash = rs.getBytes("blockHash") == null ? null : Sha256Hash.wrap(rs.getBytes("blockHash"));
+
+        BlockTransaction blockTransaction;
+        if(ctx.getAttribute(TRANSACTION_LOADER) instanceof LazyBlockTransaction.TransactionLoader transactionLoader) {
+            blockTransaction = new LazyBlockTransaction(txid, Sha256Hash.wrap(rs.getBytes("hash")), rs.getInt("height"), rs.getTimestamp("date"),
+                    fee, blockHash, rs.getString("label"), transactionLoader);
+        } else {
+            byte[] txBytes = rs.getBytes("transaction");
+            Transaction transaction = null;
+            if(txBytes != null) {
+                transaction = new Transaction(txBytes);
+            }
+
+            blockTransaction = new BlockTransaction(Sha256Hash.wrap(rs.getBytes("hash")), rs.getInt("height"), rs.getTimestamp("date"),
+                    fee, transaction, blockHash, rs.getString("label"));
+        }
         blockTransaction.setId(rs.getLong("id"));
 
         return new Map.Entry<>() {
@@ -36,6 +36,7 @@ import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -48,6 +49,7 @@ import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -72,7 +74,34 @@ public class DbPersistence implements Persistence {
     private static final Pattern INVALID_SCHEMA_DDL_PATTERN = Pattern.compile("LINKED\\s+TABLE|CREATE\\s+(?:FORCE\\s+|OR\\s+REPLACE\\s+)*(?:TRIGGER|ALIAS|AGGREGATE)"
             + "|\\bENGINE\\s+[\"'\\w]|\\b(?:FILE_READ|FILE_WRITE|CSVWRITE|CSVREAD|RUNSCRIPT|LINK_SCHEMA)\\b", Pattern.CASE_INSENSITIVE);
     private static final Pattern WALLET_SCHEMA_IDENTIFIER_PATTERN = Pattern.compile("\"wallet_[^\"\\x00-\\x1f]*\"");
+    private static final String FLYWAY_HISTORY_TABLE = "flyway_schema_history";
+    private static final Pattern MIGRATION_VERSION_PATTERN = Pattern.compile("V(\\d+)__.*\\.sql");
+
+    //Every object that could execute code or read outside the wallet file when the schema is used, returned as rows of (kind, name, detail, on update)
+    private static final String SCHEMA_OBJECTS_QUERY =
+            "SELECT 'routine' AS KIND, ROUTINE_NAME AS NAME, CAST(NULL AS VARCHAR) AS DETAIL, CAST(NULL AS VARCHAR) AS ON_UPDATE FROM INFORMATION_SCHEMA.ROUTINES WHERE ROUTINE_SCHEMA <> 'INFORMATION_SCHEMA' " +
+            "UNION ALL SELECT 'trigger', TRIGGER_NAME, NULL, NULL FROM INFORMATION_SCHEMA.TRIGGERS WHERE TRIGGER_SCHEMA <> 'INFORMATION_SCHEMA' " +
+            "UNION ALL SELECT 'check', CHECK_CLAUSE, NULL, NULL FROM INFORMATION_SCHEMA.CHECK_CONSTRAINTS WHERE UPPER(CONSTRAINT_SCHEMA) = UPPER(:schema) " +
+            "UNION ALL SELECT 'nonBaseTable', TABLE_NAME, TABLE_TYPE, NULL FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND TABLE_TYPE <> 'BASE TABLE' " +
+            "UNION ALL SELECT 'linkedTable', TABLE_NAME, NULL, NULL FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND STORAGE_TYPE = 'TABLE LINK' " +
+            "UNION ALL SELECT 'engineTable', TABLE_NAME, NULL, NULL FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND TABLE_TYPE = 'BASE TABLE' AND (TABLE_CLASS IS NULL OR TABLE_CLASS <> :tableClass) " +
+            "UNION ALL SELECT 'synonym', SYNONYM_NAME, NULL, NULL FROM INFORMATION_SCHEMA.SYNONYMS WHERE UPPER(SYNONYM_SCHEMA) = UPPER(:schema) " +
+            "UNION ALL SELECT 'generatedColumn', TABLE_NAME || '.' || COLUMN_NAME, NULL, NULL FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND GENERATION_EXPRESSION IS NOT NULL " +
+            "UNION ALL SELECT 'defaultColumn', TABLE_NAME || '.' || COLUMN_NAME, COLUMN_DEFAULT, COLUMN_ON_UPDATE FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND (COLUMN_DEFAULT IS NOT NULL OR COLUMN_ON_UPDATE IS NOT NULL) " +
+            "UNION ALL SELECT 'domain', DOMAIN_NAME, NULL, NULL FROM INFORMATION_SCHEMA.DOMAINS WHERE DOMAIN_SCHEMA <> 'INFORMATION_SCHEMA' " +
+            "UNION ALL SELECT 'constant', CONSTANT_NAME, NULL, NULL FROM INFORMATION_SCHEMA.CONSTANTS WHERE CONSTANT_SCHEMA <> 'INFORMATION_SCHEMA' " +
+            "UNION ALL SELECT 'serializedColumn', TABLE_NAME || '.' || COLUMN_NAME, NULL, NULL FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND DATA_TYPE = 'JAVA_OBJECT' " +
+            "UNION ALL SELECT 'serializedColumn', OBJECT_NAME, NULL, NULL FROM INFORMATION_SCHEMA.ELEMENT_TYPES WHERE UPPER(OBJECT_SCHEMA) = UPPER(:schema) AND OBJECT_TYPE = 'TABLE' AND DATA_TYPE = 'JAVA_OBJECT' " +
+            "UNION ALL SELECT 'index', INDEX_NAME, TABLE_NAME, NULL FROM INFORMATION_SCHEMA.INDEXES WHERE UPPER(INDEX_SCHEMA) = UPPER(:schema) AND IS_GENERATED = FALSE";
+
+    private static volatile Integer latestMigrationVersion;
+
     private static final Map<String, String> VALID_COLUMN_DEFAULTS = Map.of("UTXOMIXDATA.MIXESDONE", "0", "FLYWAY_SCHEMA_HISTORY.INSTALLED_ON", "CURRENT_TIMESTAMP");
+    //Indexes created by the migrations and Flyway, by index name and table name. Indexes backing constraints are generated by H2 and not listed.
+    private static final Map<String, String> VALID_INDEXES = Map.of("BLOCKTRANSACTION_TXID", "BLOCKTRANSACTION", "WALLETNODE_WALLET_PARENT", "WALLETNODE",
+            "BLOCKTRANSACTIONHASHINDEX_NODE_SPENTBY", "BLOCKTRANSACTIONHASHINDEX", "WALLETCONFIG_WALLET", "WALLETCONFIG", "WALLETTABLE_WALLET", "WALLETTABLE",
+            "WALLETTABLE_TYPE", "WALLETTABLE", "MIXCONFIG_WALLET", "MIXCONFIG", "UTXOMIXDATA_WALLET", "UTXOMIXDATA", "UTXOMIXDATA_HASH", "UTXOMIXDATA",
+            "FLYWAY_SCHEMA_HISTORY_S_IDX", "FLYWAY_SCHEMA_HISTORY");
     private static final String H2_BASE_TABLE_CLASS = "org.h2.mvstore.db.MVTable";
     private static final String H2_ALLOWED_CLASSES_PROPERTY = "h2.allowedClasses";
     private static final String H2_NO_ALLOWED_CLASSES = "com.sparrowwallet.sparrow.NONE";
@@ -82,7 +111,8 @@ public class DbPersistence implements Persistence {
         JdbcUtils.serializer = new NoDeserializationSerializer();
     }
 
-    private HikariDataSource dataSource;
+    private volatile HikariDataSource dataSource;
+    private volatile DataSourceJdbi dataSourceJdbi;
     private AsymmetricKeyDeriver keyDeriver;
 
     private Wallet masterWallet;
@@ -110,13 +140,14 @@ public class DbPersistence implements Persistence {
         try {
             validateStore(storage, encryptionKey);
             validateSchema(storage, MASTER_SCHEMA, encryptionKey);
-            migrate(storage, MASTER_SCHEMA, encryptionKey);
-            validateSchema(storage, MASTER_SCHEMA, encryptionKey);
+            if(migrate(storage, MASTER_SCHEMA, encryptionKey)) {
+                validateSchema(storage, MASTER_SCHEMA, encryptionKey);
+            }
 
             Jdbi jdbi = getJdbi(storage, getFilePassword(encryptionKey));
             masterWallet = jdbi.withHandle(handle -> {
                 WalletDao walletDao = handle.attach(WalletDao.class);
-                return walletDao.getMainWallet(MASTER_SCHEMA, getWalletName(storage.getWalletFile(), null));
+                return walletDao.getMainWallet(MASTER_SCHEMA, getWalletName(storage.getWalletFile(), null), getTransactionLoader(MASTER_SCHEMA));
             });
 
             if(masterWallet == null) {
@@ -145,13 +176,14 @@ public class DbPersistence implements Persistence {
         Map<WalletAndKey, Storage> childWallets = new TreeMap<>();
         for(String schema : childSchemas) {
             validateSchema(storage, schema, encryptionKey);
-            migrate(storage, schema, encryptionKey);
-            validateSchema(storage, schema, encryptionKey);
+            if(migrate(storage, schema, encryptionKey)) {
+                validateSchema(storage, schema, encryptionKey);
+            }
 
             Jdbi childJdbi = getJdbi(storage, getFilePassword(encryptionKey));
             Wallet wallet = childJdbi.withHandle(handle -> {
                 WalletDao walletDao = handle.attach(WalletDao.class);
-                Wallet childWallet = walletDao.getMainWallet(schema, null);
+                Wallet childWallet = walletDao.getMainWallet(schema, null, getTransactionLoader(schema));
                 childWallet.setName(schema.substring(WALLET_SCHEMA_PREFIX.length()));
                 childWallet.setMasterWallet(masterWallet);
                 return childWallet;
@@ -297,17 +329,18 @@ public class DbPersistence implements Persistence {
                         referencedTxIds.addAll(txos.stream().map(BlockTransactionHash::getHash).collect(Collectors.toSet()));
 
                         walletNodeDao.deleteNodeTxosNotInList(addressNode, existingIds.isEmpty() ? List.of(-1L) : existingIds);
-                        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
-                            walletNodeDao.addOrUpdate(addressNode, txo);
-                        }
                     }
+                    walletNodeDao.addOrUpdate(new LinkedHashSet<>(dirtyPersistables.historyNodes));
+
+                    Map<Sha256Hash, BlockTransaction> referencedTransactions = new HashMap<>();
                     for(Sha256Hash txid : referencedTxIds) {
                         BlockTransaction blkTx = wallet.getTransactions().get(txid);
                         //May be null for a nested wallet if still updating
                         if(blkTx != null) {
-                            blockTransactionDao.addOrUpdate(wallet, txid, blkTx);
+                            referencedTransactions.put(txid, blkTx);
                         }
                     }
+                    blockTransactionDao.addOrUpdate(wallet, referencedTransactions);
                     if(!dirtyPersistables.clearHistory) {
                         DetachedLabelDao detachedLabelDao = handle.attach(DetachedLabelDao.class);
                         detachedLabelDao.clearAndAddAll(wallet);
@@ -427,6 +460,13 @@ public class DbPersistence implements Persistence {
     }
 
     private void cleanAndAddWallet(Storage storage, Wallet wallet, String password) throws StorageException {
+        //Transactions not yet loaded from a wallet file must be read before the schema they may be stored in is cleaned
+        for(BlockTransaction blkTx : wallet.getTransactions().values()) {
+            if(blkTx instanceof LazyBlockTransaction lazyBlkTx) {
+                lazyBlkTx.pin();
+            }
+        }
+
         String schema = getSchema(wallet);
         cleanAndMigrate(storage, schema, password);
 
@@ -491,11 +531,20 @@ public class DbPersistence implements Persistence {
         }
     }
 
-    private void migrate(Storage storage, String schema, ECKey encryptionKey) throws StorageException {
+    /**
+     * Migrates the schema to the latest version, returning false without extracting or running the migrations if it is already at that version
+     */
+    private boolean migrate(Storage storage, String schema, ECKey encryptionKey) throws StorageException {
+        String password = getFilePassword(encryptionKey);
+        if(isMigrated(storage, schema, password)) {
+            return false;
+        }
+
         File migrationDir = getMigrationDir();
         try {
-            Flyway flyway = getFlyway(storage, schema, getFilePassword(encryptionKey), migrationDir);
+            Flyway flyway = getFlyway(storage, schema, password, migrationDir);
             flyway.migrate();
+            return true;
         } catch(FlywayValidateException e) {
             log.error("Failed to open wallet file. Validation error during schema migration.", e);
             throw new StorageException("Failed to open wallet file. Validation error during schema migration.", e);
@@ -507,93 +556,92 @@ public class DbPersistence implements Persistence {
         }
     }
 
-    private void validateSchema(Storage storage, String schema, ECKey encryptionKey) throws StorageException {
-        Jdbi jdbi = getJdbi(storage, getFilePassword(encryptionKey));
-        try {
-            jdbi.useHandle(handle -> {
-                List<String> routines = handle.createQuery("SELECT ROUTINE_NAME FROM INFORMATION_SCHEMA.ROUTINES WHERE ROUTINE_SCHEMA <> 'INFORMATION_SCHEMA'").mapTo(String.class).list();
-                if(!routines.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected database routines: " + String.join(", ", routines) + "."));
-                }
-
-                List<String> triggers = handle.createQuery("SELECT TRIGGER_NAME FROM INFORMATION_SCHEMA.TRIGGERS WHERE TRIGGER_SCHEMA <> 'INFORMATION_SCHEMA'").mapTo(String.class).list();
-                if(!triggers.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected database triggers: " + String.join(", ", triggers) + "."));
-                }
-
-                List<String> checkConstraints = handle.createQuery("SELECT CHECK_CLAUSE FROM INFORMATION_SCHEMA.CHECK_CONSTRAINTS WHERE UPPER(CONSTRAINT_SCHEMA) = UPPER(:schema)")
-                        .bind("schema", schema).mapTo(String.class).list();
-                if(!checkConstraints.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected check constraints: " + String.join(", ", checkConstraints) + "."));
-                }
+    private boolean isMigrated(Storage storage, String schema, String password) throws StorageException {
+        int latestVersion = getLatestMigrationVersion();
+        return getJdbi(storage, password).withHandle(handle -> {
+            boolean historyExists = handle.createQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = :schema AND TABLE_NAME = :table")
+                    .bind("schema", schema).bind("table", FLYWAY_HISTORY_TABLE).mapTo(Integer.class).one() > 0;
+            if(!historyExists) {
+                return false;
+            }
 
-                List<String> nonBaseTables = handle.createQuery("SELECT TABLE_NAME, TABLE_TYPE FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) "
-                        + "AND TABLE_TYPE <> 'BASE TABLE'").bind("schema", schema)
-                        .map((rs, ctx) -> rs.getString("TABLE_NAME") + " (" + rs.getString("TABLE_TYPE") + ")").list();
-                if(!nonBaseTables.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected database object types: " + String.join(", ", nonBaseTables) + "."));
-                }
+            Optional<Integer> version = handle.createQuery("SELECT MAX(CAST(\"version\" AS INT)) FROM " + quoteIdentifier(schema) + "." + quoteIdentifier(FLYWAY_HISTORY_TABLE) + " WHERE \"success\"")
+                    .mapTo(Integer.class).findOne();
+            return version.isPresent() && version.get() == latestVersion;
+        });
+    }
 
-                List<String> linkedTables = handle.createQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND STORAGE_TYPE = 'TABLE LINK'")
-                        .bind("schema", schema).mapTo(String.class).list();
-                if(!linkedTables.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected linked tables: " + String.join(", ", linkedTables) + "."));
+    private static int getLatestMigrationVersion() throws StorageException {
+        if(latestMigrationVersion == null) {
+            try {
+                int latest = 0;
+                for(String name : IOUtils.getResourceListing(DbPersistence.class, MIGRATION_RESOURCES_DIR)) {
+                    Matcher matcher = MIGRATION_VERSION_PATTERN.matcher(name);
+                    if(matcher.matches()) {
+                        latest = Math.max(latest, Integer.parseInt(matcher.group(1)));
+                    }
                 }
+                latestMigrationVersion = latest;
+            } catch(Exception e) {
+                log.error("Could not list migration resources", e);
+                throw new StorageException("Could not list migration resources", e);
+            }
+        }
 
-                List<String> engineTables = handle.createQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) "
-                        + "AND TABLE_TYPE = 'BASE TABLE' AND (TABLE_CLASS IS NULL OR TABLE_CLASS <> :tableClass)").bind("schema", schema).bind("tableClass", H2_BASE_TABLE_CLASS).mapTo(String.class).list();
-                if(!engineTables.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected table storage engines: " + String.join(", ", engineTables) + "."));
-                }
+        return latestMigrationVersion;
+    }
 
-                List<String> synonyms = handle.createQuery("SELECT SYNONYM_NAME FROM INFORMATION_SCHEMA.SYNONYMS WHERE UPPER(SYNONYM_SCHEMA) = UPPER(:schema)")
-                        .bind("schema", schema).mapTo(String.class).list();
-                if(!synonyms.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected synonyms: " + String.join(", ", synonyms) + "."));
-                }
+    private static String quoteIdentifier(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
 
-                List<String> generatedColumns = handle.createQuery("SELECT TABLE_NAME || '.' || COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND GENERATION_EXPRESSION IS NOT NULL")
-                        .bind("schema", schema).mapTo(String.class).list();
-                if(!generatedColumns.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected generated columns: " + String.join(", ", generatedColumns) + "."));
-                }
+    private void validateSchema(Storage storage, String schema, ECKey encryptionKey) throws StorageException {
+        Jdbi jdbi = getJdbi(storage, getFilePassword(encryptionKey));
+        List<String[]> schemaObjects = jdbi.withHandle(handle -> handle.createQuery(SCHEMA_OBJECTS_QUERY).bind("schema", schema).bind("tableClass", H2_BASE_TABLE_CLASS)
+                .map((rs, ctx) -> new String[] {rs.getString("KIND"), rs.getString("NAME"), rs.getString("DETAIL"), rs.getString("ON_UPDATE")}).list());
+
+        Map<String, List<String[]>> objectsByKind = schemaObjects.stream().collect(Collectors.groupingBy(object -> object[0]));
+        rejectSchemaObjects(objectsByKind, "routine", "database routines");
+        rejectSchemaObjects(objectsByKind, "trigger", "database triggers");
+        rejectSchemaObjects(objectsByKind, "check", "check constraints");
+
+        List<String> nonBaseTables = objectsByKind.getOrDefault("nonBaseTable", Collections.emptyList()).stream().map(object -> object[1] + " (" + object[2] + ")").toList();
+        rejectSchemaObjects(nonBaseTables, "database object types");
+
+        rejectSchemaObjects(objectsByKind, "linkedTable", "linked tables");
+        rejectSchemaObjects(objectsByKind, "engineTable", "table storage engines");
+        rejectSchemaObjects(objectsByKind, "synonym", "synonyms");
+        rejectSchemaObjects(objectsByKind, "generatedColumn", "generated columns");
+
+        List<String> unexpectedDefaults = new ArrayList<>();
+        for(String[] column : objectsByKind.getOrDefault("defaultColumn", Collections.emptyList())) {
+            String qualifiedName = column[1];
+            if(column[3] != null || !Objects.equals(VALID_COLUMN_DEFAULTS.get(qualifiedName.toUpperCase(Locale.ROOT)), column[2])) {
+                unexpectedDefaults.add(qualifiedName);
+            }
+        }
+        rejectSchemaObjects(unexpectedDefaults, "column default or update expressions");
 
-                List<String[]> defaultColumns = handle.createQuery("SELECT TABLE_NAME, COLUMN_NAME, COLUMN_DEFAULT, COLUMN_ON_UPDATE FROM INFORMATION_SCHEMA.COLUMNS "
-                        + "WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND (COLUMN_DEFAULT IS NOT NULL OR COLUMN_ON_UPDATE IS NOT NULL)").bind("schema", schema)
-                        .map((rs, ctx) -> new String[] {rs.getString("TABLE_NAME"), rs.getString("COLUMN_NAME"), rs.getString("COLUMN_DEFAULT"), rs.getString("COLUMN_ON_UPDATE")}).list();
-                List<String> unexpectedDefaults = new ArrayList<>();
-                for(String[] column : defaultColumns) {
-                    String qualifiedName = column[0] + "." + column[1];
-                    if(column[3] != null || !Objects.equals(VALID_COLUMN_DEFAULTS.get(qualifiedName.toUpperCase(Locale.ROOT)), column[2])) {
-                        unexpectedDefaults.add(qualifiedName);
-                    }
-                }
-                if(!unexpectedDefaults.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected column default or update expressions: " + String.join(", ", unexpectedDefaults) + "."));
-                }
+        rejectSchemaObjects(objectsByKind, "domain", "database domains");
+        rejectSchemaObjects(objectsByKind, "constant", "database constants");
+        rejectSchemaObjects(objectsByKind, "serializedColumn", "serialized object columns");
 
-                List<String> domains = handle.createQuery("SELECT DOMAIN_NAME FROM INFORMATION_SCHEMA.DOMAINS WHERE DOMAIN_SCHEMA <> 'INFORMATION_SCHEMA'").mapTo(String.class).list();
-                if(!domains.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected database domains: " + String.join(", ", domains) + "."));
-                }
+        List<String> unexpectedIndexes = new ArrayList<>();
+        for(String[] index : objectsByKind.getOrDefault("index", Collections.emptyList())) {
+            if(!Objects.equals(VALID_INDEXES.get(index[1].toUpperCase(Locale.ROOT)), index[2].toUpperCase(Locale.ROOT))) {
+                unexpectedIndexes.add(index[2] + "." + index[1]);
+            }
+        }
+        rejectSchemaObjects(unexpectedIndexes, "indexes");
+    }
 
-                List<String> constants = handle.createQuery("SELECT CONSTANT_NAME FROM INFORMATION_SCHEMA.CONSTANTS WHERE CONSTANT_SCHEMA <> 'INFORMATION_SCHEMA'").mapTo(String.class).list();
-                if(!constants.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected database constants: " + String.join(", ", constants) + "."));
-                }
+    private static void rejectSchemaObjects(Map<String, List<String[]>> objectsByKind, String kind, String description) throws StorageException {
+        rejectSchemaObjects(objectsByKind.getOrDefault(kind, Collections.emptyList()).stream().map(object -> object[1]).toList(), description);
+    }
 
-                List<String> serializedColumns = handle.createQuery("SELECT TABLE_NAME || '.' || COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS WHERE UPPER(TABLE_SCHEMA) = UPPER(:schema) AND DATA_TYPE = 'JAVA_OBJECT' "
-                        + "UNION SELECT OBJECT_NAME FROM INFORMATION_SCHEMA.ELEMENT_TYPES WHERE UPPER(OBJECT_SCHEMA) = UPPER(:schema) AND OBJECT_TYPE = 'TABLE' AND DATA_TYPE = 'JAVA_OBJECT'")
-                        .bind("schema", schema).mapTo(String.class).list();
-                if(!serializedColumns.isEmpty()) {
-                    throw new RuntimeException(new StorageException("Wallet file contains unexpected serialized object columns: " + String.join(", ", serializedColumns) + "."));
-                }
-            });
-        } catch(RuntimeException e) {
-            if(e.getCause() instanceof StorageException) {
-                throw new StorageException("This is not a valid wallet file.\n\n" + e.getCause().getMessage());
-            }
-            throw e;
+    private static void rejectSchemaObjects(List<String> names, String description) throws StorageException {
+        if(!names.isEmpty()) {
+            throw new StorageException("This is not a valid wallet file.\n\nWallet file contains unexpected " + description + ": " + String.join(", ", names) + ".");
         }
     }
 
@@ -865,12 +913,34 @@ public class DbPersistence implements Persistence {
         }
     }
 
+    private LazyBlockTransaction.TransactionLoader getTransactionLoader(String schema) {
+        return txid -> {
+            HikariDataSource openDataSource = dataSource;
+            if(openDataSource == null || openDataSource.isClosed()) {
+                throw new IllegalStateException("Wallet file is closed");
+            }
+
+            return getJdbi(openDataSource).withHandle(handle -> handle.attach(WalletDao.class).getTransactionBytes(schema, txid));
+        };
+    }
+
     private Jdbi getJdbi(Storage storage, String password) throws StorageException {
-        Jdbi jdbi = Jdbi.create(getDataSource(storage, password));
-        jdbi.installPlugin(new H2DatabasePlugin());
-        jdbi.installPlugin(new SqlObjectPlugin());
+        return getJdbi(getDataSource(storage, password));
+    }
+
+    private Jdbi getJdbi(DataSource jdbiDataSource) {
+        //One Jdbi is kept for the open data source, so that lazy transaction loads do not each install the plugins and build the SQL objects again
+        DataSourceJdbi current = dataSourceJdbi;
+        if(current == null || current.dataSource() != jdbiDataSource) {
+            Jdbi jdbi = Jdbi.create(jdbiDataSource);
+            jdbi.installPlugin(new H2DatabasePlugin());
+            jdbi.installPlugin(new SqlObjectPlugin());
 
-        return jdbi;
+            current = new DataSourceJdbi(jdbiDataSource, jdbi);
+            dataSourceJdbi = current;
+        }
+
+        return current.jdbi();
     }
 
     private Flyway getFlyway(Storage storage, String schema, String password, File resourcesDir) throws StorageException {
@@ -1195,4 +1265,6 @@ public class DbPersistence implements Persistence {
             return new Object[size];
         }
     }
+
+    private record DataSourceJdbi(DataSource dataSource, Jdbi jdbi) {}
 }
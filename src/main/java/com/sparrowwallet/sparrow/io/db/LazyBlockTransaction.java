@@ -0,0 +1,87 @@
+package com.sparrowwallet.sparrow.io.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sparrowwallet.drongo.protocol.*;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A BlockTransaction loaded from the wallet database without its raw transaction.
+ * The transaction is read and parsed the first time it is requested, and is then held in a parse cache shared by all wallets. The cache is bounded in size
+ * and only softly references the parsed transactions, so that those of a large wallet history can be reclaimed under memory pressure and read again when next needed.
+ * Reads are made on the thread that requests the transaction, which may be the JavaFX application thread, so each is a single lookup by txid.
+ * If it cannot be read, for example because the wallet file has been closed, an IllegalStateException is thrown rather than returning no transaction.
+ */
+public class LazyBlockTransaction extends BlockTransaction {
+    private static final int MAX_PARSED_TRANSACTIONS = 10000;
+
+    //Keyed by identity, so that an entry is removed once the wallet holding its LazyBlockTransaction is no longer referenced
+    private static final Cache<LazyBlockTransaction, Transaction> parsedTransactions = CacheBuilder.newBuilder().maximumSize(MAX_PARSED_TRANSACTIONS).weakKeys().softValues().build();
+
+    private final Sha256Hash txid;
+    private final transient TransactionLoader transactionLoader;
+    private transient Transaction pinnedTransaction;
+
+    public LazyBlockTransaction(Sha256Hash txid, Sha256Hash hash, int height, Date date, Long fee, Sha256Hash blockHash, String label, TransactionLoader transactionLoader) {
+        super(hash, height, date, fee, null, blockHash, label);
+        this.txid = txid;
+        this.transactionLoader = transactionLoader;
+    }
+
+    /**
+     * Returns the transaction, reading it from the wallet database on the calling thread if it is not held in memory
+     *
+     * @throws IllegalStateException if the transaction could not be read from the wallet database
+     */
+    @Override
+    public synchronized Transaction getTransaction() {
+        if(pinnedTransaction != null) {
+            return pinnedTransaction;
+        }
+
+        Transaction transaction = parsedTransactions.getIfPresent(this);
+        if(transaction == null) {
+            try {
+                byte[] txBytes = transactionLoader.load(txid);
+                if(txBytes != null) {
+                    transaction = new Transaction(txBytes);
+                    parsedTransactions.put(this, transaction);
+                }
+            } catch(Exception e) {
+                throw new IllegalStateException("Could not load transaction " + txid + " from wallet file", e);
+            }
+        }
+
+        return transaction;
+    }
+
+    @Override
+    public Set<HashIndex> getSpending() {
+        Transaction transaction = getTransaction();
+        return transaction == null ? Collections.emptySet() :
+                transaction.getInputs().stream().map(txInput -> new HashIndex(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex())).collect(Collectors.toUnmodifiableSet());
+    }
+
+    @Override
+    public Set<HashIndex> getFunding() {
+        Transaction transaction = getTransaction();
+        return transaction == null ? Collections.emptySet() :
+                transaction.getOutputs().stream().map(txOutput -> new HashIndex(txid, txOutput.getIndex())).collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Loads the transaction and holds it strongly, for when the rows it would otherwise be read from are about to be replaced
+     */
+    public synchronized void pin() {
+        pinnedTransaction = getTransaction();
+    }
+
+    public interface TransactionLoader {
+        byte[] load(Sha256Hash txid) throws Exception;
+    }
+}
@@ -80,11 +80,15 @@ public interface WalletDao {
     int setSchema(String schema);
 
     default Wallet getMainWallet(String schema, String walletName) {
+        return getMainWallet(schema, walletName, null);
+    }
+
+    default Wallet getMainWallet(String schema, String walletName, LazyBlockTransaction.TransactionLoader transactionLoader) {
         try {
             setSchema(schema);
             Wallet mainWallet = loadMainWallet();
             if(mainWallet != null) {
-                loadWallet(mainWallet);
+                loadWallet(mainWallet, transactionLoader);
 
                 if(walletName != null && !walletName.equals(mainWallet.getName())) {
                     mainWallet.setName(walletName);
@@ -112,13 +116,18 @@ public interface WalletDao {
     }
 
     default void loadWallet(Wallet wallet) {
+        loadWallet(wallet, null);
+    }
+
+    default void loadWallet(Wallet wallet, LazyBlockTransaction.TransactionLoader transactionLoader) {
         wallet.getKeystores().addAll(createKeystoreDao().getForWalletId(wallet.getId()));
 
         List<WalletNode> walletNodes = createWalletNodeDao().getForWalletId(wallet.getScriptType().ordinal(), wallet.getId());
         wallet.getPurposeNodes().addAll(walletNodes.stream().filter(WalletNode::isPurposeNode).collect(Collectors.toList()));
         wallet.getPurposeNodes().forEach(walletNode -> walletNode.setWallet(wallet));
 
-        Map<Sha256Hash, BlockTransaction> blockTransactions = createBlockTransactionDao().getForWalletId(wallet.getId());
+        Map<Sha256Hash, BlockTransaction> blockTransactions = transactionLoader == null ? createBlockTransactionDao().getForWalletId(wallet.getId()) :
+                createBlockTransactionDao().getLazyForWalletId(wallet.getId(), transactionLoader);
         wallet.updateTransactions(blockTransactions);
 
         Map<String, String> detachedLabels = createDetachedLabelDao().getAll();
@@ -137,6 +146,15 @@ public interface WalletDao {
         wallet.getUtxoMixes().putAll(utxoMixes);
     }
 
+    default byte[] getTransactionBytes(String schema, Sha256Hash txid) {
+        try {
+            setSchema(schema);
+            return createBlockTransactionDao().getTransactionBytes(txid.getBytes());
+        } finally {
+            setSchema(DbPersistence.DEFAULT_SCHEMA);
+        }
+    }
+
     default void addWallet(String schema, Wallet wallet) {
         try {
             setSchema(schema);
@@ -7,13 +7,12 @@ import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindList;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.jdbi.v3.sqlobject.statement.UseRowReducer;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 
 public interface WalletNodeDao {
     @SqlQuery("select walletNode.id, walletNode.derivationPath, walletNode.label, walletNode.parent, walletNode.addressData, walletNode.silentPaymentTweak, ?, " +
@@ -29,12 +28,16 @@ public interface WalletNodeDao {
     @GetGeneratedKeys("id")
     long insertWalletNode(String derivationPath, String label, long wallet, Long parent, byte[] addressData, byte[] silentPaymentTweak);
 
-    @SqlUpdate("insert into blockTransactionHashIndex (hash, height, date, fee, label, index, outputValue, status, spentBy, node) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+    @SqlBatch("insert into walletNode (derivationPath, label, wallet, parent, addressData, silentPaymentTweak) values (?, ?, ?, ?, ?, ?)")
     @GetGeneratedKeys("id")
-    long insertBlockTransactionHashIndex(byte[] hash, int height, Date date, Long fee, String label, long index, long value, Integer status, Long spentBy, long node);
+    long[] insertWalletNodes(List<String> derivationPaths, List<String> labels, long wallet, List<Long> parents, List<byte[]> addressData, List<byte[]> silentPaymentTweaks);
 
-    @SqlUpdate("update blockTransactionHashIndex set hash = ?, height = ?, date = ?, fee = ?, label = ?, index = ?, outputValue = ?, status = ?, spentBy = ?, node = ? where id = ?")
-    void updateBlockTransactionHashIndex(byte[] hash, int height, Date date, Long fee, String label, long index, long value, Integer status, Long spentBy, long node, long id);
+    @SqlBatch("insert into blockTransactionHashIndex (hash, height, date, fee, label, index, outputValue, status, spentBy, node) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+    @GetGeneratedKeys("id")
+    long[] insertBlockTransactionHashIndexes(List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<Long> indexes, List<Long> values, List<Integer> statuses, List<Long> spentBys, List<Long> nodes);
+
+    @SqlBatch("update blockTransactionHashIndex set hash = ?, height = ?, date = ?, fee = ?, label = ?, index = ?, outputValue = ?, status = ?, spentBy = ?, node = ? where id = ?")
+    void updateBlockTransactionHashIndexes(List<byte[]> hashes, List<Integer> heights, List<Date> dates, List<Long> fees, List<String> labels, List<Long> indexes, List<Long> values, List<Integer> statuses, List<Long> spentBys, List<Long> nodes, List<Long> ids);
 
     @SqlUpdate("update walletNode set label = :label where id = :id")
     void updateNodeLabel(@Bind("id") long id, @Bind("label") String label);
@@ -61,52 +64,100 @@ public interface WalletNodeDao {
     void deleteUnreferencedNodeSpentTxos(@Bind("nodeId") Long nodeId, @BindList("ids") List<Long> ids);
 
     default void addWalletNodes(Wallet wallet) {
-        for(WalletNode purposeNode : wallet.getPurposeNodes()) {
-            long purposeNodeId = insertWalletNode(purposeNode.getDerivationPath(), truncate(purposeNode.getLabel()), wallet.getId(), null, null, null);
-            purposeNode.setId(purposeNodeId);
-            addTransactionOutputs(purposeNode);
-            List<WalletNode> childNodes = new ArrayList<>(purposeNode.getChildren());
-            for(WalletNode addressNode : childNodes) {
-                long addressNodeId = insertWalletNode(addressNode.getDerivationPath(), truncate(addressNode.getLabel()), wallet.getId(), purposeNodeId, addressNode.getAddressData(), addressNode.getSilentPaymentTweak());
-                addressNode.setId(addressNodeId);
-                addTransactionOutputs(addressNode);
+        List<WalletNode> purposeNodes = new ArrayList<>(wallet.getPurposeNodes());
+        insertWalletNodes(wallet, purposeNodes, Collections.nCopies(purposeNodes.size(), null));
+
+        List<WalletNode> addressNodes = new ArrayList<>();
+        List<Long> parentIds = new ArrayList<>();
+        for(WalletNode purposeNode : purposeNodes) {
+            for(WalletNode addressNode : purposeNode.getChildren()) {
+                addressNodes.add(addressNode);
+                parentIds.add(purposeNode.getId());
             }
         }
+        insertWalletNodes(wallet, addressNodes, parentIds);
+
+        List<WalletNode> walletNodes = new ArrayList<>(purposeNodes);
+        walletNodes.addAll(addressNodes);
+        addTransactionOutputs(walletNodes);
+    }
+
+    default void insertWalletNodes(Wallet wallet, List<WalletNode> walletNodes, List<Long> parentIds) {
+        if(walletNodes.isEmpty()) {
+            return;
+        }
+
+        List<String> derivationPaths = new ArrayList<>(walletNodes.size());
+        List<String> labels = new ArrayList<>(walletNodes.size());
+        List<byte[]> addressData = new ArrayList<>(walletNodes.size());
+        List<byte[]> silentPaymentTweaks = new ArrayList<>(walletNodes.size());
+        for(int i = 0; i < walletNodes.size(); i++) {
+            WalletNode walletNode = walletNodes.get(i);
+            boolean purposeNode = parentIds.get(i) == null;
+            derivationPaths.add(walletNode.getDerivationPath());
+            labels.add(truncate(walletNode.getLabel()));
+            addressData.add(purposeNode ? null : walletNode.getAddressData());
+            silentPaymentTweaks.add(purposeNode ? null : walletNode.getSilentPaymentTweak());
+        }
+
+        long[] ids = insertWalletNodes(derivationPaths, labels, wallet.getId(), parentIds, addressData, silentPaymentTweaks);
+        for(int i = 0; i < walletNodes.size(); i++) {
+            walletNodes.get(i).setId(ids[i]);
+        }
     }
 
-    default void addTransactionOutputs(WalletNode addressNode) {
-        for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
-            txo.setId(null);
-            if(txo.isSpent()) {
-                txo.getSpentBy().setId(null);
+    default void addTransactionOutputs(Collection<WalletNode> addressNodes) {
+        for(WalletNode addressNode : addressNodes) {
+            for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                txo.setId(null);
+                if(txo.isSpent()) {
+                    txo.getSpentBy().setId(null);
+                }
             }
+        }
+
+        addOrUpdate(addressNodes);
+    }
 
-            addOrUpdate(addressNode, txo);
+    default void addOrUpdate(Collection<WalletNode> addressNodes) {
+        List<BlockTransactionHashIndex> spendingTxos = new ArrayList<>();
+        List<Long> spendingNodeIds = new ArrayList<>();
+        List<BlockTransactionHashIndex> txos = new ArrayList<>();
+        List<Long> txoNodeIds = new ArrayList<>();
+        for(WalletNode addressNode : addressNodes) {
+            for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                if(txo.isSpent()) {
+                    spendingTxos.add(txo.getSpentBy());
+                    spendingNodeIds.add(addressNode.getId());
+                }
+                txos.add(txo);
+                txoNodeIds.add(addressNode.getId());
+            }
         }
+
+        //Spending txos are written in a first pass so that their ids are known when writing the spentBy references of the txos they spend
+        addOrUpdateTxos(spendingTxos, spendingNodeIds);
+        addOrUpdateTxos(txos, txoNodeIds);
     }
 
-    default void addOrUpdate(WalletNode addressNode, BlockTransactionHashIndex txo) {
-        Long spentById = null;
-        if(txo.isSpent()) {
-            BlockTransactionHashIndex spentBy = txo.getSpentBy();
-            if(spentBy.getId() == null) {
-                spentById = insertBlockTransactionHashIndex(spentBy.getHash().getBytes(), spentBy.getHeight(), spentBy.getDate(), spentBy.getFee(), truncate(spentBy.getLabel()), spentBy.getIndex(), spentBy.getValue(),
-                        spentBy.getStatus() == null ? null : spentBy.getStatus().ordinal(), null, addressNode.getId());
-                spentBy.setId(spentById);
-            } else {
-                updateBlockTransactionHashIndex(spentBy.getHash().getBytes(), spentBy.getHeight(), spentBy.getDate(), spentBy.getFee(), truncate(spentBy.getLabel()), spentBy.getIndex(), spentBy.getValue(),
-                        spentBy.getStatus() == null ? null : spentBy.getStatus().ordinal(), null, addressNode.getId(), spentBy.getId());
-                spentById = spentBy.getId();
+    default void addOrUpdateTxos(List<BlockTransactionHashIndex> txos, List<Long> nodeIds) {
+        TxoBatch inserts = new TxoBatch();
+        TxoBatch updates = new TxoBatch();
+        for(int i = 0; i < txos.size(); i++) {
+            BlockTransactionHashIndex txo = txos.get(i);
+            (txo.getId() == null ? inserts : updates).add(txo, truncate(txo.getLabel()), nodeIds.get(i));
+        }
+
+        if(!inserts.txos.isEmpty()) {
+            long[] ids = insertBlockTransactionHashIndexes(inserts.hashes, inserts.heights, inserts.dates, inserts.fees, inserts.labels, inserts.indexes, inserts.values, inserts.statuses, inserts.spentBys, inserts.nodes);
+            for(int i = 0; i < inserts.txos.size(); i++) {
+                inserts.txos.get(i).setId(ids[i]);
             }
         }
 
-        if(txo.getId() == null) {
-            long txoId = insertBlockTransactionHashIndex(txo.getHash().getBytes(), txo.getHeight(), txo.getDate(), txo.getFee(), truncate(txo.getLabel()), txo.getIndex(), txo.getValue(),
-                    txo.getStatus() == null ? null : txo.getStatus().ordinal(), spentById, addressNode.getId());
-            txo.setId(txoId);
-        } else {
-            updateBlockTransactionHashIndex(txo.getHash().getBytes(), txo.getHeight(), txo.getDate(), txo.getFee(), truncate(txo.getLabel()), txo.getIndex(), txo.getValue(),
-                    txo.getStatus() == null ? null : txo.getStatus().ordinal(), spentById, addressNode.getId(), txo.getId());
+        if(!updates.txos.isEmpty()) {
+            List<Long> ids = updates.txos.stream().map(BlockTransactionHashIndex::getId).toList();
+            updateBlockTransactionHashIndexes(updates.hashes, updates.heights, updates.dates, updates.fees, updates.labels, updates.indexes, updates.values, updates.statuses, updates.spentBys, updates.nodes, ids);
         }
     }
 
@@ -123,4 +174,32 @@ public interface WalletNodeDao {
     default String truncate(String label) {
         return (label != null && label.length() > WalletNode.MAX_LABEL_LENGTH ? label.substring(0, WalletNode.MAX_LABEL_LENGTH) : label);
     }
+
+    class TxoBatch {
+        private final List<BlockTransactionHashIndex> txos = new ArrayList<>();
+        private final List<byte[]> hashes = new ArrayList<>();
+        private final List<Integer> heights = new ArrayList<>();
+        private final List<Date> dates = new ArrayList<>();
+        private final List<Long> fees = new ArrayList<>();
+        private final List<String> labels = new ArrayList<>();
+        private final List<Long> indexes = new ArrayList<>();
+        private final List<Long> values = new ArrayList<>();
+        private final List<Integer> statuses = new ArrayList<>();
+        private final List<Long> spentBys = new ArrayList<>();
+        private final List<Long> nodes = new ArrayList<>();
+
+        private void add(BlockTransactionHashIndex txo, String label, Long nodeId) {
+            txos.add(txo);
+            hashes.add(txo.getHash().getBytes());
+            heights.add(txo.getHeight());
+            dates.add(txo.getDate());
+            fees.add(txo.getFee());
+            labels.add(label);
+            indexes.add(txo.getIndex());
+            values.add(txo.getValue());
+            statuses.add(txo.getStatus() == null ? null : txo.getStatus().ordinal());
+            spentBys.add(txo.isSpent() ? txo.getSpentBy().getId() : null);
+            nodes.add(nodeId);
+        }
+    }
 }
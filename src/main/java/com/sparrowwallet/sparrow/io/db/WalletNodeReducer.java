@@ -3,16 +3,25 @@ package com.sparrowwallet.sparrow.io.db;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
 import com.sparrowwallet.drongo.wallet.WalletNode;
-import org.jdbi.v3.core.result.LinkedHashMapRowReducer;
+import org.jdbi.v3.core.result.RowReducer;
 import org.jdbi.v3.core.result.RowView;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.stream.Stream;
 
-public class WalletNodeReducer implements LinkedHashMapRowReducer<Long, WalletNode> {
+public class WalletNodeReducer implements RowReducer<WalletNodeReducer.Container, WalletNode> {
     private static final BlockTransactionHashIndex INPUT_MARKER = new BlockTransactionHashIndex(Sha256Hash.ZERO_HASH, 0, null, null, 0, 0);
 
     @Override
-    public void accumulate(Map<Long, WalletNode> map, RowView rowView) {
+    public Container container() {
+        return new Container();
+    }
+
+    @Override
+    public void accumulate(Container container, RowView rowView) {
+        Map<Long, WalletNode> map = container.walletNodes;
         WalletNode walletNode = map.computeIfAbsent(rowView.getColumn("walletNode.id", Long.class), id -> rowView.getRow(WalletNode.class));
 
         if(rowView.getColumn("walletNode.parent", Long.class) != null) {
@@ -22,9 +31,12 @@ public class WalletNodeReducer implements LinkedHashMapRowReducer<Long, WalletNo
 
         if(rowView.getColumn("blockTransactionHashIndex.node", Long.class) != null) {
             BlockTransactionHashIndex blockTransactionHashIndex = rowView.getRow(BlockTransactionHashIndex.class);
-            if(rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class) != null) {
-                BlockTransactionHashIndex spentBy = walletNode.getTransactionOutputs().stream().filter(ref -> ref.getId().equals(rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class))).findFirst()
-                        .orElseThrow(() -> new IllegalStateException("Cannot find transaction output for " + rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class)));
+            Long spentById = rowView.getColumn("blockTransactionHashIndex.spentBy", Long.class);
+            if(spentById != null) {
+                BlockTransactionHashIndex spentBy = container.transactionOutputs.remove(spentById);
+                if(spentBy == null) {
+                    throw new IllegalStateException("Cannot find transaction output for " + spentById);
+                }
                 blockTransactionHashIndex.setSpentBy(spentBy);
                 walletNode.getTransactionOutputs().remove(spentBy);
                 spentBy.setSpentBy(null);
@@ -35,6 +47,18 @@ public class WalletNodeReducer implements LinkedHashMapRowReducer<Long, WalletNo
                 blockTransactionHashIndex.setSpentBy(INPUT_MARKER);
                 walletNode.getTransactionOutputs().add(blockTransactionHashIndex);
             }
+            container.transactionOutputs.put(blockTransactionHashIndex.getId(), blockTransactionHashIndex);
         }
     }
+
+    @Override
+    public Stream<WalletNode> stream(Container container) {
+        return container.walletNodes.values().stream();
+    }
+
+    public static class Container {
+        private final Map<Long, WalletNode> walletNodes = new LinkedHashMap<>();
+        //Transaction outputs by row id, so that the output a spentBy reference points to is found without searching the node's outputs
+        private final Map<Long, BlockTransactionHashIndex> transactionOutputs = new HashMap<>();
+    }
 }
@@ -223,6 +223,26 @@ public class BatchedElectrumServerRpc implements ElectrumServerRpc {
         }
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, BlockHeaders> getBlockHeaderRanges(Transport transport, Wallet wallet, Map<Integer, Integer> startHeightCounts) {
+        PagedBatchRequestBuilder<Integer, BlockHeaders> batchRequest = PagedBatchRequestBuilder.create(transport, idCounter).keysType(Integer.class).returnType(BlockHeaders.class);
+        int total = startHeightCounts.values().stream().mapToInt(Integer::intValue).sum();
+        EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving " + total + " block headers"));
+
+        for(Map.Entry<Integer, Integer> entry : startHeightCounts.entrySet()) {
+            batchRequest.add(entry.getKey(), "blockchain.block.headers", entry.getKey(), entry.getValue());
+        }
+
+        try {
+            return batchRequest.execute();
+        } catch(JsonRpcBatchException e) {
+            return (Map<Integer, BlockHeaders>)e.getSuccesses();
+        } catch(Exception e) {
+            throw new ElectrumServerRpcException("Failed to retrieve block header ranges starting at block heights: " + startHeightCounts.keySet(), e);
+        }
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Map<Integer, BlockStats> getBlockStats(Transport transport, Set<Integer> blockHeights) {
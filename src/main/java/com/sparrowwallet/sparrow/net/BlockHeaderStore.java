@@ -0,0 +1,279 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.BlockHeader;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Stores block headers retrieved from the server as fixed 80 byte records indexed by height, in a memory mapped file in the cache directory.
+ * Only the heights needed by open wallets are stored, with missing heights left as zeroed records.
+ * Every header must meet its claimed proof of work target, and must link to any stored header directly before or after it.
+ * A stored header that does not link to a newly verified neighbour has been reorganised out of the chain and is removed.
+ * Since only the claimed target of each header is checked, the store is bound to the server the headers were retrieved from, and is cleared when a different server is used.
+ * If the file cannot be opened, headers are kept in memory for the session instead.
+ */
+public class BlockHeaderStore {
+    private static final Logger log = LoggerFactory.getLogger(BlockHeaderStore.class);
+
+    public static final int HEADER_SIZE = 80;
+    private static final String HEADERS_FILENAME = "blockheaders";
+    private static final String SERVER_FILENAME = "blockheaders.server";
+    private static final int GROWTH_RECORDS = 65536;
+    private static final byte[] EMPTY_HEADER = new byte[HEADER_SIZE];
+
+    private final FileChannel channel;
+    private final File serverFile;
+    private ByteBuffer buffer;
+    private int highestHeight = -1;
+    private String server;
+
+    private BlockHeaderStore(FileChannel channel, ByteBuffer buffer, File serverFile) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.serverFile = serverFile;
+
+        for(int height = buffer.capacity() / HEADER_SIZE - 1; height >= 0; height--) {
+            if(!isEmpty(height)) {
+                highestHeight = height;
+                break;
+            }
+        }
+    }
+
+    public static BlockHeaderStore open() {
+        File cacheDir = Storage.getCacheDir();
+        File headersFile = new File(cacheDir, HEADERS_FILENAME);
+        try {
+            if(!cacheDir.exists()) {
+                Storage.createOwnerOnlyDirectory(cacheDir);
+            }
+
+            if(!headersFile.exists()) {
+                Storage.createOwnerOnlyFile(headersFile);
+            }
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(headersFile, "rw");
+            FileChannel channel = randomAccessFile.getChannel();
+            long records = channel.size() / HEADER_SIZE;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, records * HEADER_SIZE);
+            File serverFile = new File(cacheDir, SERVER_FILENAME);
+            BlockHeaderStore blockHeaderStore = new BlockHeaderStore(channel, buffer, serverFile);
+            if(serverFile.exists()) {
+                blockHeaderStore.server = Files.readString(serverFile.toPath(), StandardCharsets.UTF_8).trim();
+            }
+            return blockHeaderStore;
+        } catch(IOException | RuntimeException e) {
+            log.warn("Could not open block header store at " + headersFile.getAbsolutePath() + ", storing block headers in memory", e);
+            return inMemory();
+        }
+    }
+
+    public static BlockHeaderStore inMemory() {
+        return new BlockHeaderStore(null, ByteBuffer.allocate(0), null);
+    }
+
+    /**
+     * Binds the store to the server headers are about to be retrieved from, clearing any headers stored from a different server.
+     * A server can only be trusted to the extent of the proof of work in its own headers, so headers from one server are not used to verify another.
+     */
+    public synchronized void bindServer(String serverUrl) {
+        String serverId = Utils.bytesToHex(Sha256Hash.hash(serverUrl.getBytes(StandardCharsets.UTF_8)));
+        if(serverId.equals(server)) {
+            return;
+        }
+
+        if(highestHeight >= 0) {
+            log.debug("Clearing block headers stored from a different server");
+            clear();
+        }
+
+        server = serverId;
+        if(serverFile != null) {
+            try {
+                if(!serverFile.exists()) {
+                    Storage.createOwnerOnlyFile(serverFile);
+                }
+                Files.writeString(serverFile.toPath(), serverId, StandardCharsets.UTF_8);
+            } catch(IOException e) {
+                log.warn("Could not write block header store server file", e);
+            }
+        }
+    }
+
+    public synchronized BlockHeader get(int height) {
+        byte[] headerBytes = getBytes(height);
+        return headerBytes == null ? null : new BlockHeader(headerBytes);
+    }
+
+    public synchronized boolean contains(int height) {
+        return height >= 0 && height <= highestHeight && !isEmpty(height);
+    }
+
+    public synchronized int getHighestHeight() {
+        return highestHeight;
+    }
+
+    /**
+     * Verifies and stores a header, returning false if it does not meet its proof of work target.
+     * A stored header directly before that does not link is removed, as are all stored headers above if the header directly after does not link.
+     */
+    public synchronized boolean put(int height, byte[] headerBytes) {
+        if(height < 0 || headerBytes == null || headerBytes.length != HEADER_SIZE || !new BlockHeader(headerBytes).verifyProofOfWork()) {
+            return false;
+        }
+
+        byte[] previous = getBytes(height - 1);
+        if(previous != null && !Arrays.equals(getPrevBlockHash(headerBytes), getBlockHash(previous))) {
+            log.debug("Removing stored block header at height " + (height - 1) + " that does not link to header at height " + height);
+            clear(height - 1);
+        }
+
+        byte[] next = getBytes(height + 1);
+        if(next != null && !Arrays.equals(getPrevBlockHash(next), getBlockHash(headerBytes))) {
+            log.debug("Removing stored block headers from height " + (height + 1) + " that do not link to header at height " + height);
+            truncate(height + 1);
+        }
+
+        write(height, headerBytes);
+        return true;
+    }
+
+    /**
+     * Verifies and stores a contiguous range of headers starting at the given height, returning the number of headers stored.
+     * Storing stops at the first header that does not meet its proof of work target or does not link to the header before it in the range.
+     */
+    public synchronized int putRange(int startHeight, byte[] headersBytes) {
+        int count = headersBytes.length / HEADER_SIZE;
+        byte[] previous = null;
+        for(int i = 0; i < count; i++) {
+            byte[] headerBytes = Arrays.copyOfRange(headersBytes, i * HEADER_SIZE, (i + 1) * HEADER_SIZE);
+            if(previous != null && !Arrays.equals(getPrevBlockHash(headerBytes), getBlockHash(previous))) {
+                log.warn("Block header at height " + (startHeight + i) + " does not link to the previous header in the range");
+                return i;
+            }
+            if(!put(startHeight + i, headerBytes)) {
+                log.warn("Block header at height " + (startHeight + i) + " does not meet its proof of work target");
+                return i;
+            }
+            previous = headerBytes;
+        }
+
+        return count;
+    }
+
+    /**
+     * Stores a newly announced chain tip. Any stored headers above the tip height belong to a chain that has been reorganised out, and are removed.
+     */
+    public synchronized boolean putTip(int height, byte[] headerBytes) {
+        if(height < highestHeight) {
+            truncate(height + 1);
+        }
+
+        return put(height, headerBytes);
+    }
+
+    public synchronized void clear() {
+        truncate(0);
+    }
+
+    public synchronized void close() {
+        if(channel != null) {
+            try {
+                if(buffer instanceof MappedByteBuffer mappedByteBuffer) {
+                    mappedByteBuffer.force();
+                }
+                channel.close();
+            } catch(IOException e) {
+                log.warn("Error closing block header store", e);
+            }
+        }
+    }
+
+    private byte[] getBytes(int height) {
+        if(height < 0 || height > highestHeight || isEmpty(height)) {
+            return null;
+        }
+
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        buffer.get(height * HEADER_SIZE, headerBytes);
+        return headerBytes;
+    }
+
+    private boolean isEmpty(int height) {
+        int offset = height * HEADER_SIZE;
+        for(int i = 0; i < HEADER_SIZE; i++) {
+            if(buffer.get(offset + i) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void write(int height, byte[] headerBytes) {
+        ensureCapacity(height);
+        buffer.put(height * HEADER_SIZE, headerBytes);
+        highestHeight = Math.max(highestHeight, height);
+    }
+
+    private void clear(int height) {
+        buffer.put(height * HEADER_SIZE, EMPTY_HEADER);
+        if(height == highestHeight) {
+            while(highestHeight >= 0 && isEmpty(highestHeight)) {
+                highestHeight--;
+            }
+        }
+    }
+
+    private void truncate(int fromHeight) {
+        for(int height = Math.max(fromHeight, 0); height <= highestHeight; height++) {
+            buffer.put(height * HEADER_SIZE, EMPTY_HEADER);
+        }
+        highestHeight = Math.min(highestHeight, fromHeight - 1);
+        while(highestHeight >= 0 && isEmpty(highestHeight)) {
+            highestHeight--;
+        }
+    }
+
+    private void ensureCapacity(int height) {
+        int requiredBytes = (height + 1) * HEADER_SIZE;
+        if(requiredBytes <= buffer.capacity()) {
+            return;
+        }
+
+        int capacityBytes = ((height / GROWTH_RECORDS) + 1) * GROWTH_RECORDS * HEADER_SIZE;
+        if(channel != null) {
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+                return;
+            } catch(IOException e) {
+                throw new IllegalStateException("Could not extend block header store", e);
+            }
+        }
+
+        ByteBuffer extended = ByteBuffer.allocate(capacityBytes);
+        extended.put(0, buffer, 0, buffer.capacity());
+        buffer = extended;
+    }
+
+    private static byte[] getBlockHash(byte[] headerBytes) {
+        return Sha256Hash.hash(Sha256Hash.hash(headerBytes));
+    }
+
+    private static byte[] getPrevBlockHash(byte[] headerBytes) {
+        return Arrays.copyOfRange(headerBytes, 4, 36);
+    }
+}
@@ -0,0 +1,18 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BlockHeaders {
+    public int count;
+    public String hex;
+    public int max;
+
+    public BlockHeaders() {}
+
+    public BlockHeaders(int count, String hex, int max) {
+        this.count = count;
+        this.hex = hex;
+        this.max = max;
+    }
+}
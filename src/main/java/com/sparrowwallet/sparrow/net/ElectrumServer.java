@@ -1,5 +1,7 @@
 package com.sparrowwallet.sparrow.net;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.net.HostAndPort;
 import com.sparrowwallet.drongo.KeyPurpose;
@@ -25,6 +27,7 @@ import com.sparrowwallet.sparrow.io.Server;
 import com.sparrowwallet.sparrow.net.cormorant.Cormorant;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.CormorantBitcoindException;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.CormorantBitcoindUnsupportedException;
+import com.sparrowwallet.sparrow.net.cormorant.index.StoreFile;
 import com.sparrowwallet.sparrow.paynym.PayNym;
 import com.sparrowwallet.sparrow.paynym.PayNymService;
 import javafx.application.Platform;
@@ -42,6 +45,11 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
@@ -77,9 +85,14 @@ public class ElectrumServer {
 
     private static final Map<String, String> retrievedScriptHashes = Collections.synchronizedMap(new HashMap<>());
 
+    //Keys are weak and compared by identity, so entries are dropped along with their nodes when wallet nodes are cleared or replaced
+    private static final Cache<WalletNode, String> nodeScriptHashes = CacheBuilder.newBuilder().weakKeys().build();
+
+    private static final Cache<WalletNode, NodeScriptHashStatus> nodeScriptHashStatuses = CacheBuilder.newBuilder().weakKeys().build();
+
     private static final Map<Sha256Hash, BlockTransaction> retrievedTransactions = new ConcurrentHashMap<>();
 
-    private static final Map<Integer, BlockHeader> retrievedBlockHeaders = new ConcurrentHashMap<>();
+    private static BlockHeaderStore blockHeaderStore;
 
     private static final Map<Sha256Hash, BlockTransaction> broadcastedTransactions = new ConcurrentHashMap<>();
 
@@ -87,6 +100,12 @@ public class ElectrumServer {
 
     private static final Map<Integer, WalletSyncLock> walletSyncLocks = Collections.synchronizedMap(new HashMap<>());
 
+    public static final int DEFAULT_MAX_CONCURRENT_WALLET_SYNCS = 4;
+
+    public static final int DEFAULT_MAX_GAP_LIMIT_LOOKAHEAD = 1000;
+
+    private static Semaphore walletSyncPermits;
+
     private static final Map<String, SilentPaymentsScanCache> spScanCaches = new ConcurrentHashMap<>();
 
     private static final int TAPROOT_ACTIVATION_HEIGHT = 709632;
@@ -94,6 +113,10 @@ public class ElectrumServer {
     //Consensus rejects blocks timestamped more than 2 hours in the future, extended here to allow for local clock skew
     private static final long MAXIMUM_FUTURE_TIP_TIME_SECS = 4 * 60 * 60;
 
+    private static final int MAX_BLOCK_HEADER_RANGE_GAP = 16;
+
+    private static final int MAX_BLOCK_HEADER_RANGE_COUNT = 2016;
+
     //A gap of over 2 hours between mainnet blocks occurs naturally roughly once every 3 years
     private static final long STALE_TIP_WARNING_AGE_MILLIS = 2 * 60 * 60 * 1000;
 
@@ -159,10 +182,11 @@ public class ElectrumServer {
                 if(previousServer != null && !electrumServer.equals(previousServer)) {
                     retrievedScriptHashes.clear();
                     retrievedTransactions.clear();
-                    retrievedBlockHeaders.clear();
                     walletSyncLocks.values().forEach(syncLock -> syncLock.scriptHashesInitialized = false);
                 }
                 previousServer = electrumServer;
+                //Stored headers are only verified against their own claimed targets, so headers from a different server are not relied on
+                getBlockHeaderStore().bindServer(getBlockHeaderServerId(Config.get().getServerType(), electrumServer, Config.get().getCoreServer()));
 
                 HostAndPort hostAndPort = electrumServer.getHostAndPort();
                 boolean localNetworkAddress = !Protocol.isOnionAddress(hostAndPort) && !PublicElectrumServer.isPublicServer(hostAndPort)
@@ -273,16 +297,58 @@ public class ElectrumServer {
         calculatedScriptHashes.put(scriptHash, scriptHashStatus);
     }
 
-    private static String getScriptHashStatus(String scriptHash, WalletNode walletNode) {
-        List<ScriptHashTx> scriptHashTxes = getScriptHashes(scriptHash, walletNode);
-        return getScriptHashStatus(scriptHashTxes);
+    static String getScriptHashStatus(String scriptHash, WalletNode walletNode) {
+        List<TxoStatusKey> txoStatusKeys = getTxoStatusKeys(walletNode);
+        NodeScriptHashStatus nodeStatus = nodeScriptHashStatuses.getIfPresent(walletNode);
+        if(nodeStatus != null && nodeStatus.txoStatusKeys().equals(txoStatusKeys)) {
+            if(nodeStatus.sameHeightTxios()) {
+                sameHeightTxioScriptHashes.add(scriptHash);
+            }
+
+            return nodeStatus.status();
+        }
+
+        NodeScriptHashTxes nodeScriptHashTxes = getNodeScriptHashTxes(walletNode);
+        if(nodeScriptHashTxes.sameHeightTxios()) {
+            sameHeightTxioScriptHashes.add(scriptHash);
+        }
+
+        String status = getScriptHashStatus(nodeScriptHashTxes.scriptHashTxes());
+        nodeScriptHashStatuses.put(walletNode, new NodeScriptHashStatus(txoStatusKeys, status, nodeScriptHashTxes.sameHeightTxios()));
+        return status;
+    }
+
+    /**
+     * Lists the fields of a node's transaction outputs and their spends that contribute to its script hash status, without sorting or hashing.
+     * The node's transaction outputs are modified in place in several places, so a cached status is checked against this rather than explicitly invalidated.
+     */
+    private static List<TxoStatusKey> getTxoStatusKeys(WalletNode walletNode) {
+        List<TxoStatusKey> txoStatusKeys = new ArrayList<>(walletNode.getTransactionOutputs().size() * 2);
+        for(BlockTransactionHashIndex txo : walletNode.getTransactionOutputs()) {
+            txoStatusKeys.add(new TxoStatusKey(txo));
+            if(txo.isSpent()) {
+                txoStatusKeys.add(new TxoStatusKey(txo.getSpentBy()));
+            }
+        }
+
+        return txoStatusKeys;
     }
 
     private static List<ScriptHashTx> getScriptHashes(String scriptHash, WalletNode walletNode) {
+        NodeScriptHashTxes nodeScriptHashTxes = getNodeScriptHashTxes(walletNode);
+        if(nodeScriptHashTxes.sameHeightTxios()) {
+            sameHeightTxioScriptHashes.add(scriptHash);
+        }
+
+        return nodeScriptHashTxes.scriptHashTxes();
+    }
+
+    private static NodeScriptHashTxes getNodeScriptHashTxes(WalletNode walletNode) {
         List<BlockTransactionHashIndex> txos  = new ArrayList<>(walletNode.getTransactionOutputs());
         txos.addAll(walletNode.getTransactionOutputs().stream().filter(BlockTransactionHashIndex::isSpent).map(BlockTransactionHashIndex::getSpentBy).collect(Collectors.toList()));
         Set<Sha256Hash> unique = new HashSet<>(txos.size());
         txos.removeIf(ref -> !unique.add(ref.getHash()));
+        boolean[] sameHeightTxios = new boolean[1];
         txos.sort((txo1, txo2) -> {
             if(txo1.getHeight() != txo2.getHeight()) {
                 return txo1.getComparisonHeight() - txo2.getComparisonHeight();
@@ -298,11 +364,16 @@ public class ElectrumServer {
 
             //We cannot further sort by order within a block, so sometimes multiple txos to an address will mean an incorrect status
             //Save a record of these to avoid triggering an AllHistoryChangedEvent based on potentially incorrect calculated statuses
-            sameHeightTxioScriptHashes.add(scriptHash);
+            sameHeightTxios[0] = true;
             return 0;
         });
 
-        return txos.stream().map(txo -> new ScriptHashTx(txo.getHeight(), txo.getHashAsString(), txo.getFee() == null ? 0 : txo.getFee())).toList();
+        List<ScriptHashTx> scriptHashTxes = txos.stream().map(txo -> new ScriptHashTx(txo.getHeight(), txo.getHashAsString(), txo.getFee() == null ? 0 : txo.getFee())).toList();
+        return new NodeScriptHashTxes(scriptHashTxes, sameHeightTxios[0]);
+    }
+
+    static boolean isSameHeightTxioScriptHash(String scriptHash) {
+        return sameHeightTxioScriptHashes.contains(scriptHash);
     }
 
     private static String getScriptHashStatus(List<ScriptHashTx> scriptHashTxes) {
@@ -321,23 +392,47 @@ public class ElectrumServer {
     public static void clearRetrievedScriptHashes(Wallet wallet) {
         wallet.getNode(KeyPurpose.RECEIVE).getChildren().stream().map(ElectrumServer::getScriptHash).forEach(ElectrumServer::clearRetrievedScriptHash);
         wallet.getNode(KeyPurpose.CHANGE).getChildren().stream().map(ElectrumServer::getScriptHash).forEach(ElectrumServer::clearRetrievedScriptHash);
+        nodeScriptHashes.invalidateAll(wallet.getNode(KeyPurpose.RECEIVE).getChildren());
+        nodeScriptHashes.invalidateAll(wallet.getNode(KeyPurpose.CHANGE).getChildren());
+        nodeScriptHashStatuses.invalidateAll(wallet.getNode(KeyPurpose.RECEIVE).getChildren());
+        nodeScriptHashStatuses.invalidateAll(wallet.getNode(KeyPurpose.CHANGE).getChildren());
         walletSyncLocks.computeIfAbsent(wallet.hashCode(), w -> new WalletSyncLock()).scriptHashesInitialized = false;
+        ScriptHashIndex.remove(wallet);
     }
 
-    private static void clearRetrievedScriptHash(String scriptHash) {
+    static void clearRetrievedScriptHash(String scriptHash) {
         retrievedScriptHashes.remove(scriptHash);
         sameHeightTxioScriptHashes.remove(scriptHash);
     }
 
     public boolean fetchAndCalculateHistory(Wallet mainWallet, List<Wallet> filterToWallets, Set<WalletNode> filterToNodes) throws ServerException {
-        boolean historyFetched = fetchAndCalculateWalletHistory(mainWallet, filterToWallets, filterToNodes);
-        for(Wallet childWallet : new ArrayList<>(mainWallet.getChildWallets())) {
-            if(childWallet.isNested()) {
-                historyFetched |= fetchAndCalculateWalletHistory(childWallet, filterToWallets, filterToNodes);
+        List<Wallet> wallets = new ArrayList<>();
+        wallets.add(mainWallet);
+        wallets.addAll(mainWallet.getChildWallets().stream().filter(Wallet::isNested).toList());
+
+        if(wallets.size() == 1 || !isPipelined()) {
+            boolean historyFetched = false;
+            for(Wallet wallet : wallets) {
+                historyFetched |= fetchAndCalculateWalletHistory(wallet, filterToWallets, filterToNodes);
             }
+
+            return historyFetched;
         }
 
-        return historyFetched;
+        //Nested wallets have their own nodes and transactions, so they can be synchronized alongside the main wallet within the global budget
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for(Wallet wallet : wallets) {
+                futures.add(executor.submit(() -> fetchAndCalculateWalletHistory(wallet, filterToWallets, filterToNodes)));
+            }
+
+            boolean historyFetched = false;
+            for(Future<Boolean> future : futures) {
+                historyFetched |= getSyncResult(future);
+            }
+
+            return historyFetched;
+        }
     }
 
     private boolean fetchAndCalculateWalletHistory(Wallet wallet, List<Wallet> filterToWallets, Set<WalletNode> filterToNodes) throws ServerException {
@@ -352,69 +447,132 @@ public class ElectrumServer {
 
         WalletSyncLock walletSyncLock = walletSyncLocks.computeIfAbsent(wallet.hashCode(), w -> new WalletSyncLock());
         synchronized(walletSyncLock) {
-            if(!walletSyncLock.scriptHashesInitialized) {
-                addCalculatedScriptHashes(wallet);
-                walletSyncLock.scriptHashesInitialized = true;
+            //The permit is only taken once this wallet's lock is held, so queued syncs of one wallet cannot hold permits other wallets need.
+            //Without pipelining requests are sent one at a time anyway, so the budget only applies to pipelined connections.
+            Semaphore walletSyncPermits = isPipelined() ? getWalletSyncPermits() : null;
+            if(walletSyncPermits != null) {
+                try {
+                    walletSyncPermits.acquire();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServerException("Interrupted while waiting to synchronize wallet history", e);
+                }
             }
 
-            if(isConnected()) {
-                Map<String, String> previousScriptHashes = getCalculatedScriptHashes(wallet);
-                Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = (nodes == null ? getHistory(wallet) : getHistory(wallet, nodes));
-                getReferencedTransactions(wallet, nodeTransactionMap);
-                calculateNodeHistory(wallet, nodeTransactionMap);
+            try {
+                if(!walletSyncLock.scriptHashesInitialized) {
+                    addCalculatedScriptHashes(wallet);
+                    walletSyncLock.scriptHashesInitialized = true;
+                }
 
-                //Add all of the script hashes we have now fetched the history for so we don't need to fetch again until the script hash status changes
-                Set<WalletNode> updatedNodes = new HashSet<>();
-                Map<WalletNode, Set<BlockTransactionHashIndex>> walletNodes = wallet.getWalletNodes();
-                for(WalletNode node : (nodes == null ? walletNodes.keySet() : nodes)) {
-                    String scriptHash = getScriptHash(node);
-                    String subscribedStatus = getSubscribedScriptHashStatus(scriptHash);
-                    if(!Objects.equals(subscribedStatus, retrievedScriptHashes.get(scriptHash))) {
-                        updatedNodes.add(node);
+                if(isConnected()) {
+                    Map<String, String> previousScriptHashes = getCalculatedScriptHashes(wallet);
+                    Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = (nodes == null ? getHistory(wallet) : getHistory(wallet, nodes));
+                    getReferencedTransactions(wallet, nodeTransactionMap);
+                    calculateNodeHistory(wallet, nodeTransactionMap);
+
+                    //Add all of the script hashes we have now fetched the history for so we don't need to fetch again until the script hash status changes
+                    Set<WalletNode> updatedNodes = new HashSet<>();
+                    Map<WalletNode, Set<BlockTransactionHashIndex>> walletNodes = wallet.getWalletNodes();
+                    for(WalletNode node : (nodes == null ? walletNodes.keySet() : nodes)) {
+                        String scriptHash = getScriptHash(node);
+                        String subscribedStatus = getSubscribedScriptHashStatus(scriptHash);
+                        if(!Objects.equals(subscribedStatus, retrievedScriptHashes.get(scriptHash))) {
+                            updatedNodes.add(node);
+                        }
+                        retrievedScriptHashes.put(scriptHash, subscribedStatus);
                     }
-                    retrievedScriptHashes.put(scriptHash, subscribedStatus);
-                }
 
-                //If wallet was not empty, check if all used updated nodes have changed history
-                if(nodes == null && previousScriptHashes.values().stream().anyMatch(Objects::nonNull)) {
-                    if(!updatedNodes.isEmpty()
-                            && updatedNodes.equals(walletNodes.entrySet().stream().filter(entry -> !entry.getValue().isEmpty()).map(Map.Entry::getKey).collect(Collectors.toSet()))
-                            && !sameHeightTxioScriptHashes.containsAll(updatedNodes.stream().map(ElectrumServer::getScriptHash).collect(Collectors.toSet()))) {
-                        //All used nodes on a non-empty wallet have changed history. Abort and trigger a full refresh.
-                        log.info("All used nodes on a non-empty wallet have changed history. Triggering a full wallet refresh.");
-                        throw new AllHistoryChangedException();
+                    //If wallet was not empty, check if all used updated nodes have changed history
+                    if(nodes == null && previousScriptHashes.values().stream().anyMatch(Objects::nonNull)) {
+                        if(!updatedNodes.isEmpty()
+                                && updatedNodes.equals(walletNodes.entrySet().stream().filter(entry -> !entry.getValue().isEmpty()).map(Map.Entry::getKey).collect(Collectors.toSet()))
+                                && !sameHeightTxioScriptHashes.containsAll(updatedNodes.stream().map(ElectrumServer::getScriptHash).collect(Collectors.toSet()))) {
+                            //All used nodes on a non-empty wallet have changed history. Abort and trigger a full refresh.
+                            log.info("All used nodes on a non-empty wallet have changed history. Triggering a full wallet refresh.");
+                            throw new AllHistoryChangedException();
+                        }
                     }
-                }
 
-                //Clear transaction outputs for nodes that have no history - this is useful when a transaction is replaced in the mempool
-                if(nodes != null) {
-                    for(WalletNode node : nodes) {
-                        String scriptHash = getScriptHash(node);
-                        if(retrievedScriptHashes.get(scriptHash) == null && !node.getTransactionOutputs().isEmpty()) {
-                            log.debug("Clearing transaction history for " + node);
-                            node.getTransactionOutputs().clear();
+                    //Clear transaction outputs for nodes that have no history - this is useful when a transaction is replaced in the mempool
+                    if(nodes != null) {
+                        for(WalletNode node : nodes) {
+                            String scriptHash = getScriptHash(node);
+                            if(retrievedScriptHashes.get(scriptHash) == null && !node.getTransactionOutputs().isEmpty()) {
+                                log.debug("Clearing transaction history for " + node);
+                                node.getTransactionOutputs().clear();
+                            }
                         }
                     }
+
+                    return true;
                 }
 
-                return true;
+                return false;
+            } finally {
+                if(walletSyncPermits != null) {
+                    walletSyncPermits.release();
+                }
             }
-
-            return false;
         }
     }
 
     public Map<WalletNode, Set<BlockTransactionHash>> getHistory(Wallet wallet) throws ServerException {
         Map<WalletNode, Set<BlockTransactionHash>> receiveTransactionMap = new TreeMap<>();
-        getHistory(wallet, KeyPurpose.RECEIVE, receiveTransactionMap);
-
         Map<WalletNode, Set<BlockTransactionHash>> changeTransactionMap = new TreeMap<>();
-        getHistory(wallet, KeyPurpose.CHANGE, changeTransactionMap);
+
+        if(isPipelined()) {
+            //The receive and change chains are only merged once both histories are fetched, so their requests can be in flight together
+            try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                Future<Boolean> changeHistory = executor.submit(() -> {
+                    getHistory(wallet, KeyPurpose.CHANGE, changeTransactionMap);
+                    return true;
+                });
+                getHistory(wallet, KeyPurpose.RECEIVE, receiveTransactionMap);
+                getSyncResult(changeHistory);
+            }
+        } else {
+            getHistory(wallet, KeyPurpose.RECEIVE, receiveTransactionMap);
+            getHistory(wallet, KeyPurpose.CHANGE, changeTransactionMap);
+        }
 
         receiveTransactionMap.putAll(changeTransactionMap);
         return receiveTransactionMap;
     }
 
+    private static synchronized boolean isPipelined() {
+        return transport instanceof PipelinedTransport pipelinedTransport && pipelinedTransport.isPipelined();
+    }
+
+    private static <T> T getSyncResult(Future<T> future) throws ServerException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while synchronizing wallet history", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof ServerException serverException) {
+                throw serverException;
+            } else if(e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+
+            throw new ServerException(e.getCause());
+        }
+    }
+
+    private static synchronized Semaphore getWalletSyncPermits() {
+        if(walletSyncPermits == null) {
+            walletSyncPermits = new Semaphore(Math.max(1, Config.get().getMaxConcurrentWalletSyncs()));
+        }
+
+        return walletSyncPermits;
+    }
+
+    private static Object getWalletUpdateLock(Wallet wallet) {
+        return walletSyncLocks.computeIfAbsent(wallet.hashCode(), w -> new WalletSyncLock()).updateLock;
+    }
+
     public Map<WalletNode, Set<BlockTransactionHash>> getHistory(Wallet wallet, Collection<WalletNode> nodes) throws ServerException {
         Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = new TreeMap<>();
 
@@ -428,7 +586,10 @@ public class ElectrumServer {
 
         subscribeWalletNodes(wallet, historyNodes, nodeTransactionMap, 0);
         getReferences(wallet, nodeTransactionMap.keySet(), nodeTransactionMap, 0);
-        Set<BlockTransactionHash> newReferences = nodeTransactionMap.values().stream().flatMap(Collection::stream).filter(ref -> !wallet.getTransactions().containsKey(ref.getHash())).collect(Collectors.toSet());
+        Set<BlockTransactionHash> newReferences;
+        synchronized(getWalletUpdateLock(wallet)) {
+            newReferences = nodeTransactionMap.values().stream().flatMap(Collection::stream).filter(ref -> !wallet.getTransactions().containsKey(ref.getHash())).collect(Collectors.toSet());
+        }
         getReferencedTransactions(wallet, nodeTransactionMap);
 
         //Subscribe and retrieve transaction history from child nodes if necessary to maintain gap limit
@@ -444,25 +605,27 @@ public class ElectrumServer {
             //Look for additional nodes to fetch history for by considering the inputs and outputs of new transactions found
             log.debug(wallet.getFullName() + " found new transactions: " + newReferences);
             Set<WalletNode> additionalNodes = new HashSet<>();
-            Map<String, WalletNode> walletScriptHashes = getAllScriptHashes(wallet);
-            for(BlockTransactionHash reference : newReferences) {
-                BlockTransaction blockTransaction = wallet.getTransactions().get(reference.getHash());
-                for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
-                    WalletNode node = walletScriptHashes.get(getScriptHash(txOutput));
-                    if(node != null && !historyNodes.contains(node)) {
-                        additionalNodes.add(node);
-                    }
-                }
-
-                for(TransactionInput txInput : blockTransaction.getTransaction().getInputs()) {
-                    BlockTransaction inputBlockTransaction = wallet.getTransactions().get(txInput.getOutpoint().getHash());
-                    if(inputBlockTransaction != null) {
-                        TransactionOutput txOutput = inputBlockTransaction.getTransaction().getOutputs().get((int)txInput.getOutpoint().getIndex());
-                        WalletNode node = walletScriptHashes.get(getScriptHash(txOutput));
+            ScriptHashIndex scriptHashIndex = ScriptHashIndex.get(wallet);
+            synchronized(getWalletUpdateLock(wallet)) {
+                for(BlockTransactionHash reference : newReferences) {
+                    BlockTransaction blockTransaction = wallet.getTransactions().get(reference.getHash());
+                    for(TransactionOutput txOutput : blockTransaction.getTransaction().getOutputs()) {
+                        WalletNode node = scriptHashIndex.getNode(getScriptHash(txOutput));
                         if(node != null && !historyNodes.contains(node)) {
                             additionalNodes.add(node);
                         }
                     }
+
+                    for(TransactionInput txInput : blockTransaction.getTransaction().getInputs()) {
+                        BlockTransaction inputBlockTransaction = wallet.getTransactions().get(txInput.getOutpoint().getHash());
+                        if(inputBlockTransaction != null) {
+                            TransactionOutput txOutput = inputBlockTransaction.getTransaction().getOutputs().get((int)txInput.getOutpoint().getIndex());
+                            WalletNode node = scriptHashIndex.getNode(getScriptHash(txOutput));
+                            if(node != null && !historyNodes.contains(node)) {
+                                additionalNodes.add(node);
+                            }
+                        }
+                    }
                 }
             }
 
@@ -497,21 +660,78 @@ public class ElectrumServer {
     private void getHistoryToGapLimit(Wallet wallet, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, WalletNode purposeNode) throws ServerException {
         //Because node children are added sequentially in WalletNode.fillToIndex, we can simply look at the number of children to determine the highest filled index
         int historySize = purposeNode.getChildren().size();
+        int initialSize = historySize;
         //The gap limit size takes the highest used index in the retrieved history and adds the gap limit (plus one to be comparable to the number of children since index is zero based)
         int gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap, purposeNode);
+        int lookahead = 0;
+        //Addresses derived ahead are only subscribed speculatively, so without unsubscribe they would count against the server's subscription limit for good
+        boolean canUnsubscribe = serverCapability != null && serverCapability.supportsUnsubscribe();
+        int maxLookahead = canUnsubscribe ? Math.max(0, Config.get().getMaxGapLimitLookahead()) : 0;
+        //Script hashes already subscribed by another wallet before being derived here, which must stay subscribed if the node is trimmed
+        Set<String> sharedScriptHashes = new HashSet<>();
         while(historySize < gapLimitSize) {
-            purposeNode.fillToIndex(wallet, gapLimitSize - 1);
+            synchronized(getWalletUpdateLock(wallet)) {
+                purposeNode.fillToIndex(wallet, gapLimitSize + lookahead - 1);
+            }
+            for(WalletNode node : purposeNode.getChildren()) {
+                if(node.getIndex() >= historySize && subscribedScriptHashes.containsKey(getScriptHash(node))) {
+                    sharedScriptHashes.add(getScriptHash(node));
+                }
+            }
             subscribeWalletNodes(wallet, getAddressNodes(wallet, purposeNode), nodeTransactionMap, historySize);
             getReferences(wallet, nodeTransactionMap.keySet(), nodeTransactionMap, historySize);
             getReferencedTransactions(wallet, nodeTransactionMap);
             historySize = purposeNode.getChildren().size();
             gapLimitSize = getGapLimitSize(wallet, nodeTransactionMap, purposeNode);
+            //Another round means used addresses extend past the gap limit, so derive increasingly far ahead to reach the last of them in fewer rounds
+            lookahead = Math.min(maxLookahead, Math.max(wallet.getGapLimit(), lookahead * 2));
+        }
+
+        if(historySize > gapLimitSize) {
+            //Remove unused addresses that were only derived speculatively, leaving the wallet filled to the gap limit
+            int trimIndex = Math.max(initialSize, gapLimitSize);
+            Set<String> trimmedScriptHashes = new HashSet<>();
+            synchronized(getWalletUpdateLock(wallet)) {
+                purposeNode.getChildren().removeIf(node -> {
+                    if(node.getIndex() >= trimIndex && !nodeTransactionMap.containsKey(node) && node.getTransactionOutputs().isEmpty()) {
+                        trimmedScriptHashes.add(getScriptHash(node));
+                        return true;
+                    }
+                    return false;
+                });
+            }
+
+            trimmedScriptHashes.removeAll(sharedScriptHashes);
+            unsubscribeScriptHashes(trimmedScriptHashes);
         }
     }
 
+    /**
+     * Unsubscribes from script hashes of nodes that are no longer part of the wallet, if the server supports it, so that their notifications are not received.
+     * If the server does not support unsubscribing the script hashes remain recorded as subscribed, since notifications for them may still arrive.
+     */
+    private void unsubscribeScriptHashes(Set<String> scriptHashes) throws ServerException {
+        if(scriptHashes.isEmpty() || serverCapability == null || !serverCapability.supportsUnsubscribe()) {
+            return;
+        }
+
+        Map<String, Boolean> result = electrumServerRpc.unsubscribeScriptHashes(getTransport(), scriptHashes);
+        for(String scriptHash : result.keySet()) {
+            subscribedScriptHashes.remove(scriptHash);
+            retrievedScriptHashes.remove(scriptHash);
+        }
+
+        log.debug("Unsubscribed from " + result.size() + " script hashes of trimmed lookahead addresses");
+    }
+
     private Set<WalletNode> getAddressNodes(Wallet wallet, WalletNode purposeNode) {
         Integer watchLast = wallet.getWatchLast();
-        if(watchLast == null || watchLast < wallet.getGapLimit() || wallet.getStoredBlockHeight() == null || wallet.getStoredBlockHeight() == 0 || wallet.getTransactions().isEmpty()) {
+        boolean noTransactions;
+        synchronized(getWalletUpdateLock(wallet)) {
+            noTransactions = wallet.getTransactions().isEmpty();
+        }
+
+        if(watchLast == null || watchLast < wallet.getGapLimit() || wallet.getStoredBlockHeight() == null || wallet.getStoredBlockHeight() == 0 || noTransactions) {
             return purposeNode.getChildren();
         }
 
@@ -530,9 +750,11 @@ public class ElectrumServer {
         try {
             Map<WalletNode, ScriptHashTx[]> nodeHashHistory = new LinkedHashMap<>(nodes.size());
             Map<String, String> pathScriptHashes = new LinkedHashMap<>(nodes.size());
+            Map<String, WalletNode> pathNodes = new HashMap<>(nodes.size());
             for(WalletNode node : nodes) {
                 if(node.getIndex() >= startIndex) {
                     pathScriptHashes.put(node.getDerivationPath(), getScriptHash(node));
+                    pathNodes.putIfAbsent(node.getDerivationPath(), node);
                     nodeHashHistory.put(node, null);
                 }
             }
@@ -543,24 +765,36 @@ public class ElectrumServer {
 
             //Optimistic optimizations from guessing the script hash status based on known information
             Map<Sha256Hash, BlockTransaction> candidateTxs = new LinkedHashMap<>(broadcastedTransactions);
-            wallet.getTransactions().forEach((txid, blkTx) -> {
-                if(blkTx.getHeight() <= 0) {
-                    candidateTxs.putIfAbsent(txid, blkTx);
-                }
-            });
-
-            //Precompute the predicted height per candidate by inspecting in-wallet parents
-            Map<Sha256Hash, Integer> candidateHeights = new HashMap<>(candidateTxs.size());
-            for(Map.Entry<Sha256Hash, BlockTransaction> e : candidateTxs.entrySet()) {
-                int predicted = 0;
-                for(TransactionInput input : e.getValue().getTransaction().getInputs()) {
-                    BlockTransaction parent = wallet.getWalletTransaction(input.getOutpoint().getHash());
-                    if(parent != null && parent.getHeight() <= 0) {
-                        predicted = -1;
-                        break;
+            Map<Sha256Hash, Integer> candidateHeights = new HashMap<>();
+            Map<WalletNode, Set<Sha256Hash>> nodeCandidateTxids = new HashMap<>();
+            synchronized(getWalletUpdateLock(wallet)) {
+                wallet.getTransactions().forEach((txid, blkTx) -> {
+                    if(blkTx.getHeight() <= 0) {
+                        candidateTxs.putIfAbsent(txid, blkTx);
                     }
+                });
+
+                //Precompute the predicted height per candidate by inspecting in-wallet parents
+                for(Map.Entry<Sha256Hash, BlockTransaction> e : candidateTxs.entrySet()) {
+                    int predicted = 0;
+                    for(TransactionInput input : e.getValue().getTransaction().getInputs()) {
+                        BlockTransaction parent = wallet.getWalletTransaction(input.getOutpoint().getHash());
+                        if(parent != null && parent.getHeight() <= 0) {
+                            predicted = -1;
+                            break;
+                        }
+                    }
+                    candidateHeights.put(e.getKey(), predicted);
+                }
+
+                //Hash the outputs and spent outputs of each candidate once and resolve them to wallet nodes, rather than hashing them again for every node
+                ScriptHashIndex scriptHashIndex = ScriptHashIndex.get(wallet);
+                for(Map.Entry<Sha256Hash, BlockTransaction> e : candidateTxs.entrySet()) {
+                    Transaction transaction = e.getValue().getTransaction();
+                    Stream.concat(transaction.getOutputs().stream(), transaction.getInputs().stream().map(txInput -> getPrevOutput(wallet, txInput)).filter(Objects::nonNull))
+                            .map(ElectrumServer::getScriptHash).map(scriptHashIndex::getNode).filter(Objects::nonNull)
+                            .forEach(node -> nodeCandidateTxids.computeIfAbsent(node, _ -> new LinkedHashSet<>()).add(e.getKey()));
                 }
-                candidateHeights.put(e.getKey(), predicted);
             }
 
             for(Map.Entry<WalletNode, ScriptHashTx[]> entry : nodeHashHistory.entrySet()) {
@@ -570,19 +804,15 @@ public class ElectrumServer {
 
                 if(statuses != null && !statuses.isEmpty()) {
                     //Optimize for txs that are already known (broadcasted or mempool-persisted)
-                    for(Sha256Hash txid : candidateTxs.keySet()) {
+                    for(Sha256Hash txid : nodeCandidateTxids.getOrDefault(node, Collections.emptySet())) {
                         BlockTransaction blkTx = candidateTxs.get(txid);
-                        if(blkTx.getTransaction().getOutputs().stream().map(ElectrumServer::getScriptHash).anyMatch(scriptHash::equals) ||
-                            blkTx.getTransaction().getInputs().stream().map(txInput -> getPrevOutput(wallet, txInput))
-                                    .filter(Objects::nonNull).map(ElectrumServer::getScriptHash).anyMatch(scriptHash::equals)) {
-                            List<ScriptHashTx> scriptHashTxes = new ArrayList<>(getScriptHashes(scriptHash, node));
-                            scriptHashTxes.add(new ScriptHashTx(candidateHeights.get(txid), txid.toString(), blkTx.getFee() == null ? 0 : blkTx.getFee()));
-
-                            String status = getScriptHashStatus(scriptHashTxes);
-                            if(Objects.equals(status, statuses.getLast())) {
-                                entry.setValue(scriptHashTxes.toArray(new ScriptHashTx[0]));
-                                pathScriptHashes.remove(node.getDerivationPath());
-                            }
+                        List<ScriptHashTx> scriptHashTxes = new ArrayList<>(getScriptHashes(scriptHash, node));
+                        scriptHashTxes.add(new ScriptHashTx(candidateHeights.get(txid), txid.toString(), blkTx.getFee() == null ? 0 : blkTx.getFee()));
+
+                        String status = getScriptHashStatus(scriptHashTxes);
+                        if(Objects.equals(status, statuses.getLast())) {
+                            entry.setValue(scriptHashTxes.toArray(new ScriptHashTx[0]));
+                            pathScriptHashes.remove(node.getDerivationPath());
                         }
                     }
 
@@ -614,9 +844,8 @@ public class ElectrumServer {
                 for(String path : result.keySet()) {
                     ScriptHashTx[] txes = result.get(path);
 
-                    Optional<WalletNode> optionalNode = nodes.stream().filter(n -> n.getDerivationPath().equals(path)).findFirst();
-                    if(optionalNode.isPresent()) {
-                        WalletNode node = optionalNode.get();
+                    WalletNode node = pathNodes.get(path);
+                    if(node != null) {
                         nodeHashHistory.put(node, txes);
                     }
                 }
@@ -625,36 +854,11 @@ public class ElectrumServer {
             for(WalletNode node : nodeHashHistory.keySet()) {
                 ScriptHashTx[] txes = nodeHashHistory.get(node);
 
-                //Some servers can return the same tx as multiple ScriptHashTx entries with different heights. Take the highest height only
-                Set<BlockTransactionHash> references = Arrays.stream(txes).map(ScriptHashTx::getBlockchainTransactionHash)
-                        .collect(TreeSet::new, (set, ref) -> {
-                            Optional<BlockTransactionHash> optExisting = set.stream().filter(prev -> prev.getHash().equals(ref.getHash())).findFirst();
-                            if(optExisting.isPresent()) {
-                                if(optExisting.get().getHeight() < ref.getHeight()) {
-                                    set.remove(optExisting.get());
-                                    set.add(ref);
-                                }
-                            } else {
-                                set.add(ref);
-                            }
-                        }, TreeSet::addAll);
                 Set<BlockTransactionHash> existingReferences = nodeTransactionMap.get(node);
-
                 if(existingReferences == null) {
-                    nodeTransactionMap.put(node, references);
+                    nodeTransactionMap.put(node, mergeReferences(new TreeSet<>(), txes));
                 } else {
-                    for(BlockTransactionHash reference : references) {
-                        if(!existingReferences.add(reference)) {
-                            Optional<BlockTransactionHash> optionalReference = existingReferences.stream().filter(tr -> tr.getHash().equals(reference.getHash())).findFirst();
-                            if(optionalReference.isPresent()) {
-                                BlockTransactionHash existingReference = optionalReference.get();
-                                if(existingReference.getHeight() < reference.getHeight()) {
-                                    existingReferences.remove(existingReference);
-                                    existingReferences.add(reference);
-                                }
-                            }
-                        }
-                    }
+                    mergeReferences(existingReferences, txes);
                 }
             }
         } catch (ElectrumServerRpcException e) {
@@ -664,6 +868,32 @@ public class ElectrumServer {
         }
     }
 
+    /**
+     * Adds the references in the retrieved history to the existing references, keeping only the highest height reference for each transaction.
+     * Some servers can return the same tx as multiple ScriptHashTx entries with different heights.
+     */
+    static Set<BlockTransactionHash> mergeReferences(Set<BlockTransactionHash> existingReferences, ScriptHashTx[] txes) {
+        Map<Sha256Hash, BlockTransactionHash> hashReferences = new HashMap<>(existingReferences.size() + txes.length);
+        for(BlockTransactionHash existingReference : existingReferences) {
+            hashReferences.merge(existingReference.getHash(), existingReference, (prev, ref) -> prev.getHeight() < ref.getHeight() ? ref : prev);
+        }
+
+        for(ScriptHashTx tx : txes) {
+            BlockTransactionHash reference = tx.getBlockchainTransactionHash();
+            BlockTransactionHash existingReference = hashReferences.get(reference.getHash());
+            if(existingReference == null) {
+                hashReferences.put(reference.getHash(), reference);
+                existingReferences.add(reference);
+            } else if(existingReference.getHeight() < reference.getHeight()) {
+                hashReferences.put(reference.getHash(), reference);
+                existingReferences.remove(existingReference);
+                existingReferences.add(reference);
+            }
+        }
+
+        return existingReferences;
+    }
+
     public void subscribeWalletNodes(Wallet wallet, Collection<WalletNode> nodes, Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap, int startIndex) throws ServerException {
         try {
             Set<String> scriptHashes = new HashSet<>();
@@ -775,18 +1005,21 @@ public class ElectrumServer {
             }
         }
 
-        for(Iterator<Map.Entry<BlockTransactionHash, Transaction>> iter = references.entrySet().iterator(); iter.hasNext(); ) {
-            Map.Entry<BlockTransactionHash, Transaction> entry = iter.next();
-            BlockTransactionHash reference = entry.getKey();
-            BlockTransaction blockTransaction = wallet.getWalletTransaction(reference.getHash());
-            if(blockTransaction != null) {
-                if(reference.getHeight() == blockTransaction.getHeight() && (reference.getFee() == null || blockTransaction.getFee() != null)) {
-                    iter.remove();
-                } else {
-                    entry.setValue(blockTransaction.getTransaction());
+        //The receive and change chains may be synchronized concurrently, so wallet transactions are only read under the lock that guards their update
+        synchronized(getWalletUpdateLock(wallet)) {
+            for(Iterator<Map.Entry<BlockTransactionHash, Transaction>> iter = references.entrySet().iterator(); iter.hasNext(); ) {
+                Map.Entry<BlockTransactionHash, Transaction> entry = iter.next();
+                BlockTransactionHash reference = entry.getKey();
+                BlockTransaction blockTransaction = wallet.getWalletTransaction(reference.getHash());
+                if(blockTransaction != null) {
+                    if(reference.getHeight() == blockTransaction.getHeight() && (reference.getFee() == null || blockTransaction.getFee() != null)) {
+                        iter.remove();
+                    } else {
+                        entry.setValue(blockTransaction.getTransaction());
+                    }
+                } else if(broadcastedTransactions.containsKey(reference.getHash())) {
+                    entry.setValue(broadcastedTransactions.get(reference.getHash()).getTransaction());
                 }
-            } else if(broadcastedTransactions.containsKey(reference.getHash())) {
-                entry.setValue(broadcastedTransactions.get(reference.getHash()).getTransaction());
             }
         }
 
@@ -796,21 +1029,25 @@ public class ElectrumServer {
             transactionMap = getTransactions(wallet, references, blockHeaderMap);
         }
 
-        if(!transactionMap.equals(wallet.getTransactions())) {
-            wallet.updateTransactions(transactionMap);
-            broadcastedTransactions.keySet().removeAll(transactionMap.entrySet().stream().filter(entry -> entry.getValue().getHeight() > 0)
-                    .map(Map.Entry::getKey).collect(Collectors.toSet()));
+        synchronized(getWalletUpdateLock(wallet)) {
+            if(!transactionMap.equals(wallet.getTransactions())) {
+                wallet.updateTransactions(transactionMap);
+                broadcastedTransactions.keySet().removeAll(transactionMap.entrySet().stream().filter(entry -> entry.getValue().getHeight() > 0)
+                        .map(Map.Entry::getKey).collect(Collectors.toSet()));
+            }
         }
     }
 
     public Map<Integer, BlockHeader> getBlockHeaders(Wallet wallet, Set<BlockTransactionHash> references) throws ServerException {
         try {
+            BlockHeaderStore store = getBlockHeaderStore();
             Map<Integer, BlockHeader> blockHeaderMap = new TreeMap<>();
             Set<Integer> blockHeights = new TreeSet<>();
             for(BlockTransactionHash reference : references) {
-                if(reference.getHeight() > 0) {
-                    if(retrievedBlockHeaders.containsKey(reference.getHeight())) {
-                        blockHeaderMap.put(reference.getHeight(), retrievedBlockHeaders.get(reference.getHeight()));
+                if(reference.getHeight() > 0 && !blockHeaderMap.containsKey(reference.getHeight())) {
+                    BlockHeader blockHeader = store.get(reference.getHeight());
+                    if(blockHeader != null) {
+                        blockHeaderMap.put(reference.getHeight(), blockHeader);
                     } else {
                         blockHeights.add(reference.getHeight());
                     }
@@ -821,13 +1058,42 @@ public class ElectrumServer {
                 return blockHeaderMap;
             }
 
+            //Fetch contiguous ranges of headers, which also allows each header to be verified against the one before it
+            try {
+                Map<Integer, BlockHeaders> result = electrumServerRpc.getBlockHeaderRanges(getTransport(), wallet, getBlockHeaderRanges(blockHeights));
+                for(Integer startHeight : result.keySet()) {
+                    BlockHeaders blockHeaders = result.get(startHeight);
+                    if(blockHeaders != null && blockHeaders.hex != null) {
+                        store.putRange(startHeight, Utils.hexToBytes(blockHeaders.hex));
+                    }
+                }
+            } catch(ElectrumServerRpcException e) {
+                log.debug("Could not retrieve block header ranges, retrieving individually", e);
+            }
+
+            for(Iterator<Integer> iter = blockHeights.iterator(); iter.hasNext(); ) {
+                Integer height = iter.next();
+                BlockHeader blockHeader = store.get(height);
+                if(blockHeader != null) {
+                    blockHeaderMap.put(height, blockHeader);
+                    iter.remove();
+                }
+            }
+
+            if(blockHeights.isEmpty()) {
+                return blockHeaderMap;
+            }
+
             Map<Integer, String> result = electrumServerRpc.getBlockHeaders(getTransport(), wallet, blockHeights);
 
             for(Integer height : result.keySet()) {
                 byte[] blockHeaderBytes = Utils.hexToBytes(result.get(height));
-                BlockHeader blockHeader = new BlockHeader(blockHeaderBytes);
-                blockHeaderMap.put(height, blockHeader);
-                updateRetrievedBlockHeaders(height, blockHeader);
+                if(!store.put(height, blockHeaderBytes)) {
+                    log.warn("Block header at height " + height + " does not meet its proof of work target");
+                    continue;
+                }
+
+                blockHeaderMap.put(height, new BlockHeader(blockHeaderBytes));
                 blockHeights.remove(height);
             }
 
@@ -845,13 +1111,43 @@ public class ElectrumServer {
         }
     }
 
+    /**
+     * Coalesces the given sorted heights into ranges of start height to count, bridging small gaps so that nearby heights share a request.
+     */
+    static Map<Integer, Integer> getBlockHeaderRanges(Set<Integer> blockHeights) {
+        Map<Integer, Integer> startHeightCounts = new LinkedHashMap<>();
+        int start = -1;
+        int end = -1;
+        for(Integer height : blockHeights) {
+            if(start >= 0 && height - end <= MAX_BLOCK_HEADER_RANGE_GAP && height - start < MAX_BLOCK_HEADER_RANGE_COUNT) {
+                end = height;
+            } else {
+                if(start >= 0) {
+                    startHeightCounts.put(start, end - start + 1);
+                }
+                start = height;
+                end = height;
+            }
+        }
+
+        if(start >= 0) {
+            startHeightCounts.put(start, end - start + 1);
+        }
+
+        return startHeightCounts;
+    }
+
     public Map<Sha256Hash, BlockTransaction> getTransactions(Wallet wallet, Map<BlockTransactionHash, Transaction> references, Map<Integer, BlockHeader> blockHeaderMap) throws ServerException {
         try {
             Map<Sha256Hash, BlockTransaction> transactionMap = new HashMap<>();
-            Set<BlockTransactionHash> checkReferences = new TreeSet<>(references.keySet());
+            //Index the references by hash so that returned transactions are matched and checked off without scanning all references
+            Map<Sha256Hash, List<BlockTransactionHash>> hashReferences = new HashMap<>(references.size());
+            Map<Sha256Hash, Set<BlockTransactionHash>> checkReferences = new HashMap<>();
 
             Set<String> txids = new LinkedHashSet<>(references.size());
             for(BlockTransactionHash reference : references.keySet()) {
+                hashReferences.computeIfAbsent(reference.getHash(), _ -> new ArrayList<>(1)).add(reference);
+                checkReferences.computeIfAbsent(reference.getHash(), _ -> new TreeSet<>()).add(reference);
                 if(references.get(reference) == null) {
                     txids.add(reference.getHashAsString());
                 }
@@ -867,7 +1163,7 @@ public class ElectrumServer {
 
                     if(strRawTx.equals(strErrorTx)) {
                         transactionMap.put(hash, UNFETCHABLE_BLOCK_TRANSACTION);
-                        checkReferences.removeIf(ref -> ref.getHash().equals(hash));
+                        checkReferences.remove(hash);
                         continue;
                     }
 
@@ -885,13 +1181,15 @@ public class ElectrumServer {
                         throw new IllegalStateException("Server returned a transaction that does not match the requested txid " + hash);
                     }
 
-                    Optional<BlockTransactionHash> optionalReference = references.keySet().stream().filter(reference -> reference.getHash().equals(hash)).findFirst();
-                    if(optionalReference.isEmpty()) {
+                    List<BlockTransactionHash> hashReferenceList = hashReferences.get(hash);
+                    if(hashReferenceList == null) {
                         throw new IllegalStateException("Returned transaction " + hash.toString() + " that was not requested");
                     }
-                    BlockTransactionHash reference = optionalReference.get();
 
-                    references.put(reference, transaction);
+                    //The same transaction may be referenced more than once, for example with and without a fee, and each reference is given it
+                    for(BlockTransactionHash reference : hashReferenceList) {
+                        references.put(reference, transaction);
+                    }
                 }
             }
 
@@ -899,7 +1197,7 @@ public class ElectrumServer {
                 Transaction transaction = references.get(reference);
                 if(transaction == null) {
                     transactionMap.put(reference.getHash(), UNFETCHABLE_BLOCK_TRANSACTION);
-                    checkReferences.removeIf(ref -> ref.getHash().equals(reference.getHash()));
+                    checkReferences.remove(reference.getHash());
                     continue;
                 }
 
@@ -908,7 +1206,7 @@ public class ElectrumServer {
                     BlockHeader blockHeader = blockHeaderMap.get(reference.getHeight());
                     if(blockHeader == null) {
                         transactionMap.put(reference.getHash(), UNFETCHABLE_BLOCK_TRANSACTION);
-                        checkReferences.removeIf(ref -> ref.getHash().equals(reference.getHash()));
+                        checkReferences.remove(reference.getHash());
                         continue;
                     }
                     blockDate = blockHeader.getTimeAsDate();
@@ -916,7 +1214,10 @@ public class ElectrumServer {
 
                 Long fee = reference.getFee();
                 if(fee == null && wallet != null) {
-                    BlockTransaction cached = wallet.getWalletTransaction(reference.getHash());
+                    BlockTransaction cached;
+                    synchronized(getWalletUpdateLock(wallet)) {
+                        cached = wallet.getWalletTransaction(reference.getHash());
+                    }
                     if(cached != null && cached.getFee() != null) {
                         fee = cached.getFee();
                     }
@@ -924,11 +1225,14 @@ public class ElectrumServer {
                 BlockTransaction blockchainTransaction = new BlockTransaction(reference.getHash(), reference.getHeight(), blockDate, fee, transaction);
 
                 transactionMap.put(reference.getHash(), blockchainTransaction);
-                checkReferences.remove(reference);
+                Set<BlockTransactionHash> hashCheckReferences = checkReferences.get(reference.getHash());
+                if(hashCheckReferences != null && hashCheckReferences.remove(reference) && hashCheckReferences.isEmpty()) {
+                    checkReferences.remove(reference.getHash());
+                }
             }
 
             if(!checkReferences.isEmpty()) {
-                throw new IllegalStateException("Could not retrieve transactions " + checkReferences);
+                throw new IllegalStateException("Could not retrieve transactions " + checkReferences.values().stream().flatMap(Collection::stream).collect(Collectors.toCollection(TreeSet::new)));
             }
 
             return transactionMap;
@@ -1373,17 +1677,6 @@ public class ElectrumServer {
         return transactionOutputs;
     }
 
-    public static Map<String, WalletNode> getAllScriptHashes(Wallet wallet) {
-        Map<String, WalletNode> scriptHashes = new HashMap<>();
-        for(KeyPurpose keyPurpose : KeyPurpose.DEFAULT_PURPOSES) {
-            for(WalletNode childNode : wallet.getNode(keyPurpose).getChildren()) {
-                scriptHashes.put(getScriptHash(childNode), childNode);
-            }
-        }
-
-        return scriptHashes;
-    }
-
     private static TransactionOutput getPrevOutput(Wallet wallet, TransactionInput txInput) {
         try {
             return wallet.getWalletTransaction(txInput.getOutpoint().getHash()).getTransaction().getOutputs().get((int)txInput.getOutpoint().getIndex());
@@ -1393,19 +1686,29 @@ public class ElectrumServer {
     }
 
     public static String getScriptHash(WalletNode node) {
-        byte[] hash = Sha256Hash.hash(node.getOutputScript().getProgram());
-        byte[] reversed = Utils.reverseBytes(hash);
-        return Utils.bytesToHex(reversed);
+        String scriptHash = nodeScriptHashes.getIfPresent(node);
+        if(scriptHash == null) {
+            scriptHash = getScriptHash(node.getOutputScript());
+            nodeScriptHashes.put(node, scriptHash);
+        }
+
+        return scriptHash;
+    }
+
+    static boolean isScriptHashMemoized(WalletNode node) {
+        return nodeScriptHashes.getIfPresent(node) != null;
     }
 
     public static String getScriptHash(TransactionOutput output) {
-        byte[] hash = Sha256Hash.hash(output.getScript().getProgram());
-        byte[] reversed = Utils.reverseBytes(hash);
-        return Utils.bytesToHex(reversed);
+        return getScriptHash(output.getScript());
     }
 
     public static String getScriptHash(Address address) {
-        byte[] hash = Sha256Hash.hash(address.getOutputScript().getProgram());
+        return getScriptHash(address.getOutputScript());
+    }
+
+    private static String getScriptHash(Script script) {
+        byte[] hash = Sha256Hash.hash(script.getProgram());
         byte[] reversed = Utils.reverseBytes(hash);
         return Utils.bytesToHex(reversed);
     }
@@ -1424,6 +1727,17 @@ public class ElectrumServer {
         return spScanCaches.get(spAddress);
     }
 
+    /**
+     * Deletes the saved Cormorant index, which holds the history of deleted wallets as well as open ones.
+     */
+    public static void deleteCormorantIndex() {
+        if(cormorant != null && cormorant.getBitcoindClient() != null) {
+            cormorant.getBitcoindClient().deleteStoreFile();
+        } else {
+            StoreFile.delete();
+        }
+    }
+
     public static boolean hasSilentPaymentsCache(SilentPaymentScanAddress scanAddress) {
         return spScanCaches.containsKey(scanAddress.getAddress());
     }
@@ -1806,7 +2120,34 @@ public class ElectrumServer {
     }
 
     public static void updateRetrievedBlockHeaders(Integer blockHeight, BlockHeader blockHeader) {
-        retrievedBlockHeaders.put(blockHeight, blockHeader);
+        getBlockHeaderStore().putTip(blockHeight, blockHeader.bitcoinSerialize());
+    }
+
+    /**
+     * Returns the identity of the server that stored block headers are bound to.
+     * Cormorant listens on a new port each time it starts, so for Bitcoin Core the headers are bound to the configured Core RPC server instead.
+     */
+    static String getBlockHeaderServerId(ServerType serverType, Server electrumServer, Server coreServer) {
+        if(serverType == ServerType.BITCOIN_CORE) {
+            return "core:" + (coreServer == null ? CORE_ELECTRUM_HOST : coreServer.getUrl());
+        }
+
+        return electrumServer.getUrl();
+    }
+
+    private static synchronized BlockHeaderStore getBlockHeaderStore() {
+        if(blockHeaderStore == null) {
+            blockHeaderStore = BlockHeaderStore.open();
+        }
+
+        return blockHeaderStore;
+    }
+
+    private static synchronized void closeBlockHeaderStore() {
+        if(blockHeaderStore != null) {
+            blockHeaderStore.close();
+            blockHeaderStore = null;
+        }
     }
 
     /**
@@ -2102,6 +2443,7 @@ public class ElectrumServer {
                                 throw new ServerException(tipError);
                             }
                             initializeTip(tip);
+                            updateRetrievedBlockHeaders(tip.height, tip.getBlockHeader());
                             subscribedScriptHashes.clear();
                         } else {
                             tip = new BlockHeaderTip();
@@ -2196,6 +2538,8 @@ public class ElectrumServer {
                 reader.interrupt();
             }
 
+            closeBlockHeaderStore();
+
             if(ElectrumServer.cormorant != null) {
                 ElectrumServer.cormorant.stop();
                 ElectrumServer.cormorant = null;
@@ -2308,6 +2652,18 @@ public class ElectrumServer {
 
     private static class WalletSyncLock {
         public boolean scriptHashesInitialized;
+        //Guards the wallet's transactions and purpose nodes while the receive and change histories are fetched concurrently
+        public final Object updateLock = new Object();
+    }
+
+    private record NodeScriptHashStatus(List<TxoStatusKey> txoStatusKeys, String status, boolean sameHeightTxios) {}
+
+    private record NodeScriptHashTxes(List<ScriptHashTx> scriptHashTxes, boolean sameHeightTxios) {}
+
+    private record TxoStatusKey(Sha256Hash hash, int height, Long fee) {
+        TxoStatusKey(BlockTransactionHashIndex reference) {
+            this(reference.getHash(), reference.getHeight(), reference.getFee());
+        }
     }
 
     public static class TransactionHistoryService extends Service<Boolean> {
@@ -32,6 +32,8 @@ public interface ElectrumServerRpc {
 
     Map<Integer, String> getBlockHeaders(Transport transport, Wallet wallet, Set<Integer> blockHeights);
 
+    Map<Integer, BlockHeaders> getBlockHeaderRanges(Transport transport, Wallet wallet, Map<Integer, Integer> startHeightCounts);
+
     Map<Integer, BlockStats> getBlockStats(Transport transport, Set<Integer> blockHeights);
 
     Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids);
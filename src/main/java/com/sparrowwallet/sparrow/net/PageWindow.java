@@ -0,0 +1,107 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how many batch pages may be in flight at once on a pipelined connection, using additive increase and multiplicative decrease.
+ * The window grows by roughly one page for every window of pages completed, and halves on a failed page, or when the smoothed per request latency
+ * rises well above the best observed, which indicates requests are queueing at the server rather than filling the pipe.
+ * The pages in flight are counted here rather than by each caller, so that the window bounds the whole connection when several batches are sent at once.
+ * Per page latency and size metrics are kept so the window a given server settles on can be seen in the logs.
+ */
+public class PageWindow {
+    private static final Logger log = LoggerFactory.getLogger(PageWindow.class);
+
+    public static final int INITIAL_WINDOW = 2;
+    public static final int MAX_WINDOW = 16;
+    private static final double CONGESTED_LATENCY_FACTOR = 2.0d;
+    private static final double LATENCY_SMOOTHING = 0.125d;
+
+    private final String server;
+
+    private double window = INITIAL_WINDOW;
+    private double minRequestLatencyNanos = Double.MAX_VALUE;
+    private double smoothedRequestLatencyNanos;
+    private int pagesSinceDecrease;
+    private int inFlight;
+
+    private long pagesCompleted;
+    private long pagesFailed;
+    private long requestsCompleted;
+    private long totalLatencyNanos;
+    private int maxWindowReached = INITIAL_WINDOW;
+
+    public PageWindow(String server) {
+        this.server = server;
+    }
+
+    public synchronized int getWindow() {
+        return (int)window;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Waits until fewer pages than the current window are in flight on the connection, and then counts another page as in flight
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while(inFlight >= getWindow()) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized void pageCompleted(int size, long latencyNanos) {
+        pagesCompleted++;
+        requestsCompleted += size;
+        totalLatencyNanos += latencyNanos;
+
+        double requestLatencyNanos = (double)latencyNanos / Math.max(size, 1);
+        minRequestLatencyNanos = Math.min(minRequestLatencyNanos, requestLatencyNanos);
+        smoothedRequestLatencyNanos = (smoothedRequestLatencyNanos == 0d ? requestLatencyNanos : smoothedRequestLatencyNanos + (requestLatencyNanos - smoothedRequestLatencyNanos) * LATENCY_SMOOTHING);
+
+        //Only decrease once per window of pages, since the pages already in flight were sent before the previous decrease took effect
+        pagesSinceDecrease++;
+        if(smoothedRequestLatencyNanos > minRequestLatencyNanos * CONGESTED_LATENCY_FACTOR && window >= 2 && pagesSinceDecrease >= window) {
+            decrease();
+        } else {
+            window = Math.min(MAX_WINDOW, window + (1d / window));
+            maxWindowReached = Math.max(maxWindowReached, getWindow());
+            notifyAll();
+        }
+
+        if(log.isDebugEnabled()) {
+            log.debug("Page of " + size + " requests to " + server + " completed in " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms, window is now " + getWindow());
+        }
+    }
+
+    public synchronized void pageFailed() {
+        pagesFailed++;
+        decrease();
+        log.debug("Page to " + server + " failed, window is now " + getWindow());
+    }
+
+    private void decrease() {
+        window = Math.max(1d, window / 2d);
+        pagesSinceDecrease = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return server + " window " + getWindow() + " (max " + maxWindowReached + "), " + pagesCompleted + " pages of " + requestsCompleted + " requests completed"
+                + (pagesCompleted == 0 ? "" : " at a mean of " + TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos / pagesCompleted) + "ms per page")
+                + (minRequestLatencyNanos == Double.MAX_VALUE ? "" : String.format(Locale.ROOT, ", best %.2fms per request", minRequestLatencyNanos / 1000000d))
+                + ", " + pagesFailed + " pages failed";
+    }
+}
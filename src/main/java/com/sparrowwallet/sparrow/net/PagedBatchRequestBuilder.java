@@ -11,14 +11,19 @@ import com.google.common.collect.Lists;
 import com.sparrowwallet.sparrow.io.Config;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.sparrowwallet.sparrow.net.BatchedElectrumServerRpc.DEFAULT_MAX_ATTEMPTS;
 import static com.sparrowwallet.sparrow.net.BatchedElectrumServerRpc.RETRY_DELAY_SECS;
 
 public class PagedBatchRequestBuilder<K, V> extends AbstractBuilder {
+    private static final Logger log = LoggerFactory.getLogger(PagedBatchRequestBuilder.class);
     public static final int DEFAULT_PAGE_SIZE = 100;
 
     private final AtomicLong counter;
@@ -111,55 +116,135 @@ public class PagedBatchRequestBuilder<K, V> extends AbstractBuilder {
      */
     @NotNull
     public Map<K, V> execute(int maxAttempts) throws Exception {
-        Map<K, V> allResults = new HashMap<>();
         JsonRpcClient client = new JsonRpcClient(transport);
-
         List<List<Request<K>>> pages = Lists.partition(requests, getPageSize());
+
+        if(pages.size() > 1 && transport instanceof PipelinedTransport pipelinedTransport && pipelinedTransport.isPipelined()) {
+            return executeConcurrently(client, pages, maxAttempts, pipelinedTransport.getPageWindow());
+        }
+
+        Map<K, V> allResults = new HashMap<>();
         for(List<Request<K>> page : pages) {
-            if(counter != null) {
-                Map<Long, K> counterIdMap = new HashMap<>();
-                BatchRequestBuilder<Long, V> batchRequest = client.createBatchRequest().keysType(Long.class).returnType(returnType);
-                for(Request<K> request : page) {
-                    counterIdMap.put(request.counterId, request.id);
-                    batchRequest.add(request.counterId, request.method, request.params);
+            allResults.putAll(executePage(client, page, maxAttempts));
+        }
+
+        return allResults;
+    }
+
+    /**
+     * Sends up to the current window of pages at once over a pipelined transport, adjusting the window as each page completes.
+     * The window is shared by all callers on the connection, so a page is only sent once the connection as a whole has room for it.
+     * Unlike sequential execution, pages that fail with some errors do not prevent the remaining pages from being sent,
+     * and the successes and errors of all pages are combined into a single batch exception.
+     */
+    private Map<K, V> executeConcurrently(JsonRpcClient client, List<List<Request<K>>> pages, int maxAttempts, PageWindow pageWindow) throws Exception {
+        Map<K, V> allResults = new HashMap<>();
+        Map<Object, Object> successes = new HashMap<>();
+        Map<Object, ErrorMessage> errors = new HashMap<>();
+        Exception failure = null;
+        AtomicBoolean pageFailed = new AtomicBoolean();
+
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletionService<Map<K, V>> completionService = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            for(List<Request<K>> page : pages) {
+                pageWindow.acquire();
+                if(pageFailed.get()) {
+                    pageWindow.release();
+                    break;
                 }
 
-                try {
-                    Map<Long, V> pageResult = new RetryLogic<Map<Long, V>>(maxAttempts, RETRY_DELAY_SECS, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(batchRequest::execute);
-                    for(Map.Entry<Long, V> pageEntry : pageResult.entrySet()) {
-                        allResults.put(counterIdMap.get(pageEntry.getKey()), pageEntry.getValue());
-                    }
-                } catch(JsonRpcBatchException e) {
-                    Map<Object, Object> mappedSuccesess = new HashMap<>();
-                    for(Map.Entry<?, ?> successEntry : e.getSuccesses().entrySet()) {
-                        mappedSuccesess.put(counterIdMap.get((Long)successEntry.getKey()), successEntry.getValue());
-                    }
-                    Map<Object, ErrorMessage> mappedErrors = new HashMap<>();
-                    for(Map.Entry<?, ErrorMessage> errorEntry : e.getErrors().entrySet()) {
-                        mappedErrors.put(counterIdMap.get((Long)errorEntry.getKey()), errorEntry.getValue());
+                completionService.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        Map<K, V> pageResult = executePage(client, page, maxAttempts);
+                        pageWindow.pageCompleted(page.size(), System.nanoTime() - start);
+                        return pageResult;
+                    } catch(Exception e) {
+                        pageWindow.pageFailed();
+                        if(!(e instanceof JsonRpcBatchException)) {
+                            pageFailed.set(true);
+                        }
+                        throw e;
+                    } finally {
+                        pageWindow.release();
                     }
-                    throw new JsonRpcBatchException(e.getMessage(), mappedSuccesess, mappedErrors);
-                }
-            } else {
-                BatchRequestBuilder<K, V> batchRequest = client.createBatchRequest().keysType(keysType).returnType(returnType);
-                for(Request<K> request : page) {
-                    if(request.id instanceof String strReq) {
-                        batchRequest.add(strReq, request.method, request.params);
-                    } else if(request.id instanceof Integer intReq) {
-                        batchRequest.add(intReq, request.method, request.params);
-                    } else {
-                        throw new IllegalArgumentException("Id of class " + request.id.getClass().getName() + " not supported");
+                });
+                submitted++;
+            }
+
+            for(int i = 0; i < submitted; i++) {
+                Future<Map<K, V>> completed = completionService.take();
+                try {
+                    allResults.putAll(completed.get());
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof JsonRpcBatchException batchException) {
+                        successes.putAll(batchException.getSuccesses());
+                        errors.putAll(batchException.getErrors());
+                    } else if(failure == null) {
+                        failure = e.getCause() instanceof Exception cause ? cause : e;
                     }
                 }
-
-                Map<K, V> pageResult = new RetryLogic<Map<K, V>>(maxAttempts, RETRY_DELAY_SECS, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(batchRequest::execute);
-                allResults.putAll(pageResult);
             }
         }
 
+        log.debug("Completed " + pages.size() + " pages of " + requests.size() + " requests, " + pageWindow);
+
+        if(failure != null) {
+            throw failure;
+        }
+
+        if(!errors.isEmpty()) {
+            successes.putAll(allResults);
+            throw new JsonRpcBatchException("Errors in batch response", successes, errors);
+        }
+
         return allResults;
     }
 
+    private Map<K, V> executePage(JsonRpcClient client, List<Request<K>> page, int maxAttempts) throws Exception {
+        if(counter != null) {
+            Map<Long, K> counterIdMap = new HashMap<>();
+            BatchRequestBuilder<Long, V> batchRequest = client.createBatchRequest().keysType(Long.class).returnType(returnType);
+            for(Request<K> request : page) {
+                counterIdMap.put(request.counterId, request.id);
+                batchRequest.add(request.counterId, request.method, request.params);
+            }
+
+            try {
+                Map<K, V> pageResults = new HashMap<>();
+                Map<Long, V> pageResult = new RetryLogic<Map<Long, V>>(maxAttempts, RETRY_DELAY_SECS, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(batchRequest::execute);
+                for(Map.Entry<Long, V> pageEntry : pageResult.entrySet()) {
+                    pageResults.put(counterIdMap.get(pageEntry.getKey()), pageEntry.getValue());
+                }
+                return pageResults;
+            } catch(JsonRpcBatchException e) {
+                Map<Object, Object> mappedSuccesess = new HashMap<>();
+                for(Map.Entry<?, ?> successEntry : e.getSuccesses().entrySet()) {
+                    mappedSuccesess.put(counterIdMap.get((Long)successEntry.getKey()), successEntry.getValue());
+                }
+                Map<Object, ErrorMessage> mappedErrors = new HashMap<>();
+                for(Map.Entry<?, ErrorMessage> errorEntry : e.getErrors().entrySet()) {
+                    mappedErrors.put(counterIdMap.get((Long)errorEntry.getKey()), errorEntry.getValue());
+                }
+                throw new JsonRpcBatchException(e.getMessage(), mappedSuccesess, mappedErrors);
+            }
+        } else {
+            BatchRequestBuilder<K, V> batchRequest = client.createBatchRequest().keysType(keysType).returnType(returnType);
+            for(Request<K> request : page) {
+                if(request.id instanceof String strReq) {
+                    batchRequest.add(strReq, request.method, request.params);
+                } else if(request.id instanceof Integer intReq) {
+                    batchRequest.add(intReq, request.method, request.params);
+                } else {
+                    throw new IllegalArgumentException("Id of class " + request.id.getClass().getName() + " not supported");
+                }
+            }
+
+            return new RetryLogic<Map<K, V>>(maxAttempts, RETRY_DELAY_SECS, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(batchRequest::execute);
+        }
+    }
+
     private int getPageSize() {
         int pageSize = Config.get().getMaxPageSize();
         if(pageSize < 1) {
@@ -0,0 +1,6 @@
+package com.sparrowwallet.sparrow.net;
+
+public interface PipelinedTransport {
+    boolean isPipelined();
+    PageWindow getPageWindow();
+}
@@ -0,0 +1,86 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.wallet.Wallet;
+import com.sparrowwallet.drongo.wallet.WalletNode;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Maps script hashes to the address nodes of a wallet, so that a script hash reported by the server can be resolved without hashing every address.
+ * The index is extended by hashing only the address nodes it has not yet seen, wherever WalletNode.fillToIndex has added them in the purpose node.
+ * If a purpose node is replaced or has fewer children than were indexed, the index is rebuilt.
+ * Wallets and their nodes are only weakly referenced, so that the index of a closed wallet does not keep it in memory.
+ */
+public class ScriptHashIndex {
+    private static final Cache<Wallet, ScriptHashIndex> walletIndexes = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final WeakReference<Wallet> walletRef;
+    private final Map<String, WeakReference<WalletNode>> scriptHashNodes = new HashMap<>();
+    private final Cache<WalletNode, Boolean> indexedNodes = CacheBuilder.newBuilder().weakKeys().build();
+    private final Map<KeyPurpose, WeakReference<WalletNode>> indexedPurposeNodes = new EnumMap<>(KeyPurpose.class);
+    private final Map<KeyPurpose, Integer> indexedChildCounts = new EnumMap<>(KeyPurpose.class);
+
+    private ScriptHashIndex(Wallet wallet) {
+        this.walletRef = new WeakReference<>(wallet);
+    }
+
+    public static ScriptHashIndex get(Wallet wallet) {
+        return walletIndexes.asMap().computeIfAbsent(wallet, ScriptHashIndex::new);
+    }
+
+    public static void remove(Wallet wallet) {
+        walletIndexes.invalidate(wallet);
+    }
+
+    public synchronized WalletNode getNode(String scriptHash) {
+        update();
+        WeakReference<WalletNode> nodeRef = scriptHashNodes.get(scriptHash);
+        return nodeRef == null ? null : nodeRef.get();
+    }
+
+    private void update() {
+        Wallet wallet = walletRef.get();
+        if(wallet == null) {
+            return;
+        }
+
+        for(KeyPurpose keyPurpose : KeyPurpose.DEFAULT_PURPOSES) {
+            WalletNode purposeNode = wallet.getNode(keyPurpose);
+            WeakReference<WalletNode> indexedPurposeNode = indexedPurposeNodes.get(keyPurpose);
+            int childCount = purposeNode.getChildren().size();
+            int indexedCount = indexedChildCounts.getOrDefault(keyPurpose, 0);
+            if(indexedPurposeNode != null && indexedPurposeNode.get() == purposeNode && childCount == indexedCount) {
+                continue;
+            }
+
+            if((indexedPurposeNode != null && indexedPurposeNode.get() != purposeNode) || childCount < indexedCount) {
+                rebuild();
+                return;
+            }
+
+            //Nodes may be added anywhere in the purpose node when filling gaps, so look for every node not yet indexed rather than only those at the end
+            List<WalletNode> children = new ArrayList<>(purposeNode.getChildren());
+            for(WalletNode addressNode : children) {
+                if(indexedNodes.getIfPresent(addressNode) == null) {
+                    scriptHashNodes.put(ElectrumServer.getScriptHash(addressNode), new WeakReference<>(addressNode));
+                    indexedNodes.put(addressNode, Boolean.TRUE);
+                }
+            }
+
+            indexedPurposeNodes.put(keyPurpose, new WeakReference<>(purposeNode));
+            indexedChildCounts.put(keyPurpose, children.size());
+        }
+    }
+
+    private void rebuild() {
+        scriptHashNodes.clear();
+        indexedNodes.invalidateAll();
+        indexedPurposeNodes.clear();
+        indexedChildCounts.clear();
+        update();
+    }
+}
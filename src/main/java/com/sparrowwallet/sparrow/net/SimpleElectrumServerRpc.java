@@ -227,6 +227,29 @@ public class SimpleElectrumServerRpc implements ElectrumServerRpc {
         return result;
     }
 
+    @Override
+    public Map<Integer, BlockHeaders> getBlockHeaderRanges(Transport transport, Wallet wallet, Map<Integer, Integer> startHeightCounts) {
+        JsonRpcClient client = new JsonRpcClient(transport);
+
+        Map<Integer, BlockHeaders> result = new LinkedHashMap<>();
+        for(Map.Entry<Integer, Integer> entry : startHeightCounts.entrySet()) {
+            EventManager.get().post(new WalletHistoryStatusEvent(wallet, true, "Retrieving " + entry.getValue() + " blocks from height " + entry.getKey()));
+            try {
+                BlockHeaders blockHeaders = new RetryLogic<BlockHeaders>(MAX_RETRIES, RETRY_DELAY, List.of(IllegalStateException.class, IllegalArgumentException.class)).getResult(() ->
+                        client.createRequest().returnAs(BlockHeaders.class).method("blockchain.block.headers").id(idCounter.incrementAndGet()).params(entry.getKey(), entry.getValue()).execute());
+                result.put(entry.getKey(), blockHeaders);
+            } catch(ServerException e) {
+                throw new ElectrumServerRpcException("Failed to retrieve block headers from block height: " + entry.getKey(), e);
+            } catch(JsonRpcException e) {
+                log.warn("Failed to retrieve block headers from block height: " + entry.getKey() + (e.getErrorMessage() != null ? " (" + e.getErrorMessage().getMessage() + ")" : ""));
+            } catch(Exception e) {
+                log.warn("Failed to retrieve block headers from block height: " + entry.getKey() + " (" + e.getMessage() + ")");
+            }
+        }
+
+        return result;
+    }
+
     @Override
     public Map<Integer, BlockStats> getBlockStats(Transport transport, Set<Integer> blockHeights) {
         JsonRpcClient client = new JsonRpcClient(transport);
@@ -18,18 +18,15 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class TcpTransport implements CloseableTransport, TimeoutCounter {
+public class TcpTransport implements CloseableTransport, TimeoutCounter, PipelinedTransport {
     private static final Logger log = LoggerFactory.getLogger(TcpTransport.class);
     private static final Logger wireLog = LoggerFactory.getLogger("electrum.wire");
 
@@ -45,6 +42,8 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
     protected final HostAndPort server;
     protected final SocketFactory socketFactory;
     protected final int[] readTimeouts;
+    protected final boolean pipelined;
+    private final PageWindow pageWindow;
 
     protected Socket socket;
 
@@ -60,9 +59,14 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
     private volatile boolean reading = true;
     private volatile boolean closed = false;
     private boolean firstRead = true;
-    private int readTimeoutIndex;
+    private volatile int readTimeoutIndex;
     private int requestIdCount = 1;
 
+    //Used in pipelined mode, where many requests may be in flight at once and responses are routed back to their callers by id
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingRequestCount = new AtomicInteger();
+
     private final JsonRpcServer jsonRpcServer = new JsonRpcServer();
     private final SubscriptionService subscriptionService = new SubscriptionService();
 
@@ -89,11 +93,17 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
             timeouts[timeouts.length - 1] = Config.get().getMaxServerTimeout();
         }
         this.readTimeouts = timeouts;
+        this.pipelined = Config.get().isPipelineServerRequests();
+        this.pageWindow = new PageWindow(server.toString());
     }
 
     @Override
     public @NotNull String pass(@NotNull String request) throws IOException {
         Set<String> sentIdSet = extractIdSet(request);
+        if(pipelined) {
+            return passPipelined(request, sentIdSet);
+        }
+
         clientRequestLock.lock();
         try {
             //Count number of requests in batched query to increase read timeout appropriately
@@ -116,6 +126,58 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
         }
     }
 
+    /**
+     * Writes the request without waiting for responses to earlier requests, and waits for the response carrying the same set of ids.
+     * The read timeout allows for all requests currently in flight, since the server answers them in turn.
+     */
+    private String passPipelined(String request, Set<String> sentIdSet) throws IOException {
+        if(sentIdSet.isEmpty()) {
+            throw new IOException("Cannot route the response to a request without ids");
+        }
+
+        PendingRequest pendingRequest = new PendingRequest(sentIdSet, new CompletableFuture<>());
+        for(String id : sentIdSet) {
+            PendingRequest existing = pendingRequests.putIfAbsent(id, pendingRequest);
+            if(existing != null) {
+                sentIdSet.forEach(sentId -> pendingRequests.remove(sentId, pendingRequest));
+                throw new IOException("Request id " + id + " is already in flight");
+            }
+        }
+
+        int inFlightCount = pendingRequestCount.addAndGet(sentIdSet.size());
+        try {
+            if(!running) {
+                throw new IOException("Transport closed");
+            }
+
+            writeLock.lock();
+            try {
+                writeRequest(request);
+            } finally {
+                writeLock.unlock();
+            }
+
+            long timeoutMillis = (readTimeouts[readTimeoutIndex] * 1000L) + (inFlightCount * PER_REQUEST_READ_TIMEOUT_MILLIS);
+            String response = pendingRequest.response().get(timeoutMillis, TimeUnit.MILLISECONDS);
+            if(readTimeoutIndex == readTimeouts.length - 1) {
+                readTimeoutIndex--;
+            }
+
+            return response;
+        } catch(TimeoutException e) {
+            escalateReadTimeout();
+            throw new IOException("No response from server");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Read interrupted");
+        } catch(ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            sentIdSet.forEach(sentId -> pendingRequests.remove(sentId, pendingRequest));
+            pendingRequestCount.addAndGet(-sentIdSet.size());
+        }
+    }
+
     protected void writeRequest(String request) throws IOException {
         if(log.isTraceEnabled()) {
             log.trace("Sending to electrum server at " + server + ": " + request);
@@ -217,24 +279,26 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
             }
             if(running) {
                 signalException(e);
-                running = false;
             }
             return;
         }
 
         //Wait for first RPC request before starting to read. The lock must be acquired before
         //signaling readiness so readResponse() blocks until we reach the atomic await/unlock.
-        readLock.lock();
-        try {
-            readReadySignal.countDown();
-            if(running) {
-                readingCondition.await();
+        //In pipelined mode responses are routed by id, so reading can start immediately.
+        if(!pipelined) {
+            readLock.lock();
+            try {
+                readReadySignal.countDown();
+                if(running) {
+                    readingCondition.await();
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                readLock.unlock();
             }
-        } catch(InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return;
-        } finally {
-            readLock.unlock();
         }
 
         while(running) {
@@ -243,6 +307,8 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
                 wireLog.info("< " + received);
                 if(isNotification(received)) {
                     jsonRpcServer.handle(received, subscriptionService);
+                } else if(pipelined) {
+                    deliverPipelinedResponse(received);
                 } else {
                     deliverResponse(received);
                 }
@@ -254,9 +320,8 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
                     log.trace("Connection error while reading", e);
                 }
                 if(running) {
+                    //Allows this thread to terminate as we will need to reconnect with a new transport anyway
                     signalException(e);
-                    //Allow this thread to terminate as we will need to reconnect with a new transport anyway
-                    running = false;
                 }
             }
         }
@@ -276,7 +341,21 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
         }
     }
 
+    private void deliverPipelinedResponse(String received) {
+        Set<String> recvIdSet = extractIdSet(received);
+        PendingRequest pendingRequest = recvIdSet.isEmpty() ? null : pendingRequests.get(recvIdSet.iterator().next());
+        if(pendingRequest == null || !pendingRequest.ids().equals(recvIdSet)) {
+            log.info("Discarding stale response with ids " + recvIdSet + (pendingRequest == null ? "" : " (expected " + pendingRequest.ids() + ")"));
+            return;
+        }
+
+        pendingRequest.response().complete(received);
+    }
+
     private void signalException(Exception e) {
+        //Stop accepting requests before failing those pending, so a request registered meanwhile fails immediately rather than timing out
+        running = false;
+
         readLock.lock();
         try {
             lastException = e;
@@ -285,6 +364,14 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
         } finally {
             readLock.unlock();
         }
+
+        failPendingRequests(new IOException("Error reading response: " + e.getMessage(), e));
+    }
+
+    private void failPendingRequests(IOException e) {
+        for(PendingRequest pendingRequest : pendingRequests.values()) {
+            pendingRequest.response().completeExceptionally(e);
+        }
     }
 
     protected String readInputStream(BufferedReader in) throws IOException {
@@ -357,6 +444,8 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
             readLock.unlock();
         }
 
+        failPendingRequests(new IOException("Transport closed"));
+
         if(socket != null) {
             socket.close();
         }
@@ -367,6 +456,16 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
         return readTimeoutIndex;
     }
 
+    @Override
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    @Override
+    public PageWindow getPageWindow() {
+        return pageWindow;
+    }
+
     private static boolean isNotification(String json) {
         try(JsonParser parser = JSON_FACTORY.createParser(json)) {
             if(parser.nextToken() != JsonToken.START_OBJECT) {
@@ -398,4 +497,6 @@ public class TcpTransport implements CloseableTransport, TimeoutCounter {
         }
         return ids;
     }
+
+    private record PendingRequest(Set<String> ids, CompletableFuture<String> response) {}
 }
@@ -1,7 +1,10 @@
 package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
 
 import com.github.arteam.simplejsonrpc.client.JsonRpcClient;
+import com.github.arteam.simplejsonrpc.client.builder.BatchRequestBuilder;
+import com.github.arteam.simplejsonrpc.client.exception.JsonRpcBatchException;
 import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.OutputDescriptor;
@@ -17,6 +20,7 @@ import com.sparrowwallet.sparrow.event.CormorantPruneStatusEvent;
 import com.sparrowwallet.sparrow.event.CormorantScanStatusEvent;
 import com.sparrowwallet.sparrow.event.CormorantSyncStatusEvent;
 import com.sparrowwallet.sparrow.io.Config;
+import com.sparrowwallet.sparrow.io.Storage;
 import com.sparrowwallet.sparrow.net.Bwt;
 import com.sparrowwallet.sparrow.net.ConfigurationException;
 import com.sparrowwallet.sparrow.net.CoreAuthType;
@@ -26,6 +30,7 @@ import com.sparrowwallet.drongo.address.InvalidAddressException;
 import com.sparrowwallet.sparrow.net.cormorant.electrum.ElectrumBlockHeader;
 import com.sparrowwallet.sparrow.net.cormorant.electrum.ScriptHashStatus;
 import com.sparrowwallet.sparrow.net.cormorant.index.Store;
+import com.sparrowwallet.sparrow.net.cormorant.index.StoreFile;
 import com.sparrowwallet.drongo.protocol.*;
 import javafx.application.Platform;
 import javafx.concurrent.Service;
@@ -36,9 +41,14 @@ import org.slf4j.LoggerFactory;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class BitcoindClient {
@@ -50,6 +60,14 @@ public class BitcoindClient {
 
     private static final long PRUNED_RESCAN_TIMEGAP_MILLIS = 7200*1000;
 
+    //Bounds the size of batched requests and their responses, which for transactions may each be large
+    private static final int MEMPOOL_ENTRY_BATCH_SIZE = 1000;
+    private static final int TRANSACTION_BATCH_SIZE = 100;
+    private static final int BLOCK_HEADER_BATCH_SIZE = 1000;
+
+    //A transaction cannot change once its txid is known, so retrieved transactions are kept for clients reloading wallets, within a bound on their total size
+    private static final long MAX_CACHED_TRANSACTION_BYTES = 32 * 1024 * 1024;
+
     //Error codes from https://github.com/bitcoin/bitcoin/blob/master/src/rpc/protocol.h
     public static final int RPC_METHOD_NOT_FOUND = -32601;
     public static final int RPC_WALLET_NOT_FOUND = -18;
@@ -58,7 +76,18 @@ public class BitcoindClient {
 
     private final JsonRpcClient jsonRpcClient;
     private final Timer timer = new Timer(true);
-    private final Store store = new Store();
+    //Only updated while holding the lock on this client, in updateStore. Request threads read only its published histories and block hashes.
+    private volatile Store store = new Store();
+    private final Set<String> storeDescriptors = Collections.synchronizedSet(new HashSet<>());
+
+    //The index is written to disk on its own thread, so that updates to the Store do not wait on file I/O. Only the latest snapshot pending a write is kept.
+    private final ExecutorService storeFileExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Cormorant Index Writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicReference<byte[]> pendingStoreSnapshot = new AtomicReference<>();
+    private volatile boolean storeFileDeleted;
 
     private NetworkInfo networkInfo;
     private String lastBlock;
@@ -74,6 +103,7 @@ public class BitcoindClient {
     private boolean stopped;
 
     private Exception lastPollException;
+    private final BlockWatcher blockWatcher;
 
     private final boolean useWallets;
     private boolean pruned;
@@ -83,7 +113,7 @@ public class BitcoindClient {
 
     private final Lock syncingLock = new ReentrantLock();
     private final Condition syncingCondition = syncingLock.newCondition();
-    private boolean syncing;
+    private volatile boolean syncing;
 
     private final Lock scanningLock = new ReentrantLock();
     private final Set<String> scanningDescriptors = Collections.synchronizedSet(new HashSet<>());
@@ -95,7 +125,8 @@ public class BitcoindClient {
     private final List<String> pruneWarnedDescriptors = new ArrayList<>();
     private final Set<String> importFailedDescriptors = Collections.synchronizedSet(new HashSet<>());
 
-    private final Map<Sha256Hash, VsizeFeerate> mempoolEntries = new ConcurrentHashMap<>();
+    private final MempoolFeerates mempoolFeerates = new MempoolFeerates();
+    private final TransactionCache transactionCache = new TransactionCache(MAX_CACHED_TRANSACTION_BYTES);
     private MempoolEntriesState mempoolEntriesState = MempoolEntriesState.UNINITIALIZED;
     private long timerTaskCount;
 
@@ -113,6 +144,18 @@ public class BitcoindClient {
 
         this.jsonRpcClient = new JsonRpcClient(bitcoindTransport);
         this.useWallets = useWallets;
+        this.blockWatcher = new BlockWatcher(new BlockWatcher.BlockSource() {
+            @Override
+            public BlockRef getBestBlock() {
+                BlockchainInfo blockchainInfo = getBitcoindService().getBlockchainInfo();
+                return new BlockRef(blockchainInfo.bestblockhash(), blockchainInfo.blocks());
+            }
+
+            @Override
+            public BlockRef waitForNewBlock(int timeoutMillis) {
+                return getBitcoindService().waitForNewBlock(timeoutMillis);
+            }
+        }, () -> syncing, () -> timer.schedule(new PollTask(true), 0));
     }
 
     public void initialize() throws CormorantBitcoindException {
@@ -126,7 +169,7 @@ public class BitcoindClient {
         pruneHeight = blockchainInfo.pruneheight();
         VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
         tip = blockHeader.getBlockHeader();
-        timer.schedule(new PollTask(), 5000, 5000);
+        timer.schedule(new PollTask(false), 5000, 5000);
 
         if(blockchainInfo.initialblockdownload() && networkInfo.networkactive()) {
             syncingLock.lock();
@@ -151,6 +194,8 @@ public class BitcoindClient {
             tip = blockHeader.getBlockHeader();
         }
 
+        blockWatcher.start();
+
         List<String> loadedWallets;
         try {
             loadedWallets = getBitcoindService().listWallets();
@@ -178,10 +223,124 @@ public class BitcoindClient {
             }
         }
 
-        ListSinceBlock listSinceBlock = getListSinceBlock(null);
+        //Resume from the saved index if possible, only listing the wallet transactions since the block it was last updated to
+        Set<String> walletDescriptors = listWalletDescriptors();
+        if(!isStorePersisted()) {
+            StoreFile.delete();
+        } else if(walletDescriptors != null) {
+            storeDescriptors.addAll(walletDescriptors);
+            StoreFile storeFile = loadStoreFile(walletDescriptors);
+            if(storeFile != null) {
+                log.info("Resuming Cormorant index from block " + storeFile.getLastBlock());
+                synchronized(this) {
+                    store = storeFile.getStore();
+                    lastBlock = storeFile.getLastBlock();
+                }
+            }
+        }
+
+        ListSinceBlock listSinceBlock = getListSinceBlock(lastBlock);
         updateStore(listSinceBlock);
     }
 
+    private Set<String> listWalletDescriptors() {
+        try {
+            ListDescriptorsResult listDescriptorsResult = getBitcoindService().listDescriptors(false);
+            return listDescriptorsResult.descriptors().stream().map(result -> OutputDescriptor.normalize(result.desc())).collect(Collectors.toSet());
+        } catch(JsonRpcException e) {
+            log.debug("Could not list wallet descriptors, not resuming from saved index", e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the saved index if it covers every descriptor in the Core wallet and was last updated to a block that is still on the best chain.
+     * Otherwise the saved index is discarded, and the history of the wallet is listed again in full.
+     */
+    private StoreFile loadStoreFile(Set<String> walletDescriptors) {
+        StoreFile storeFile = StoreFile.load();
+        if(storeFile == null) {
+            return null;
+        }
+
+        if(!storeFile.getDescriptors().equals(walletDescriptors)) {
+            log.debug("Discarding saved Cormorant index with different descriptors to the wallet");
+            StoreFile.delete();
+            return null;
+        }
+
+        try {
+            VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(storeFile.getLastBlock());
+            if(blockHeader.confirmations() < 0) {
+                log.warn("Discarding saved Cormorant index, block " + storeFile.getLastBlock() + " is no longer on the best chain");
+                StoreFile.delete();
+                return null;
+            }
+        } catch(JsonRpcException e) {
+            log.warn("Discarding saved Cormorant index, block " + storeFile.getLastBlock() + " is unknown to Bitcoin Core");
+            StoreFile.delete();
+            return null;
+        }
+
+        return storeFile;
+    }
+
+    /**
+     * The index holds the script hashes, addresses and txids of every wallet imported into the Core wallet in plaintext.
+     * It is therefore only persisted if enabled in the config, never while a password protected wallet is open, and not again in a session once deleted.
+     */
+    private boolean isStorePersisted() {
+        return Config.get().isPersistCormorantIndex() && !storeFileDeleted
+                && AppServices.get().getOpenWallets().values().stream().noneMatch(storage -> storage.getEncryptionPubKey() != null && !Storage.NO_PASSWORD_KEY.equals(storage.getEncryptionPubKey()));
+    }
+
+    /**
+     * Snapshots the Store in memory while holding the update lock, and leaves writing the snapshot to disk to the index writer thread.
+     */
+    private synchronized void saveStore() {
+        if(lastBlock == null || storeFileExecutor.isShutdown()) {
+            return;
+        }
+
+        if(!isStorePersisted()) {
+            removeStoreFile();
+            return;
+        }
+
+        byte[] snapshot = StoreFile.snapshot(lastBlock, new ArrayList<>(storeDescriptors), store);
+        if(snapshot != null && pendingStoreSnapshot.getAndSet(snapshot) == null) {
+            storeFileExecutor.execute(() -> {
+                byte[] pending = pendingStoreSnapshot.getAndSet(null);
+                if(pending != null) {
+                    StoreFile.save(pending);
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the saved index, and stops it being saved again for the rest of the session.
+     */
+    public void deleteStoreFile() {
+        storeFileDeleted = true;
+        removeStoreFile();
+    }
+
+    //Deletes the saved index after any write already queued on the index writer thread, discarding a snapshot that has not yet been written
+    private synchronized void removeStoreFile() {
+        pendingStoreSnapshot.set(null);
+        if(storeFileExecutor.isShutdown()) {
+            StoreFile.delete();
+        } else {
+            storeFileExecutor.execute(StoreFile::delete);
+        }
+    }
+
+    private synchronized void closeStore() {
+        saveStore();
+        storeFileExecutor.shutdown();
+    }
+
     private ListSinceBlock getListSinceBlock(String blockHash) {
         try {
             return getBitcoindService().listSinceBlock(blockHash, 1, true, true, true);
@@ -457,7 +616,17 @@ public class BitcoindClient {
     }
 
     public void stop() {
+        blockWatcher.stop();
         timer.cancel();
+        closeStore();
+        try {
+            if(!storeFileExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Timed out saving Cormorant index");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.debug("Transaction cache " + transactionCache.stats());
         pruneWarnedDescriptors.clear();
         importFailedDescriptors.clear();
         stopped = true;
@@ -467,6 +636,10 @@ public class BitcoindClient {
         listSinceBlock.removed().removeIf(lt -> lt.parent_descs() != null && lt.parent_descs().stream().map(OutputDescriptor::normalize).noneMatch(descriptors::contains));
         listSinceBlock.transactions().removeIf(lt -> lt.parent_descs() != null && lt.parent_descs().stream().map(OutputDescriptor::normalize).noneMatch(descriptors::contains));
         updateStore(listSinceBlock);
+        if(storeDescriptors.addAll(descriptors)) {
+            //The saved index no longer matches the descriptors of the Core wallet, so it is removed until the next save
+            removeStoreFile();
+        }
     }
 
     private synchronized void updateStore(ListSinceBlock listSinceBlock) {
@@ -474,7 +647,7 @@ public class BitcoindClient {
 
         for(ListTransaction removedTransaction : listSinceBlock.removed()) {
             if(removedTransaction.confirmations() < 0) {
-                updatedScriptHashes.addAll(store.purgeTransaction(removedTransaction.txid()));
+                updatedScriptHashes.addAll(purgeTransaction(removedTransaction.txid()));
             }
         }
 
@@ -483,7 +656,7 @@ public class BitcoindClient {
 
         for(ListTransaction listTransaction : listSinceBlock.transactions()) {
             if(isConflicted(listTransaction, conflictCache)) {
-                updatedScriptHashes.addAll(store.purgeTransaction(listTransaction.txid()));
+                updatedScriptHashes.addAll(purgeTransaction(listTransaction.txid()));
                 continue;
             }
 
@@ -505,9 +678,12 @@ public class BitcoindClient {
             }
         }
 
+        Set<String> unknownSentTxids = sentTransactions.stream().map(ListTransaction::txid).filter(txid -> !store.getSpentOutputs().containsKey(txid)).collect(Collectors.toSet());
+        Map<String, String> sentTransactionHexes = getTransactions(unknownSentTxids);
+
         for(ListTransaction sentTransaction : sentTransactions) {
             Set<HashIndex> spentOutputs = store.getSpentOutputs().computeIfAbsent(sentTransaction.txid(), txid -> {
-                String txhex = getTransaction(txid);
+                String txhex = sentTransactionHexes.containsKey(txid) ? sentTransactionHexes.get(txid) : getTransaction(txid);
                 Transaction tx = new Transaction(Utils.hexToBytes(txhex));
                 return tx.getInputs().stream().map(txInput -> new HashIndex(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex())).collect(Collectors.toSet());
             });
@@ -529,35 +705,177 @@ public class BitcoindClient {
             }
         }
 
-        syncMempool(!listSinceBlock.lastblock().equals(lastBlock));
+        boolean newBlock = !listSinceBlock.lastblock().equals(lastBlock);
+        syncMempool(newBlock);
         updatedScriptHashes.addAll(store.updateMempoolTransactions());
+        store.publish();
 
         lastBlock = listSinceBlock.lastblock();
+        if(newBlock) {
+            saveStore();
+        }
 
         for(String updatedScriptHash : updatedScriptHashes) {
             Cormorant.getEventBus().post(new ScriptHashStatus(updatedScriptHash, store.getStatus(updatedScriptHash)));
         }
     }
 
+    Set<String> purgeTransaction(String txid) {
+        //A conflicted or replaced transaction will not confirm, so there is no need to keep it
+        transactionCache.invalidate(txid);
+        return store.purgeTransaction(txid);
+    }
+
     private String getTransaction(String txid) {
+        String cachedTransaction = getCachedTransaction(txid);
+        if(cachedTransaction != null) {
+            return cachedTransaction;
+        }
+
+        String txhex;
         try {
-            return getBitcoindService().getTransaction(txid, true, false).get("hex").toString();
+            txhex = getBitcoindService().getTransaction(txid, true, false).get("hex").toString();
         } catch(JsonRpcException e) {
-            return getBitcoindService().getRawTransaction(txid, false).toString();
+            txhex = getBitcoindService().getRawTransaction(txid, false).toString();
+        }
+
+        cacheTransaction(txid, txhex);
+        return txhex;
+    }
+
+    private Map<String, String> getTransactions(Collection<String> txids) {
+        Map<String, String> transactions = new HashMap<>();
+        for(String txid : txids) {
+            String cachedTransaction = getCachedTransaction(txid);
+            if(cachedTransaction != null) {
+                transactions.put(txid, cachedTransaction);
+            }
         }
+
+        Set<String> unknownTxids = new HashSet<>(txids);
+        unknownTxids.removeAll(transactions.keySet());
+        if(!unknownTxids.isEmpty()) {
+            getBatchResults(unknownTxids, TRANSACTION_BATCH_SIZE, "gettransaction", WalletTransaction.class, txid -> new WalletTransaction(getTransaction(txid)), true, false)
+                    .forEach((txid, walletTransaction) -> transactions.put(txid, walletTransaction.hex()));
+            unknownTxids.removeAll(transactions.keySet());
+        }
+
+        if(!unknownTxids.isEmpty()) {
+            transactions.putAll(getBatchResults(unknownTxids, TRANSACTION_BATCH_SIZE, "getrawtransaction", String.class, txid -> getBitcoindService().getRawTransaction(txid, false).toString(), false));
+        }
+
+        transactions.forEach(this::cacheTransaction);
+        return transactions;
+    }
+
+    public String getCachedTransaction(String txid) {
+        return transactionCache.get(txid);
+    }
+
+    public void cacheTransaction(String txid, String txhex) {
+        transactionCache.put(txid, txhex);
+    }
+
+    private Map<String, MempoolEntry> getMempoolEntries(Collection<String> txids) {
+        return getBatchResults(txids, MEMPOOL_ENTRY_BATCH_SIZE, "getmempoolentry", MempoolEntry.class, txid -> getBitcoindService().getMempoolEntry(txid));
+    }
+
+    /**
+     * Retrieves the serialized headers of up to count blocks from the start height, in height order, using batched getblockhash and getblockheader requests.
+     * Fewer headers are returned if the range extends past the chain tip.
+     */
+    public List<String> getBlockHeaders(int startHeight, int count) {
+        Map<Integer, String> blockHashes = new HashMap<>();
+        List<Integer> unknownHeights = new ArrayList<>();
+        for(int height = startHeight; height < startHeight + count; height++) {
+            String blockHash = store.getBlockHash(height);
+            if(blockHash != null) {
+                blockHashes.put(height, blockHash);
+            } else {
+                unknownHeights.add(height);
+            }
+        }
+
+        for(List<Integer> batch : Lists.partition(unknownHeights, BLOCK_HEADER_BATCH_SIZE)) {
+            BatchRequestBuilder<Integer, String> batchRequest = jsonRpcClient.createBatchRequest().keysType(Integer.class).returnType(String.class);
+            for(Integer height : batch) {
+                batchRequest.add(height, "getblockhash", height);
+            }
+
+            try {
+                blockHashes.putAll(batchRequest.execute());
+            } catch(JsonRpcBatchException e) {
+                //Heights past the chain tip return errors
+                for(Map.Entry<?, ?> success : e.getSuccesses().entrySet()) {
+                    blockHashes.put((Integer)success.getKey(), (String)success.getValue());
+                }
+            }
+        }
+
+        Map<String, String> headers = getBatchResults(new HashSet<>(blockHashes.values()), BLOCK_HEADER_BATCH_SIZE, "getblockheader", String.class,
+                blockHash -> getBitcoindService().getBlockHeader(blockHash, false), false);
+
+        List<String> orderedHeaders = new ArrayList<>();
+        for(int height = startHeight; height < startHeight + count; height++) {
+            String header = blockHashes.containsKey(height) ? headers.get(blockHashes.get(height)) : null;
+            if(header == null) {
+                break;
+            }
+            orderedHeaders.add(header);
+        }
+
+        return orderedHeaders;
+    }
+
+    /**
+     * Makes the same call for each txid in batched requests of up to the given size, returning the results by txid.
+     * Txids for which the call returns an error, for example because the transaction has left the mempool, are omitted from the results.
+     * If a batch fails as a whole, the calls in it are made individually instead.
+     */
+    private <V> Map<String, V> getBatchResults(Collection<String> txids, int batchSize, String method, Class<V> returnType, Function<String, V> individualCall, Object... params) {
+        Map<String, V> results = new HashMap<>();
+        for(List<String> batch : Lists.partition(new ArrayList<>(txids), batchSize)) {
+            BatchRequestBuilder<String, V> batchRequest = jsonRpcClient.createBatchRequest().keysType(String.class).returnType(returnType);
+            for(String txid : batch) {
+                Object[] txidParams = new Object[params.length + 1];
+                txidParams[0] = txid;
+                System.arraycopy(params, 0, txidParams, 1, params.length);
+                batchRequest.add(txid, method, txidParams);
+            }
+
+            try {
+                results.putAll(batchRequest.execute());
+            } catch(JsonRpcBatchException e) {
+                for(Map.Entry<?, ?> success : e.getSuccesses().entrySet()) {
+                    results.put((String)success.getKey(), returnType.cast(success.getValue()));
+                }
+            } catch(Exception e) {
+                log.debug("Error sending batch of " + batch.size() + " " + method + " requests, sending individually", e);
+                for(String txid : batch) {
+                    try {
+                        results.put(txid, individualCall.apply(txid));
+                    } catch(JsonRpcException ex) {
+                        //ignore, omit from results
+                    }
+                }
+            }
+        }
+
+        return results;
     }
 
+    //Called from updateStore, so the mempool entries of the store are only used while holding the update lock
     private void syncMempool(boolean forceRefresh) {
         Map<String, MempoolEntry> mempoolEntries = store.getMempoolEntries();
 
-        for(String txid : new HashSet<>(mempoolEntries.keySet())) {
-            if(forceRefresh || mempoolEntries.get(txid) == null) {
-                try {
-                    MempoolEntry mempoolEntry = getBitcoindService().getMempoolEntry(txid);
-                    mempoolEntries.put(txid, mempoolEntry);
-                } catch(JsonRpcException e) {
-                    mempoolEntries.remove(txid);
-                }
+        Set<String> refreshTxids = mempoolEntries.keySet().stream().filter(txid -> forceRefresh || mempoolEntries.get(txid) == null).collect(Collectors.toSet());
+        Map<String, MempoolEntry> refreshedEntries = getMempoolEntries(refreshTxids);
+        for(String txid : refreshTxids) {
+            MempoolEntry mempoolEntry = refreshedEntries.get(txid);
+            if(mempoolEntry != null) {
+                mempoolEntries.put(txid, mempoolEntry);
+            } else {
+                mempoolEntries.remove(txid);
             }
         }
     }
@@ -621,16 +939,12 @@ public class BitcoindClient {
             //Fast system, fetch all mempool data at once
             Map<Sha256Hash, VsizeFeerate> entries = getBitcoindService().getRawMempool(true).entrySet().stream()
                     .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getVsizeFeerate(), (u, v) -> u, HashMap::new));
-            mempoolEntries.putAll(entries);
+            mempoolFeerates.putAll(entries);
         } else {
-            //Slow system, fetch mempool entries one-by-one to avoid risking a node crash
-            for(Sha256Hash txid : txids) {
-                try {
-                    MempoolEntry mempoolEntry = getBitcoindService().getMempoolEntry(txid.toString());
-                    mempoolEntries.put(txid, mempoolEntry.getVsizeFeerate());
-                } catch(JsonRpcException e) {
-                    //ignore, probably tx has been removed from mempool
-                }
+            //Slow system, fetch mempool entries in bounded batches to avoid risking a node crash
+            Map<String, MempoolEntry> entries = getMempoolEntries(txids.stream().map(Sha256Hash::toString).toList());
+            for(Map.Entry<String, MempoolEntry> entry : entries.entrySet()) {
+                mempoolFeerates.put(Sha256Hash.wrap(entry.getKey()), entry.getValue().getVsizeFeerate());
             }
         }
 
@@ -640,22 +954,18 @@ public class BitcoindClient {
     public void updateMempoolEntries() {
         Set<Sha256Hash> txids = getBitcoindService().getRawMempool();
 
-        Set<Sha256Hash> removed = new HashSet<>(Sets.difference(mempoolEntries.keySet(), txids));
-        mempoolEntries.keySet().removeAll(removed);
+        Set<Sha256Hash> removed = new HashSet<>(Sets.difference(mempoolFeerates.getTxids(), txids));
+        mempoolFeerates.removeAll(removed);
 
-        Set<Sha256Hash> added = Sets.difference(txids, mempoolEntries.keySet());
-        for(Sha256Hash txid : added) {
-            try {
-                MempoolEntry mempoolEntry = getBitcoindService().getMempoolEntry(txid.toString());
-                mempoolEntries.put(txid, mempoolEntry.getVsizeFeerate());
-            } catch(JsonRpcException e) {
-                //ignore, probably tx has been removed from mempool
-            }
+        Set<Sha256Hash> added = Sets.difference(txids, mempoolFeerates.getTxids());
+        Map<String, MempoolEntry> entries = getMempoolEntries(added.stream().map(Sha256Hash::toString).toList());
+        for(Map.Entry<String, MempoolEntry> entry : entries.entrySet()) {
+            mempoolFeerates.put(Sha256Hash.wrap(entry.getKey()), entry.getValue().getVsizeFeerate());
         }
     }
 
-    public Map<Sha256Hash, VsizeFeerate> getMempoolEntries() {
-        return mempoolEntries;
+    public MempoolFeerates getMempoolFeerates() {
+        return mempoolFeerates;
     }
 
     public MempoolEntriesState getMempoolEntriesState() {
@@ -695,12 +1005,22 @@ public class BitcoindClient {
     }
 
     private class PollTask extends TimerTask {
+        private final boolean newBlock;
+
+        public PollTask(boolean newBlock) {
+            this.newBlock = newBlock;
+        }
+
         @Override
         public void run() {
             if(stopped) {
                 timer.cancel();
             }
 
+            if(!newBlock) {
+                timerTaskCount++;
+            }
+
             try {
                 if(syncing) {
                     BlockchainInfo blockchainInfo = getBitcoindService().getBlockchainInfo();
@@ -720,7 +1040,9 @@ public class BitcoindClient {
                     }
                 }
 
-                if(lastBlock != null && tip != null) {
+                //While new blocks are watched, the reorg check is only needed when a block is connected. Wallet transactions entering the mempool are still polled every run.
+                boolean blockConnected = newBlock || blockWatcher.takePendingNewBlock();
+                if(lastBlock != null && tip != null && (blockConnected || !blockWatcher.isWatching())) {
                     String blockhash = getBitcoindService().getBlockHash(tip.height());
                     if(!lastBlock.equals(blockhash)) {
                         log.warn("Reorg detected, block height " + tip.height() + " was " + lastBlock + " and now is " + blockhash);
@@ -728,7 +1050,7 @@ public class BitcoindClient {
                     }
                 }
 
-                if(mempoolEntriesState == MempoolEntriesState.INITIALIZED && (++timerTaskCount+1) % 12 == 0) {
+                if(mempoolEntriesState == MempoolEntriesState.INITIALIZED && !blockConnected && timerTaskCount % 12 == 0) {
                     updateMempoolEntries();
                 }
 
@@ -742,9 +1064,7 @@ public class BitcoindClient {
                     Cormorant.getEventBus().post(tip);
                 }
 
-                if(scanningLock.tryLock()) {
-                    scanningLock.unlock();
-                } else {
+                if(isScanning()) {
                     WalletInfo walletInfo = getBitcoindService().getWalletInfo();
                     if(walletInfo.scanning().isScanning()) {
                         Set<Wallet> scanningWallets = getScanningWallets();
@@ -771,6 +1091,15 @@ public class BitcoindClient {
         }
     }
 
+    private boolean isScanning() {
+        if(scanningLock.tryLock()) {
+            scanningLock.unlock();
+            return false;
+        }
+
+        return true;
+    }
+
     private Set<Wallet> getScanningWallets() {
         Set<Wallet> scanningWallets = new HashSet<>();
         Set<Wallet> openWallets = AppServices.get().getOpenWallets().keySet();
@@ -40,6 +40,9 @@ public interface BitcoindClientService {
     @JsonRpcMethod("getwalletinfo")
     WalletInfo getWalletInfo();
 
+    @JsonRpcMethod("waitfornewblock")
+    BlockRef waitForNewBlock(@JsonRpcParam("timeout") int timeoutMillis);
+
     @JsonRpcMethod("getblockhash")
     String getBlockHash(@JsonRpcParam("height") int height);
 
@@ -38,6 +38,8 @@ public class BitcoindTransport implements Transport {
     //A rescan is synchronous, so importing a descriptor with an early birthday can block for hours, as can loading a wallet Bitcoin Core must first catch up to the tip
     private static final Set<String> RESCANNING_METHODS = Set.of("importdescriptors", "loadwallet");
     private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    //A single instance, since HttpsURLConnection only reuses a kept alive connection opened with the same socket factory and hostname verifier
+    private static final HostnameVerifier PINNED_CERTIFICATE_HOSTNAME_VERIFIER = (_, _) -> true;
 
     private final Server bitcoindServer;
     //Package visible so tests need not wait it out
@@ -87,7 +89,7 @@ public class BitcoindTransport implements Transport {
             if(sslSocketFactory != null) {
                 httpsURLConnection.setSSLSocketFactory(sslSocketFactory);
                 //A private node's RPC certificate is necessarily self-signed, so the certificate pinned on first use below authenticates it - there is no hostname to verify
-                httpsURLConnection.setHostnameVerifier((_, _) -> true);
+                httpsURLConnection.setHostnameVerifier(PINNED_CERTIFICATE_HOSTNAME_VERIFIER);
             }
         }
 
@@ -103,7 +105,9 @@ public class BitcoindTransport implements Transport {
         connection.setConnectTimeout(useProxy ? ONION_CONNECT_TIMEOUT_MILLIS : CONNECT_TIMEOUT_MILLIS);
         connection.setReadTimeout(isRescanningMethod(request) ? 0 : readTimeoutMillis);
 
-        log.debug("> " + request);
+        if(log.isDebugEnabled()) {
+            log.debug("> " + request);
+        }
 
         try(OutputStream os = connection.getOutputStream()) {
             byte[] jsonBytes = request.getBytes(StandardCharsets.UTF_8);
@@ -125,25 +129,31 @@ public class BitcoindTransport implements Transport {
             }
         }
 
+        //Response bodies are always read to the end and closed, so that the connection is kept alive for reuse by the next call
         if(statusCode == 401) {
+            InputStream errorStream = connection.getErrorStream();
+            if(errorStream != null) {
+                try(errorStream) {
+                    errorStream.readAllBytes();
+                }
+            }
             throw new IOException((cookieFile == null ? "User/pass" : "Cookie file") + " authentication failed");
         }
-        InputStream inputStream = connection.getErrorStream() == null ? connection.getInputStream() : connection.getErrorStream();
 
-        StringBuilder res = new StringBuilder();
-        try(BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
-            String responseLine;
-            while((responseLine = br.readLine()) != null) {
-                if(statusCode == 500) {
-                    responseLine = responseLine.replace("\"result\":null,", "");
-                }
+        InputStream inputStream = connection.getErrorStream() == null ? connection.getInputStream() : connection.getErrorStream();
+        String response;
+        try(inputStream) {
+            //Bitcoin Core writes each response as a single line, so it is read whole rather than line by line
+            response = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
 
-                res.append(responseLine.trim());
-            }
+        if(statusCode == 500) {
+            response = response.replace("\"result\":null,", "");
         }
 
-        String response = res.toString();
-        log.debug("< " + response);
+        if(log.isDebugEnabled()) {
+            log.debug("< " + response);
+        }
 
         return response;
     }
@@ -171,15 +181,17 @@ public class BitcoindTransport implements Transport {
 
     private String getBitcoindAuthEncoded() throws IOException {
         if(cookieFile != null) {
-            if(!cookieFile.exists()) {
+            //The cookie is only read again when it is rewritten, which Bitcoin Core does on each restart
+            long lastModified = cookieFile.lastModified();
+            if(lastModified == 0L && !cookieFile.exists()) {
                 throw new IOException("Cannot find Bitcoin Core cookie file at " + cookieFile.getAbsolutePath());
             }
 
-            if(cookieFileTimestamp == null || cookieFile.lastModified() != cookieFileTimestamp) {
+            if(cookieFileTimestamp == null || lastModified != cookieFileTimestamp) {
                 try {
                     String userPass = Files.readAllLines(cookieFile.toPath()).get(0);
                     bitcoindAuthEncoded = Base64.getEncoder().encodeToString(userPass.getBytes(StandardCharsets.UTF_8));
-                    cookieFileTimestamp = cookieFile.lastModified();
+                    cookieFileTimestamp = lastModified;
                 } catch(Exception e) {
                     log.warn("Cannot read Bitcoin Core .cookie file", e);
                 }
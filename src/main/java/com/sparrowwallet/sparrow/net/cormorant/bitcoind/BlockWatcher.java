@@ -0,0 +1,119 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Long polls Bitcoin Core for new blocks, so that a new block or reorg is processed as soon as it is connected rather than on the next poll.
+ * If the call fails it is retried with an increasing delay, and only given up on if the node does not support it.
+ * A new block seen while the node is syncing is held as pending, to be processed once the sync has finished.
+ */
+class BlockWatcher {
+    private static final Logger log = LoggerFactory.getLogger(BlockWatcher.class);
+
+    //Kept below the default rpcservertimeout of 30 seconds, after which Bitcoin Core closes the HTTP connection
+    static final int NEW_BLOCK_WAIT_MILLIS = 25000;
+
+    private final BlockSource blockSource;
+    private final BooleanSupplier syncing;
+    private final Runnable newBlockListener;
+
+    long minRetryMillis = 1000;
+    long maxRetryMillis = 60000;
+
+    private final AtomicBoolean pendingNewBlock = new AtomicBoolean();
+    private volatile boolean watching;
+    private volatile boolean stopped;
+
+    BlockWatcher(BlockSource blockSource, BooleanSupplier syncing, Runnable newBlockListener) {
+        this.blockSource = blockSource;
+        this.syncing = syncing;
+        this.newBlockListener = newBlockListener;
+    }
+
+    void start() {
+        Thread blockWatcherThread = new Thread(this::watch, "Cormorant Block Watcher");
+        blockWatcherThread.setDaemon(true);
+        blockWatcherThread.start();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Whether new blocks are currently being watched, in which case polling does not need to check for them
+     */
+    boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Returns and clears whether a new block was seen while the node was syncing
+     */
+    boolean takePendingNewBlock() {
+        return pendingNewBlock.getAndSet(false);
+    }
+
+    private void watch() {
+        String blockHash = null;
+        long retryMillis = minRetryMillis;
+
+        while(!stopped) {
+            try {
+                //Start from the current tip, so that a block connected during the first wait is seen as new
+                if(blockHash == null) {
+                    blockHash = blockSource.getBestBlock().hash();
+                }
+
+                watching = true;
+                BlockRef blockRef = blockSource.waitForNewBlock(NEW_BLOCK_WAIT_MILLIS);
+                retryMillis = minRetryMillis;
+                if(!blockHash.equals(blockRef.hash()) && !stopped) {
+                    if(syncing.getAsBoolean()) {
+                        pendingNewBlock.set(true);
+                    } else {
+                        newBlockListener.run();
+                    }
+                }
+                blockHash = blockRef.hash();
+            } catch(JsonRpcException e) {
+                if(e.getErrorMessage() != null && e.getErrorMessage().getCode() == BitcoindClient.RPC_METHOD_NOT_FOUND) {
+                    log.info("Bitcoin Core does not support waiting for new blocks, polling instead");
+                    break;
+                }
+                retryMillis = retry(e, retryMillis);
+            } catch(Exception e) {
+                retryMillis = retry(e, retryMillis);
+            }
+        }
+
+        watching = false;
+    }
+
+    private long retry(Exception e, long retryMillis) {
+        watching = false;
+        if(stopped) {
+            return retryMillis;
+        }
+
+        log.warn("Error waiting for new blocks from Bitcoin Core, polling instead and retrying in " + retryMillis + "ms", e);
+        try {
+            Thread.sleep(retryMillis);
+        } catch(InterruptedException ex) {
+            stopped = true;
+        }
+
+        return Math.min(retryMillis * 2, maxRetryMillis);
+    }
+
+    interface BlockSource {
+        BlockRef getBestBlock();
+
+        BlockRef waitForNewBlock(int timeoutMillis);
+    }
+}
@@ -0,0 +1,84 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the vsize and feerate of each mempool transaction, along with the total vsize at each feerate.
+ * The totals are updated as transactions are added and removed, so the fee histogram is built from them without sorting the mempool.
+ */
+public class MempoolFeerates {
+    private final Map<Sha256Hash, VsizeFeerate> entries = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, Long> feerateVsizes = new TreeMap<>(Comparator.reverseOrder());
+
+    private List<List<Number>> histogram;
+    private long histogramBinWidth;
+
+    public synchronized void put(Sha256Hash txid, VsizeFeerate vsizeFeerate) {
+        VsizeFeerate previous = entries.put(txid, vsizeFeerate);
+        if(previous != null) {
+            subtract(previous);
+        }
+        feerateVsizes.merge(vsizeFeerate.getFeerateTenths(), (long)vsizeFeerate.getVsize(), Long::sum);
+        histogram = null;
+    }
+
+    public synchronized void putAll(Map<Sha256Hash, VsizeFeerate> vsizeFeerates) {
+        for(Map.Entry<Sha256Hash, VsizeFeerate> entry : vsizeFeerates.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized void removeAll(Collection<Sha256Hash> txids) {
+        for(Sha256Hash txid : txids) {
+            VsizeFeerate removed = entries.remove(txid);
+            if(removed != null) {
+                subtract(removed);
+                histogram = null;
+            }
+        }
+    }
+
+    private void subtract(VsizeFeerate vsizeFeerate) {
+        feerateVsizes.computeIfPresent(vsizeFeerate.getFeerateTenths(), (_, vsize) -> vsize == vsizeFeerate.getVsize() ? null : vsize - vsizeFeerate.getVsize());
+    }
+
+    public Set<Sha256Hash> getTxids() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Returns the fee histogram, with each bin the total vsize of transactions paying at least its feerate and more than the previous bin.
+     * A bin is closed once it exceeds the given width in vsize, at the next lower feerate.
+     */
+    public synchronized List<List<Number>> getHistogram(long binWidth) {
+        if(histogram != null && histogramBinWidth == binWidth) {
+            return histogram;
+        }
+
+        List<List<Number>> bins = new ArrayList<>();
+        long binSize = 0;
+        double lastFeerate = 0.0;
+
+        for(Map.Entry<Integer, Long> feerateVsize : feerateVsizes.entrySet()) {
+            double feerate = feerateVsize.getKey() / 10.0;
+            if(binSize > binWidth && lastFeerate != feerate) {
+                // vsize of transactions paying >= last_feerate
+                bins.add(List.of(lastFeerate, binSize));
+                binSize = 0;
+            }
+            binSize += feerateVsize.getValue();
+            lastFeerate = feerate;
+        }
+
+        if(binSize > 0) {
+            bins.add(List.of(lastFeerate, binSize));
+        }
+
+        histogram = Collections.unmodifiableList(bins);
+        histogramBinWidth = binWidth;
+        return histogram;
+    }
+}
@@ -0,0 +1,37 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sparrowwallet.drongo.Utils;
+
+/**
+ * Holds the serialized transactions retrieved from Bitcoin Core by txid, within a bound on their total size. The least recently used are evicted first.
+ * A transaction cannot change once its txid is known, so confirmed and mempool transactions are held under the same policy. A mempool transaction
+ * that confirms is served unchanged, while one that is conflicted or replaced is invalidated when it is purged from the index.
+ */
+public class TransactionCache {
+    private final Cache<String, byte[]> cache;
+
+    public TransactionCache(long maxBytes) {
+        //A single segment, so that the bound applies to the total size of all transactions rather than to each segment separately
+        this.cache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxBytes).weigher((String _, byte[] tx) -> tx.length).recordStats().build();
+    }
+
+    public String get(String txid) {
+        byte[] transaction = cache.getIfPresent(txid);
+        return transaction == null ? null : Utils.bytesToHex(transaction);
+    }
+
+    public void put(String txid, String txhex) {
+        cache.put(txid, Utils.hexToBytes(txhex));
+    }
+
+    public void invalidate(String txid) {
+        cache.invalidate(txid);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -2,15 +2,20 @@ package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
 
 import com.sparrowwallet.drongo.protocol.Transaction;
 
+/**
+ * The vsize and feerate of a mempool transaction, held in MempoolFeerates by txid.
+ * These are kept as small objects rather than in primitive arrays, since transactions leave the mempool in any order and are found by txid to be removed.
+ * Parallel arrays would need a txid to slot map alongside them, as well as compaction or a free list, to save two object headers per transaction.
+ */
 public class VsizeFeerate implements Comparable<VsizeFeerate> {
     private final int vsize;
-    private final float feerate;
+    //Feerate in tenths of a sat/vB, the precision it is rounded down to
+    private final int feerateTenths;
 
     public VsizeFeerate(int vsize, double fee) {
         this.vsize = vsize;
         double feeRate = fee / vsize * Transaction.SATOSHIS_PER_BITCOIN;
-        //Round down to 0.1 sats/vb precision
-        this.feerate = (float) (Math.floor(10 * feeRate) / 10);
+        this.feerateTenths = (int)Math.floor(10 * feeRate);
     }
 
     public int getVsize() {
@@ -18,11 +23,15 @@ public class VsizeFeerate implements Comparable<VsizeFeerate> {
     }
 
     public double getFeerate() {
-        return feerate;
+        return feerateTenths / 10.0;
+    }
+
+    public int getFeerateTenths() {
+        return feerateTenths;
     }
 
     @Override
     public int compareTo(VsizeFeerate o) {
-        return Float.compare(o.feerate, feerate);
+        return Integer.compare(o.feerateTenths, feerateTenths);
     }
 }
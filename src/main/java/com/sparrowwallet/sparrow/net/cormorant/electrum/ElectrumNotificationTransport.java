@@ -3,23 +3,18 @@ package com.sparrowwallet.sparrow.net.cormorant.electrum;
 import com.github.arteam.simplejsonrpc.client.Transport;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
 public class ElectrumNotificationTransport implements Transport {
-    private final Socket clientSocket;
+    private final Consumer<String> notificationSender;
 
-    public ElectrumNotificationTransport(Socket clientSocket) {
-        this.clientSocket = clientSocket;
+    public ElectrumNotificationTransport(Consumer<String> notificationSender) {
+        this.notificationSender = notificationSender;
     }
 
     @Override
     public String pass(String request) throws IOException {
-        PrintWriter out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8));
-        out.println(request);
-        out.flush();
+        notificationSender.accept(request);
 
         return "{\"result\":{},\"error\":null,\"id\":1}";
     }
@@ -20,11 +20,8 @@ public class ElectrumServerRunnable implements Runnable {
     protected ServerSocket serverSocket = null;
     protected boolean stopped = false;
     protected Thread runningThread = null;
-    protected ExecutorService threadPool = Executors.newFixedThreadPool(10, r -> {
-        Thread t = Executors.defaultThreadFactory().newThread(r);
-        t.setDaemon(true);
-        return t;
-    });
+    //Each client connection is handled on its own virtual thread, so the number of connected clients is not limited by a fixed pool
+    protected ExecutorService threadPool = Executors.newVirtualThreadPerTaskExecutor();
 
     public ElectrumServerRunnable(BitcoindClient bitcoindClient) {
         this.bitcoindClient = bitcoindClient;
@@ -5,11 +5,11 @@ import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcMethod;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcOptional;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcParam;
 import com.github.arteam.simplejsonrpc.core.annotation.JsonRpcService;
-import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.sparrow.EventManager;
 import com.sparrowwallet.sparrow.SparrowWallet;
 import com.sparrowwallet.sparrow.event.MempoolEntriesInitializedEvent;
 import com.sparrowwallet.drongo.Version;
+import com.sparrowwallet.sparrow.net.BlockHeaders;
 import com.sparrowwallet.sparrow.net.BlockStats;
 import com.sparrowwallet.sparrow.net.ElectrumServer;
 import com.sparrowwallet.sparrow.net.ServerFeatures;
@@ -28,6 +28,7 @@ public class ElectrumServerService {
     private static final Version MAX_VERSION = new Version("1.6");
     private static final long VSIZE_BIN_WIDTH = 50000;
     private static final double DEFAULT_FEE_RATE = 0.00001d;
+    private static final int MAX_BLOCK_HEADERS_COUNT = 2016;
 
     private final BitcoindClient bitcoindClient;
     private final RequestHandler requestHandler;
@@ -103,29 +104,7 @@ public class ElectrumServerService {
 
             return Collections.emptyList();
         } else {
-            Map<Sha256Hash, VsizeFeerate> mempoolEntries = bitcoindClient.getMempoolEntries();
-            List<VsizeFeerate> vsizeFeerates = new ArrayList<>(mempoolEntries.values());
-            Collections.sort(vsizeFeerates);
-
-            List<List<Number>> histogram = new ArrayList<>();
-            long binSize = 0;
-            double lastFeerate = 0.0;
-
-            for(VsizeFeerate vsizeFeerate : vsizeFeerates) {
-                if(binSize > VSIZE_BIN_WIDTH && Math.abs(lastFeerate - vsizeFeerate.getFeerate()) > 0.0d) {
-                    // vsize of transactions paying >= last_feerate
-                    histogram.add(List.of(lastFeerate, binSize));
-                    binSize = 0;
-                }
-                binSize += vsizeFeerate.getVsize();
-                lastFeerate = vsizeFeerate.getFeerate();
-            }
-
-            if(binSize > 0) {
-                histogram.add(List.of(lastFeerate, binSize));
-            }
-
-            return histogram;
+            return bitcoindClient.getMempoolFeerates().getHistogram(VSIZE_BIN_WIDTH);
         }
     }
 
@@ -181,6 +160,23 @@ public class ElectrumServerService {
         }
     }
 
+    @JsonRpcMethod("blockchain.block.headers")
+    public BlockHeaders getBlockHeaders(@JsonRpcParam("start_height") int start_height, @JsonRpcParam("count") int count) throws BitcoindIOException, BlockNotFoundException {
+        List<String> headers;
+        try {
+            headers = bitcoindClient.getBlockHeaders(start_height, Math.min(count, MAX_BLOCK_HEADERS_COUNT));
+        } catch(IllegalStateException e) {
+            throw new BitcoindIOException(e);
+        }
+
+        //Fewer headers are returned if the range extends past the chain tip, and the error for the start height is returned if it is past the tip
+        if(headers.isEmpty() && count > 0) {
+            headers = List.of(getBlockHeader(start_height));
+        }
+
+        return new BlockHeaders(headers.size(), String.join("", headers), MAX_BLOCK_HEADERS_COUNT);
+    }
+
     @JsonRpcMethod("blockchain.block.stats")
     public BlockStats getBlockStats(@JsonRpcParam("height") int height) throws BitcoindIOException, BlockNotFoundException {
         try {
@@ -221,11 +217,17 @@ public class ElectrumServerService {
                 throw new BitcoindIOException(e);
             }
         } else {
+            String cachedTransaction = bitcoindClient.getCachedTransaction(tx_hash);
+            if(cachedTransaction != null) {
+                return cachedTransaction;
+            }
+
+            Object txhex;
             try {
-                return bitcoindClient.getBitcoindService().getTransaction(tx_hash, true, false).get("hex");
+                txhex = bitcoindClient.getBitcoindService().getTransaction(tx_hash, true, false).get("hex");
             } catch(JsonRpcException e) {
                 try {
-                    return bitcoindClient.getBitcoindService().getRawTransaction(tx_hash, false);
+                    txhex = bitcoindClient.getBitcoindService().getRawTransaction(tx_hash, false);
                 } catch(JsonRpcException ex) {
                     throw new TransactionNotFoundException(ex.getErrorMessage());
                 } catch(IllegalStateException ex) {
@@ -234,6 +236,12 @@ public class ElectrumServerService {
             } catch(IllegalStateException e) {
                 throw new BitcoindIOException(e);
             }
+
+            if(txhex != null) {
+                bitcoindClient.cacheTransaction(tx_hash, txhex.toString());
+            }
+
+            return txhex;
         }
     }
 
@@ -11,33 +11,42 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RequestHandler implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
+
+    //Notifications are posted from the thread polling Bitcoin Core, so they are queued rather than written to the socket directly.
+    //A client that does not read responses and notifications quickly enough to keep within this bound is disconnected, rather than delaying notifications to
+    //all other clients. Closing the socket also ends the reading thread, which then unregisters the handler.
+    private static final int MAX_OUTBOUND_MESSAGES = 10000;
+
     private final Socket clientSocket;
     private final ElectrumServerService electrumServerService;
     private final JsonRpcServer rpcServer = new JsonRpcServer();
+    private final BlockingQueue<String> outboundMessages = new ArrayBlockingQueue<>(MAX_OUTBOUND_MESSAGES);
+    private final ElectrumNotificationService notificationService;
 
-    private boolean headersSubscribed;
-    private final Set<String> scriptHashesSubscribed = new HashSet<>();
+    private volatile boolean headersSubscribed;
+    private final Set<String> scriptHashesSubscribed = ConcurrentHashMap.newKeySet();
 
     public RequestHandler(Socket clientSocket, BitcoindClient bitcoindClient, int electrumPort) {
         this.clientSocket = clientSocket;
         this.electrumServerService = new ElectrumServerService(bitcoindClient, this, electrumPort);
+        this.notificationService = new JsonRpcClient(new ElectrumNotificationTransport(this::sendNotification)).onDemand(ElectrumNotificationService.class);
     }
 
     public void run() {
         Cormorant.getEventBus().register(this);
+        Thread writerThread = Thread.ofVirtual().name("Cormorant Electrum Writer").start(this::writeOutboundMessages);
 
         try {
             InputStream input  = clientSocket.getInputStream();
             BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
 
-            OutputStream output = clientSocket.getOutputStream();
-            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
-
             while(true) {
                 String request = reader.readLine();
                 if(request == null) {
@@ -45,14 +54,59 @@ public class RequestHandler implements Runnable {
                 }
 
                 String response = rpcServer.handle(request, electrumServerService);
-                out.println(response);
-                out.flush();
+                if(!outboundMessages.offer(response)) {
+                    log.warn("Disconnecting Electrum client that is not reading responses");
+                    break;
+                }
+            }
+        } catch(IOException e) {
+            if(!clientSocket.isClosed()) {
+                log.error("Could not communicate with client socket", e);
+            }
+        } finally {
+            Cormorant.getEventBus().unregister(this);
+            writerThread.interrupt();
+            closeClientSocket();
+        }
+    }
+
+    private void writeOutboundMessages() {
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8)));
+            while(true) {
+                String message = outboundMessages.take();
+                out.println(message);
+
+                //Flush once all queued messages have been written, so that a burst of notifications is sent together
+                if(outboundMessages.isEmpty()) {
+                    out.flush();
+                    if(out.checkError()) {
+                        closeClientSocket();
+                        return;
+                    }
+                }
             }
         } catch(IOException e) {
             log.error("Could not communicate with client socket", e);
+            closeClientSocket();
+        } catch(InterruptedException e) {
+            //Client has disconnected
+        }
+    }
+
+    private void sendNotification(String notification) {
+        if(!outboundMessages.offer(notification)) {
+            log.warn("Disconnecting Electrum client that is not reading notifications");
+            closeClientSocket();
         }
+    }
 
-        Cormorant.getEventBus().unregister(this);
+    private void closeClientSocket() {
+        try {
+            clientSocket.close();
+        } catch(IOException e) {
+            log.debug("Error closing client socket", e);
+        }
     }
 
     public void setHeadersSubscribed(boolean headersSubscribed) {
@@ -70,18 +124,14 @@ public class RequestHandler implements Runnable {
     @Subscribe
     public void newBlock(ElectrumBlockHeader electrumBlockHeader) {
         if(headersSubscribed) {
-            ElectrumNotificationTransport electrumNotificationTransport = new ElectrumNotificationTransport(clientSocket);
-            JsonRpcClient jsonRpcClient = new JsonRpcClient(electrumNotificationTransport);
-            jsonRpcClient.onDemand(ElectrumNotificationService.class).notifyHeaders(electrumBlockHeader);
+            notificationService.notifyHeaders(electrumBlockHeader);
         }
     }
 
     @Subscribe
     public void scriptHashStatus(ScriptHashStatus scriptHashStatus) {
         if(isScriptHashSubscribed(scriptHashStatus.scriptHash())) {
-            ElectrumNotificationTransport electrumNotificationTransport = new ElectrumNotificationTransport(clientSocket);
-            JsonRpcClient jsonRpcClient = new JsonRpcClient(electrumNotificationTransport);
-            jsonRpcClient.onDemand(ElectrumNotificationService.class).notifyScriptHash(scriptHashStatus.scriptHash(), scriptHashStatus.status());
+            notificationService.notifyScriptHash(scriptHashStatus.scriptHash(), scriptHashStatus.status());
         }
     }
 }
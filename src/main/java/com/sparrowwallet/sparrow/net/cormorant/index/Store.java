@@ -1,6 +1,7 @@
 package com.sparrowwallet.sparrow.net.cormorant.index;
 
 import com.sparrowwallet.drongo.address.Address;
+import com.sparrowwallet.drongo.address.InvalidAddressException;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.Category;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.ListTransaction;
 import com.sparrowwallet.sparrow.net.cormorant.bitcoind.MempoolEntry;
@@ -8,41 +9,71 @@ import com.sparrowwallet.drongo.protocol.HashIndex;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
 import com.sparrowwallet.drongo.Utils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Indexes the wallet history listed by Bitcoin Core by script hash. The store is updated by a single thread polling Bitcoin Core, while Electrum clients read it concurrently.
+ * Updates are applied to a working copy of each script hash history, and only made visible to readers by publish, which replaces the changed histories with immutable copies.
+ * Readers therefore never block on an update, and never see a history that is partially updated.
+ * Only the published histories and block hashes may be read by other threads. The funding addresses, spent outputs and mempool entries are plain maps owned by
+ * the updating thread, and must only be used by BitcoindClient while it holds its update lock.
+ */
 public class Store {
     private final Map<String, Set<TxEntry>> scriptHashEntries = new HashMap<>();
+    private final Map<String, SortedSet<TxEntry>> publishedScriptHashEntries = new ConcurrentHashMap<>();
+    private final Set<String> unpublishedScriptHashes = new HashSet<>();
     private final Map<HashIndex, Address> fundingAddresses = new HashMap<>();
     private final Map<String, Set<HashIndex>> spentOutputs = new HashMap<>();
-    private final Map<Integer, String> blockHeightHashes = new HashMap<>();
+    private final Map<Integer, String> blockHeightHashes = new ConcurrentHashMap<>();
     private final Map<String, MempoolEntry> mempoolEntries = new HashMap<>();
 
+    //Indexes by txid, so that purging or refreshing a transaction only visits the script hashes and outputs it affects
+    private final Map<String, Set<String>> txidScriptHashes = new HashMap<>();
+    private final Map<String, Set<HashIndex>> txidFundingOutputs = new HashMap<>();
+    private final Set<String> unconfirmedTxids = new HashSet<>();
+
     public String addAddressTransaction(Address address, ListTransaction listTransaction) {
         if(listTransaction.category() == Category.receive || listTransaction.category() == Category.immature || listTransaction.category() == Category.generate) {
-            fundingAddresses.put(new HashIndex(Sha256Hash.wrap(listTransaction.txid()), listTransaction.vout()), address);
+            HashIndex fundingOutput = new HashIndex(Sha256Hash.wrap(listTransaction.txid()), listTransaction.vout());
+            fundingAddresses.put(fundingOutput, address);
+            txidFundingOutputs.computeIfAbsent(listTransaction.txid(), k -> new HashSet<>()).add(fundingOutput);
         }
 
-        blockHeightHashes.put(listTransaction.blockheight(), listTransaction.blockhash());
+        if(listTransaction.blockhash() != null) {
+            blockHeightHashes.put(listTransaction.blockheight(), listTransaction.blockhash());
+        }
 
         String scriptHash = getScriptHash(address);
         Set<TxEntry> entries = scriptHashEntries.computeIfAbsent(scriptHash, k -> new TreeSet<>());
         TxEntry txEntry;
         String txid = listTransaction.txid();
+        txidScriptHashes.computeIfAbsent(txid, k -> new HashSet<>()).add(scriptHash);
 
+        boolean removed;
         if(listTransaction.confirmations() == 0) {
             if(!mempoolEntries.containsKey(txid)) {
                 mempoolEntries.put(txid, null);
             }
-            entries.removeIf(txe -> txe.height > 0 && txe.tx_hash.equals(listTransaction.txid()));
+            unconfirmedTxids.add(txid);
+            removed = entries.removeIf(txe -> txe.height > 0 && txe.tx_hash.equals(listTransaction.txid()));
             txEntry = new TxEntry(0, 0, listTransaction.txid(), listTransaction.fee());
         } else {
             mempoolEntries.remove(txid);
-            entries.removeIf(txe -> txe.height != listTransaction.blockheight() && txe.tx_hash.equals(listTransaction.txid()));
+            removed = entries.removeIf(txe -> txe.height != listTransaction.blockheight() && txe.tx_hash.equals(listTransaction.txid()));
             txEntry = new TxEntry(listTransaction.blockheight(), listTransaction.blockindex(), listTransaction.txid());
         }
 
+        if(removed) {
+            unpublishedScriptHashes.add(scriptHash);
+        }
+
         if(entries.add(txEntry)) {
+            unpublishedScriptHashes.add(scriptHash);
             return scriptHash;
         }
 
@@ -52,28 +83,46 @@ public class Store {
     public Set<String> updateMempoolTransactions() {
         Set<String> updatedScriptHashes = new HashSet<>();
 
-        for(Map.Entry<String, Set<TxEntry>> scriptHashEntry : scriptHashEntries.entrySet()) {
-            Set<TxEntry> txEntries = scriptHashEntry.getValue();
-            Set<TxEntry> oldEntries = new HashSet<>();
-            Set<TxEntry> newEntries = new HashSet<>();
-            for(TxEntry txEntry : txEntries) {
-                if(txEntry.height <= 0) {
-                    MempoolEntry mempoolEntry = mempoolEntries.get(txEntry.tx_hash);
-                    TxEntry newEntry = (mempoolEntry == null ? null : mempoolEntry.getTxEntry(txEntry.tx_hash));
-                    if(!txEntry.equals(newEntry)) {
-                        oldEntries.add(txEntry);
-                        if(newEntry != null) {
-                            newEntries.add(newEntry);
+        for(Iterator<String> iter = unconfirmedTxids.iterator(); iter.hasNext(); ) {
+            String txid = iter.next();
+            MempoolEntry mempoolEntry = mempoolEntries.get(txid);
+            TxEntry newEntry = (mempoolEntry == null ? null : mempoolEntry.getTxEntry(txid));
+            boolean unconfirmed = false;
+
+            for(String scriptHash : txidScriptHashes.getOrDefault(txid, Collections.emptySet())) {
+                Set<TxEntry> txEntries = scriptHashEntries.get(scriptHash);
+                if(txEntries == null) {
+                    continue;
+                }
+
+                Set<TxEntry> oldEntries = new HashSet<>();
+                for(TxEntry txEntry : txEntries) {
+                    if(txEntry.height <= 0 && txEntry.tx_hash.equals(txid)) {
+                        unconfirmed = true;
+                        if(!txEntry.equals(newEntry)) {
+                            oldEntries.add(txEntry);
                         }
                     }
                 }
+
+                if(!oldEntries.isEmpty()) {
+                    boolean removed = txEntries.removeAll(oldEntries);
+                    boolean added = newEntry != null && txEntries.add(newEntry);
+
+                    if(added || removed) {
+                        updatedScriptHashes.add(scriptHash);
+                        unpublishedScriptHashes.add(scriptHash);
+                    }
+                }
             }
 
-            boolean removed = txEntries.removeAll(oldEntries);
-            boolean added = txEntries.addAll(newEntries);
+            if(unconfirmed && newEntry == null) {
+                //Every entry of a transaction that has left the mempool has been removed, so it no longer has script hashes to index
+                txidScriptHashes.remove(txid);
+            }
 
-            if(added || removed) {
-                updatedScriptHashes.add(scriptHashEntry.getKey());
+            if(!unconfirmed || newEntry == null) {
+                iter.remove();
             }
         }
 
@@ -83,23 +132,44 @@ public class Store {
     public Set<String> purgeTransaction(String txid) {
         Set<String> updatedScriptHashes = new HashSet<>();
 
-        for(Map.Entry<String, Set<TxEntry>> scriptHashEntry : scriptHashEntries.entrySet()) {
-            Set<TxEntry> txEntries = scriptHashEntry.getValue();
-            if(txEntries.removeIf(txEntry -> txEntry.tx_hash.equals(txid))) {
-                updatedScriptHashes.add(scriptHashEntry.getKey());
+        for(String scriptHash : txidScriptHashes.getOrDefault(txid, Collections.emptySet())) {
+            Set<TxEntry> txEntries = scriptHashEntries.get(scriptHash);
+            if(txEntries != null && txEntries.removeIf(txEntry -> txEntry.tx_hash.equals(txid))) {
+                updatedScriptHashes.add(scriptHash);
+                unpublishedScriptHashes.add(scriptHash);
             }
         }
 
-        Sha256Hash txHash = Sha256Hash.wrap(txid);
-        fundingAddresses.keySet().removeIf(hashIndex -> hashIndex.getHash().equals(txHash));
+        txidScriptHashes.remove(txid);
+        unconfirmedTxids.remove(txid);
+        Set<HashIndex> fundingOutputs = txidFundingOutputs.remove(txid);
+        if(fundingOutputs != null) {
+            fundingAddresses.keySet().removeAll(fundingOutputs);
+        }
         spentOutputs.remove(txid);
         mempoolEntries.remove(txid);
 
         return updatedScriptHashes;
     }
 
+    /**
+     * Makes the updates since the last call visible to readers, by replacing the published history of each changed script hash with an immutable copy.
+     */
+    public void publish() {
+        for(String scriptHash : unpublishedScriptHashes) {
+            Set<TxEntry> entries = scriptHashEntries.get(scriptHash);
+            if(entries == null || entries.isEmpty()) {
+                publishedScriptHashEntries.remove(scriptHash);
+            } else {
+                publishedScriptHashEntries.put(scriptHash, Collections.unmodifiableSortedSet(new TreeSet<>(entries)));
+            }
+        }
+
+        unpublishedScriptHashes.clear();
+    }
+
     public String getStatus(String scriptHash) {
-        Set<TxEntry> entries = scriptHashEntries.get(scriptHash);
+        Set<TxEntry> entries = publishedScriptHashEntries.get(scriptHash);
         if(entries == null || entries.isEmpty()) {
             return null;
         }
@@ -112,20 +182,29 @@ public class Store {
         return Utils.bytesToHex(Sha256Hash.hash(scriptHashStatus.toString().getBytes(StandardCharsets.UTF_8)));
     }
 
+    /**
+     * Only to be called by the updating thread, see class comment
+     */
     public Address getFundingAddress(HashIndex spentOutput) {
         return fundingAddresses.get(spentOutput);
     }
 
+    /**
+     * Only to be used by the updating thread, see class comment
+     */
     public Map<String, Set<HashIndex>> getSpentOutputs() {
         return spentOutputs;
     }
 
+    /**
+     * Only to be used by the updating thread, see class comment
+     */
     public Map<String, MempoolEntry> getMempoolEntries() {
         return mempoolEntries;
     }
 
     public Set<TxEntry> getHistory(String scriptHash) {
-        Set<TxEntry> entries = scriptHashEntries.get(scriptHash);
+        Set<TxEntry> entries = publishedScriptHashEntries.get(scriptHash);
         if(entries == null) {
             return Collections.emptySet();
         }
@@ -137,6 +216,124 @@ public class Store {
         return blockHeightHashes.get(height);
     }
 
+    /**
+     * Writes the indexed wallet history. Mempool entries are written as txids only, since their fee data is refreshed from the node on the next update.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(scriptHashEntries.size());
+        for(Map.Entry<String, Set<TxEntry>> scriptHashEntry : scriptHashEntries.entrySet()) {
+            out.writeUTF(scriptHashEntry.getKey());
+            out.writeInt(scriptHashEntry.getValue().size());
+            for(TxEntry txEntry : scriptHashEntry.getValue()) {
+                txEntry.write(out);
+            }
+        }
+
+        out.writeInt(fundingAddresses.size());
+        for(Map.Entry<HashIndex, Address> fundingAddress : fundingAddresses.entrySet()) {
+            writeHashIndex(out, fundingAddress.getKey());
+            out.writeUTF(fundingAddress.getValue().toString());
+        }
+
+        out.writeInt(spentOutputs.size());
+        for(Map.Entry<String, Set<HashIndex>> spentOutput : spentOutputs.entrySet()) {
+            out.writeUTF(spentOutput.getKey());
+            out.writeInt(spentOutput.getValue().size());
+            for(HashIndex hashIndex : spentOutput.getValue()) {
+                writeHashIndex(out, hashIndex);
+            }
+        }
+
+        out.writeInt(blockHeightHashes.size());
+        for(Map.Entry<Integer, String> blockHeightHash : blockHeightHashes.entrySet()) {
+            out.writeInt(blockHeightHash.getKey());
+            out.writeUTF(blockHeightHash.getValue());
+        }
+
+        out.writeInt(mempoolEntries.size());
+        for(String txid : mempoolEntries.keySet()) {
+            out.writeUTF(txid);
+        }
+    }
+
+    static Store read(DataInputStream in) throws IOException {
+        Store store = new Store();
+
+        int scriptHashCount = in.readInt();
+        for(int i = 0; i < scriptHashCount; i++) {
+            String scriptHash = in.readUTF();
+            int entryCount = in.readInt();
+            Set<TxEntry> entries = new TreeSet<>();
+            for(int j = 0; j < entryCount; j++) {
+                entries.add(TxEntry.read(in));
+            }
+            store.scriptHashEntries.put(scriptHash, entries);
+        }
+
+        int fundingAddressCount = in.readInt();
+        for(int i = 0; i < fundingAddressCount; i++) {
+            HashIndex hashIndex = readHashIndex(in);
+            String address = in.readUTF();
+            try {
+                store.fundingAddresses.put(hashIndex, Address.fromString(address));
+            } catch(InvalidAddressException e) {
+                throw new IOException("Invalid funding address " + address, e);
+            }
+        }
+
+        int spentOutputCount = in.readInt();
+        for(int i = 0; i < spentOutputCount; i++) {
+            String txid = in.readUTF();
+            int outputCount = in.readInt();
+            Set<HashIndex> outputs = new HashSet<>();
+            for(int j = 0; j < outputCount; j++) {
+                outputs.add(readHashIndex(in));
+            }
+            store.spentOutputs.put(txid, outputs);
+        }
+
+        int blockHeightCount = in.readInt();
+        for(int i = 0; i < blockHeightCount; i++) {
+            store.blockHeightHashes.put(in.readInt(), in.readUTF());
+        }
+
+        int mempoolCount = in.readInt();
+        for(int i = 0; i < mempoolCount; i++) {
+            store.mempoolEntries.put(in.readUTF(), null);
+        }
+
+        store.indexTransactions();
+        store.unpublishedScriptHashes.addAll(store.scriptHashEntries.keySet());
+        store.publish();
+        return store;
+    }
+
+    private void indexTransactions() {
+        for(Map.Entry<String, Set<TxEntry>> scriptHashEntry : scriptHashEntries.entrySet()) {
+            for(TxEntry txEntry : scriptHashEntry.getValue()) {
+                txidScriptHashes.computeIfAbsent(txEntry.tx_hash, k -> new HashSet<>()).add(scriptHashEntry.getKey());
+                if(txEntry.height <= 0) {
+                    unconfirmedTxids.add(txEntry.tx_hash);
+                }
+            }
+        }
+
+        for(HashIndex fundingOutput : fundingAddresses.keySet()) {
+            txidFundingOutputs.computeIfAbsent(fundingOutput.getHash().toString(), k -> new HashSet<>()).add(fundingOutput);
+        }
+    }
+
+    private static void writeHashIndex(DataOutputStream out, HashIndex hashIndex) throws IOException {
+        out.write(hashIndex.getHash().getBytes());
+        out.writeLong(hashIndex.getIndex());
+    }
+
+    private static HashIndex readHashIndex(DataInputStream in) throws IOException {
+        byte[] hash = new byte[32];
+        in.readFully(hash);
+        return new HashIndex(Sha256Hash.wrap(hash), in.readLong());
+    }
+
     public static String getScriptHash(Address address) {
         byte[] hash = Sha256Hash.hash(address.getOutputScript().getProgram());
         byte[] reversed = Utils.reverseBytes(hash);
@@ -0,0 +1,137 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.sparrow.io.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Persists a Store in the cache directory, together with the last block it was updated to and the Bitcoin Core wallet descriptors it contains the history of.
+ * On restart the Store can then be brought up to date by listing the wallet transactions since that block, rather than since genesis.
+ * The file is replaced atomically, so an interrupted save leaves the previous snapshot in place.
+ * The file is not encrypted, so BitcoindClient only saves it if the persistCormorantIndex config setting is enabled.
+ */
+public class StoreFile {
+    private static final Logger log = LoggerFactory.getLogger(StoreFile.class);
+
+    private static final String STORE_FILENAME = "cormorant";
+    private static final int MAGIC = 0x434d5254;
+    private static final int VERSION = 1;
+
+    private final String lastBlock;
+    private final Set<String> descriptors;
+    private final Store store;
+
+    private StoreFile(String lastBlock, Set<String> descriptors, Store store) {
+        this.lastBlock = lastBlock;
+        this.descriptors = descriptors;
+        this.store = store;
+    }
+
+    public String getLastBlock() {
+        return lastBlock;
+    }
+
+    public Set<String> getDescriptors() {
+        return descriptors;
+    }
+
+    public Store getStore() {
+        return store;
+    }
+
+    /**
+     * Reads the saved index, returning null if there is none. A file that cannot be read in full is deleted, since it can never be resumed from.
+     */
+    public static StoreFile load() {
+        File storeFile = getStoreFile();
+        if(!storeFile.exists()) {
+            return null;
+        }
+
+        StoreFile loaded = null;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.debug("Ignoring Cormorant index with unknown format at " + storeFile.getAbsolutePath());
+            } else {
+                String lastBlock = in.readUTF();
+                int descriptorCount = in.readInt();
+                Set<String> descriptors = new HashSet<>();
+                for(int i = 0; i < descriptorCount; i++) {
+                    descriptors.add(in.readUTF());
+                }
+
+                loaded = new StoreFile(lastBlock, descriptors, Store.read(in));
+            }
+        } catch(IOException | RuntimeException e) {
+            log.warn("Could not read Cormorant index at " + storeFile.getAbsolutePath(), e);
+        }
+
+        if(loaded == null) {
+            delete();
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Serializes the Store as it is now, so that the snapshot can be written to disk later without holding up further updates to the Store.
+     */
+    public static byte[] snapshot(String lastBlock, Collection<String> descriptors, Store store) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try(DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(lastBlock);
+                out.writeInt(descriptors.size());
+                for(String descriptor : descriptors) {
+                    out.writeUTF(descriptor);
+                }
+                store.write(out);
+            }
+
+            return bytes.toByteArray();
+        } catch(IOException | RuntimeException e) {
+            log.warn("Could not serialize Cormorant index", e);
+            return null;
+        }
+    }
+
+    public static void save(byte[] snapshot) {
+        File storeFile = getStoreFile();
+        File tempFile = new File(storeFile.getParentFile(), STORE_FILENAME + ".tmp");
+        try {
+            File cacheDir = storeFile.getParentFile();
+            if(!cacheDir.exists()) {
+                Storage.createOwnerOnlyDirectory(cacheDir);
+            }
+
+            Files.deleteIfExists(tempFile.toPath());
+            Storage.createOwnerOnlyFile(tempFile);
+
+            try(OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                out.write(snapshot);
+            }
+
+            Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException | RuntimeException e) {
+            log.warn("Could not save Cormorant index to " + storeFile.getAbsolutePath(), e);
+        }
+    }
+
+    public static void delete() {
+        File storeFile = getStoreFile();
+        if(storeFile.exists() && !storeFile.delete()) {
+            log.warn("Could not delete Cormorant index at " + storeFile.getAbsolutePath());
+        }
+    }
+
+    static File getStoreFile() {
+        return new File(Storage.getCacheDir(), STORE_FILENAME);
+    }
+}
@@ -3,6 +3,9 @@ package com.sparrowwallet.sparrow.net.cormorant.index;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.sparrowwallet.drongo.protocol.Transaction;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Objects;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -26,6 +29,28 @@ public class TxEntry implements Comparable<TxEntry> {
         this.fee = btcFee > 0.0 ? (long)(btcFee * Transaction.SATOSHIS_PER_BITCOIN) : null;
     }
 
+    private TxEntry(int height, int index, String tx_hash, Long fee) {
+        this.height = height;
+        this.index = index;
+        this.tx_hash = tx_hash;
+        this.fee = fee;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(height);
+        out.writeInt(index);
+        out.writeUTF(tx_hash);
+        out.writeLong(fee == null ? -1 : fee);
+    }
+
+    static TxEntry read(DataInputStream in) throws IOException {
+        int height = in.readInt();
+        int index = in.readInt();
+        String txHash = in.readUTF();
+        long fee = in.readLong();
+        return new TxEntry(height, index, txHash, fee < 0 ? null : fee);
+    }
+
     @Override
     public boolean equals(Object o) {
         if(this == o) {
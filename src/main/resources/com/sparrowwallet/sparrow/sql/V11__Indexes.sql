@@ -0,0 +1,8 @@
+create index walletNode_wallet_parent on walletNode(wallet, parent);
+create index blockTransactionHashIndex_node_spentBy on blockTransactionHashIndex(node, spentBy);
+create index walletConfig_wallet on walletConfig(wallet);
+create index walletTable_wallet on walletTable(wallet);
+create index walletTable_type on walletTable(type);
+create index mixConfig_wallet on mixConfig(wallet);
+create index utxoMixData_wallet on utxoMixData(wallet);
+create index utxoMixData_hash on utxoMixData(hash);
\ No newline at end of file
@@ -2,28 +2,46 @@ package com.sparrowwallet.sparrow.io;
 
 import com.sparrowwallet.drongo.ExtendedKey;
 import com.sparrowwallet.drongo.KeyDerivation;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.address.Address;
 import com.sparrowwallet.drongo.crypto.Argon2KeyDeriver;
 import com.sparrowwallet.drongo.crypto.ECKey;
 import com.sparrowwallet.drongo.policy.Policy;
 import com.sparrowwallet.drongo.policy.PolicyType;
+import com.sparrowwallet.drongo.protocol.Script;
 import com.sparrowwallet.drongo.protocol.ScriptType;
 import com.sparrowwallet.drongo.protocol.Sha256Hash;
-import com.sparrowwallet.drongo.wallet.Keystore;
-import com.sparrowwallet.drongo.wallet.KeystoreSource;
-import com.sparrowwallet.drongo.wallet.Wallet;
-import com.sparrowwallet.drongo.wallet.WalletModel;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.wallet.*;
+import com.sparrowwallet.sparrow.io.db.*;
+import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.Statement;
-import java.util.Comparator;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DbPersistenceTest {
     private Path tempDir;
@@ -200,4 +218,327 @@ public class DbPersistenceTest {
 
         Assertions.assertTrue(new Storage(PersistenceType.DB, storage.getWalletFile()).loadUnencryptedWallet().getWallet().isValid());
     }
+
+    @Test
+    public void migratedWalletsOpenInSequence() throws Exception {
+        List<File> walletFiles = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            Storage storage = createUnencryptedWallet("Wallet" + i);
+            storage.closeAndWait();
+            walletFiles.add(storage.getWalletFile());
+        }
+
+        //Alter the recorded checksums, which Flyway rejects when validating before it migrates
+        for(File walletFile : walletFiles) {
+            String url = "jdbc:h2:" + walletFile.getAbsolutePath().replaceFirst("\\." + PersistenceType.DB.getExtension() + "$", "") + ";DATABASE_TO_UPPER=false";
+            try(Connection connection = DriverManager.getConnection(url, "sa", ""); Statement statement = connection.createStatement()) {
+                Assertions.assertTrue(statement.executeUpdate("update wallet_master.flyway_schema_history set checksum = checksum + 1 where checksum is not null") > 0);
+            }
+
+            if(walletFile == walletFiles.getFirst()) {
+                Flyway flyway = Flyway.configure().dataSource(url, "sa", "").locations("classpath:" + DbPersistence.MIGRATION_RESOURCES_DIR).schemas("wallet_master").load();
+                Assertions.assertFalse(flyway.validateWithResult().validationSuccessful);
+            }
+        }
+
+        //Wallets already at the latest schema version are opened without extracting or running migrations, so the altered checksums are never validated
+        for(File walletFile : walletFiles) {
+            Storage storage = new Storage(PersistenceType.DB, walletFile);
+            Assertions.assertTrue(storage.loadUnencryptedWallet().getWallet().isValid());
+            storage.closeAndWait();
+        }
+    }
+
+    private Jdbi createMigratedJdbi(String databaseName, String schema) {
+        String url = "jdbc:h2:" + tempDir.resolve(databaseName) + ";DATABASE_TO_UPPER=false";
+        Flyway.configure().dataSource(url, "sa", "").locations("classpath:" + DbPersistence.MIGRATION_RESOURCES_DIR).schemas(schema).load().migrate();
+
+        Jdbi jdbi = Jdbi.create(url, "sa", "");
+        jdbi.installPlugin(new H2DatabasePlugin());
+        jdbi.installPlugin(new SqlObjectPlugin());
+        return jdbi;
+    }
+
+    @Test
+    public void largeWalletHistoryIsWrittenInBatches() throws Exception {
+        int addressCount = 5000;
+        int txosPerAddress = 10;
+        Wallet wallet = createWallet("Large");
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(addressCount - 1);
+
+        //Each address receives all its txos in one transaction, half of which are spent together in another
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+        Date date = new Date(1700000000000L);
+        int txCount = 0;
+        for(WalletNode addressNode : receiveNode.getChildren()) {
+            Sha256Hash fundingTxid = Sha256Hash.of(ByteBuffer.allocate(4).putInt(txCount++).array());
+            Sha256Hash spendingTxid = Sha256Hash.of(ByteBuffer.allocate(4).putInt(txCount++).array());
+            transactions.put(fundingTxid, new BlockTransaction(fundingTxid, 850000, date, null, null));
+            transactions.put(spendingTxid, new BlockTransaction(spendingTxid, 850001, date, null, null));
+            for(int i = 0; i < txosPerAddress; i++) {
+                BlockTransactionHashIndex txo = new BlockTransactionHashIndex(fundingTxid, 850000, date, null, i, 1000L + i);
+                if(i % 2 == 0) {
+                    txo.setSpentBy(new BlockTransactionHashIndex(spendingTxid, 850001, date, null, i / 2, 1000L + i));
+                }
+                addressNode.getTransactionOutputs().add(txo);
+            }
+        }
+        wallet.updateTransactions(transactions);
+
+        String schema = "wallet_master";
+        Jdbi jdbi = createMigratedJdbi("large", schema);
+        AtomicInteger statements = new AtomicInteger();
+        jdbi.setSqlLogger(new SqlLogger() {
+            @Override
+            public void logAfterExecution(StatementContext context) {
+                statements.incrementAndGet();
+            }
+        });
+
+        long start = System.nanoTime();
+        jdbi.useHandle(handle -> handle.attach(WalletDao.class).addWallet(schema, wallet));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //Row counts are independent of the number of statements, which grows only with the number of tables and txid lookup batches
+        Assertions.assertTrue(statements.get() < 100, "persisting " + addressCount * txosPerAddress + " txos took " + statements.get() + " statements");
+        Assertions.assertTrue(elapsedMillis < 30000, "persisting " + addressCount * txosPerAddress + " txos took " + elapsedMillis + "ms");
+
+        Wallet loadedWallet = jdbi.withHandle(handle -> handle.attach(WalletDao.class).getMainWallet(schema, null));
+        List<BlockTransactionHashIndex> loadedTxos = loadedWallet.getNode(KeyPurpose.RECEIVE).getChildren().stream().flatMap(node -> node.getTransactionOutputs().stream()).toList();
+        Assertions.assertEquals(addressCount * txosPerAddress, loadedTxos.size());
+        Assertions.assertEquals(addressCount * txosPerAddress / 2, loadedTxos.stream().filter(BlockTransactionHashIndex::isSpent).count());
+        Assertions.assertEquals(txCount, loadedWallet.getTransactions().size());
+    }
+
+    @Test
+    public void transactionsAreLoadedOnDemand() throws Exception {
+        Wallet wallet = createWallet("Lazy");
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE).getChildren().iterator().next();
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        transaction.addOutput(100000L, receiveNode.getAddress());
+        wallet.updateTransactions(Map.of(transaction.getTxId(), new BlockTransaction(transaction.getTxId(), 850000, new Date(1700000000000L), 1000L, transaction)));
+        receiveNode.getTransactionOutputs().add(new BlockTransactionHashIndex(transaction.getTxId(), 850000, new Date(1700000000000L), 1000L, 0, 100000L));
+
+        Storage storage = new Storage(PersistenceType.DB, tempDir.resolve("Lazy." + PersistenceType.DB.getExtension()).toFile());
+        storage.setKeyDeriver(new Argon2KeyDeriver());
+        storage.setEncryptionPubKey(Storage.NO_PASSWORD_KEY);
+        storage.saveWallet(wallet);
+        storage.closeAndWait();
+
+        Storage loadedStorage = new Storage(PersistenceType.DB, storage.getWalletFile());
+        Wallet loadedWallet = loadedStorage.loadUnencryptedWallet().getWallet();
+        BlockTransaction loadedBlkTx = loadedWallet.getTransactions().get(transaction.getTxId());
+        Assertions.assertInstanceOf(LazyBlockTransaction.class, loadedBlkTx);
+        Assertions.assertEquals(Long.valueOf(1000L), loadedBlkTx.getFee());
+        Assertions.assertEquals(transaction.getTxId(), loadedBlkTx.getTransaction().getTxId());
+        Assertions.assertEquals(1, loadedBlkTx.getFunding().size());
+        loadedStorage.closeAndWait();
+    }
+
+    @Test
+    public void closedWalletFileTransactionLoadFails() throws Exception {
+        Wallet wallet = createWallet("Closed");
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE).getChildren().iterator().next();
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        transaction.addOutput(100000L, receiveNode.getAddress());
+        wallet.updateTransactions(Map.of(transaction.getTxId(), new BlockTransaction(transaction.getTxId(), 850000, new Date(1700000000000L), 1000L, transaction)));
+
+        Storage storage = new Storage(PersistenceType.DB, tempDir.resolve("Closed." + PersistenceType.DB.getExtension()).toFile());
+        storage.setKeyDeriver(new Argon2KeyDeriver());
+        storage.setEncryptionPubKey(Storage.NO_PASSWORD_KEY);
+        storage.saveWallet(wallet);
+        storage.closeAndWait();
+
+        Storage loadedStorage = new Storage(PersistenceType.DB, storage.getWalletFile());
+        Wallet loadedWallet = loadedStorage.loadUnencryptedWallet().getWallet();
+        BlockTransaction loadedBlkTx = loadedWallet.getTransactions().get(transaction.getTxId());
+        loadedStorage.closeAndWait();
+
+        //An unloaded transaction must not silently read as missing once the wallet file it would be read from is closed
+        IllegalStateException exception = Assertions.assertThrows(IllegalStateException.class, loadedBlkTx::getTransaction);
+        Assertions.assertTrue(exception.getMessage().contains(transaction.getTxId().toString()));
+        Assertions.assertThrows(IllegalStateException.class, loadedBlkTx::getFunding);
+    }
+
+    @Test
+    public void unloadedTransactionsAreNotOverwrittenOnUpdate() throws Exception {
+        Wallet wallet = createWallet("Update");
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE).getChildren().iterator().next();
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        transaction.addOutput(100000L, receiveNode.getAddress());
+        wallet.updateTransactions(Map.of(transaction.getTxId(), new BlockTransaction(transaction.getTxId(), 850000, new Date(1700000000000L), 1000L, transaction)));
+
+        String schema = "wallet_master";
+        Jdbi jdbi = createMigratedJdbi("update", schema);
+        jdbi.useHandle(handle -> handle.attach(WalletDao.class).addWallet(schema, wallet));
+
+        //A loader that fails once updating shows the update neither reads the transaction nor writes over it
+        AtomicBoolean updating = new AtomicBoolean();
+        Wallet loadedWallet = jdbi.withHandle(handle -> handle.attach(WalletDao.class).getMainWallet(schema, null, txid -> {
+            if(updating.get()) {
+                throw new IllegalStateException("Transaction read during update");
+            }
+            return jdbi.withHandle(loaderHandle -> loaderHandle.attach(WalletDao.class).getTransactionBytes(schema, txid));
+        }));
+        BlockTransaction loadedBlkTx = loadedWallet.getTransactions().get(transaction.getTxId());
+        Assertions.assertInstanceOf(LazyBlockTransaction.class, loadedBlkTx);
+        loadedBlkTx.setLabel("Updated");
+        updating.set(true);
+        jdbi.useHandle(handle -> {
+            handle.execute("set schema " + schema);
+            handle.attach(BlockTransactionDao.class).addOrUpdate(loadedWallet, Map.of(transaction.getTxId(), loadedBlkTx));
+        });
+
+        Wallet reloadedWallet = jdbi.withHandle(handle -> handle.attach(WalletDao.class).getMainWallet(schema, null));
+        BlockTransaction reloadedBlkTx = reloadedWallet.getTransactions().get(transaction.getTxId());
+        Assertions.assertEquals("Updated", reloadedBlkTx.getLabel());
+        Assertions.assertNotNull(reloadedBlkTx.getTransaction());
+        Assertions.assertEquals(transaction.getTxId(), reloadedBlkTx.getTransaction().getTxId());
+    }
+
+    @Test
+    public void largeWalletOpensWithoutReadingTransactions() throws Exception {
+        int txCount = 1000;
+        Wallet wallet = createWallet("Eager");
+        Address address = wallet.getNode(KeyPurpose.RECEIVE).getChildren().iterator().next().getAddress();
+
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+        Date date = new Date(1700000000000L);
+        for(int i = 0; i < txCount; i++) {
+            Transaction transaction = new Transaction();
+            transaction.addInput(Sha256Hash.of(ByteBuffer.allocate(4).putInt(i).array()), 0, new Script(new byte[0]));
+            transaction.addOutput(1000L + i, address);
+            transactions.put(transaction.getTxId(), new BlockTransaction(transaction.getTxId(), 850000 + i / 1000, date, null, transaction));
+        }
+        wallet.updateTransactions(transactions);
+
+        String schema = "wallet_master";
+        Jdbi jdbi = createMigratedJdbi("eager", schema);
+        jdbi.useHandle(handle -> handle.attach(WalletDao.class).addWallet(schema, wallet));
+        AtomicInteger loads = new AtomicInteger();
+        LazyBlockTransaction.TransactionLoader transactionLoader = txid -> {
+            loads.incrementAndGet();
+            return jdbi.withHandle(handle -> handle.attach(WalletDao.class).getTransactionBytes(schema, txid));
+        };
+
+        List<String> statements = Collections.synchronizedList(new ArrayList<>());
+        jdbi.setSqlLogger(new SqlLogger() {
+            @Override
+            public void logAfterExecution(StatementContext context) {
+                statements.add(context.getRenderedSql());
+            }
+        });
+
+        //The eager open selects the transaction column, showing the check below would see it
+        Wallet eagerWallet = jdbi.withHandle(handle -> handle.attach(WalletDao.class).getMainWallet(schema, null));
+        Assertions.assertEquals(txCount, eagerWallet.getTransactions().size());
+        Assertions.assertTrue(statements.stream().anyMatch(DbPersistenceTest::readsTransactionColumn));
+
+        statements.clear();
+        Wallet lazyWallet = jdbi.withHandle(handle -> handle.attach(WalletDao.class).getMainWallet(schema, null, transactionLoader));
+        Assertions.assertEquals(txCount, lazyWallet.getTransactions().size());
+        Assertions.assertTrue(lazyWallet.getTransactions().values().stream().allMatch(blkTx -> blkTx instanceof LazyBlockTransaction));
+        Assertions.assertEquals(0, loads.get(), "transactions were loaded while opening the wallet");
+        Assertions.assertTrue(statements.stream().noneMatch(DbPersistenceTest::readsTransactionColumn), "transaction column was read while opening the wallet: " + statements);
+
+        //A transaction is read by txid the first time it is requested, and is then served from the parse cache
+        Sha256Hash txid = transactions.keySet().iterator().next();
+        Assertions.assertEquals(txid, lazyWallet.getTransactions().get(txid).getTransaction().getTxId());
+        Assertions.assertEquals(txid, lazyWallet.getTransactions().get(txid).getTransaction().getTxId());
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    private static boolean readsTransactionColumn(String sql) {
+        return sql.startsWith("select") && sql.matches("(?s).*\\btransaction\\b.*");
+    }
+
+    @Test
+    public void reusedAddressHistoryLoadsInLinearTime() throws Exception {
+        int pairCount = 20000;
+        Wallet wallet = createWallet("Reused");
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE).getChildren().iterator().next();
+
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+        Date date = new Date(1700000000000L);
+        for(int i = 0; i < pairCount; i++) {
+            Sha256Hash fundingTxid = Sha256Hash.of(ByteBuffer.allocate(5).put((byte)0).putInt(i).array());
+            Sha256Hash spendingTxid = Sha256Hash.of(ByteBuffer.allocate(5).put((byte)1).putInt(i).array());
+            transactions.put(fundingTxid, new BlockTransaction(fundingTxid, 850000 + i, date, null, null));
+            transactions.put(spendingTxid, new BlockTransaction(spendingTxid, 850001 + i, date, null, null));
+
+            BlockTransactionHashIndex txo = new BlockTransactionHashIndex(fundingTxid, 850000 + i, date, null, 0, 1000L + i);
+            txo.setSpentBy(new BlockTransactionHashIndex(spendingTxid, 850001 + i, date, null, 0, 1000L + i));
+            receiveNode.getTransactionOutputs().add(txo);
+        }
+        wallet.updateTransactions(transactions);
+
+        String schema = "wallet_master";
+        Jdbi jdbi = createMigratedJdbi("reused", schema);
+        jdbi.useHandle(handle -> handle.attach(WalletDao.class).addWallet(schema, wallet));
+
+        long start = System.nanoTime();
+        Wallet loadedWallet = jdbi.withHandle(handle -> handle.attach(WalletDao.class).getMainWallet(schema, null));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        WalletNode loadedNode = loadedWallet.getNode(KeyPurpose.RECEIVE).getChildren().iterator().next();
+        Assertions.assertEquals(pairCount, loadedNode.getTransactionOutputs().size());
+        Assertions.assertTrue(loadedNode.getTransactionOutputs().stream().allMatch(BlockTransactionHashIndex::isSpent));
+        Assertions.assertTrue(elapsedMillis < 10000, "loading " + pairCount + " spent txos on one address took " + elapsedMillis + "ms");
+    }
+
+    @Test
+    public void walletQueriesUseIndexes() throws Exception {
+        String schema = "wallet_master";
+        Jdbi jdbi = createMigratedJdbi("indexes", schema);
+
+        //The DAOs used when loading and updating a wallet, whose filtered statements should all be index lookups
+        List<Class<?>> daos = List.of(WalletNodeDao.class, BlockTransactionDao.class, KeystoreDao.class, WalletConfigDao.class, WalletTableDao.class, MixConfigDao.class, UtxoMixDataDao.class);
+        List<String> tableScans = new ArrayList<>();
+        jdbi.useHandle(handle -> {
+            handle.execute("set schema " + schema);
+            for(Class<?> dao : daos) {
+                for(Method method : dao.getDeclaredMethods()) {
+                    String sql = getSql(method);
+                    if(sql == null || !sql.toLowerCase(Locale.ROOT).contains(" where ")) {
+                        continue;
+                    }
+
+                    String explain = "explain " + sql.replaceAll("<\\w+>", "?").replaceAll(":\\w+", "?");
+                    try(PreparedStatement statement = handle.getConnection().prepareStatement(explain)) {
+                        for(int i = 1; i <= statement.getParameterMetaData().getParameterCount(); i++) {
+                            statement.setObject(i, null);
+                        }
+                        try(ResultSet resultSet = statement.executeQuery()) {
+                            resultSet.next();
+                            String plan = resultSet.getString(1);
+                            if(plan.contains("tableScan")) {
+                                tableScans.add(dao.getSimpleName() + "." + method.getName() + ": " + plan);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+
+        Assertions.assertTrue(tableScans.isEmpty(), "queries scan tables:\n" + String.join("\n", tableScans));
+    }
+
+    private static String getSql(Method method) {
+        if(method.isAnnotationPresent(SqlQuery.class)) {
+            return method.getAnnotation(SqlQuery.class).value();
+        } else if(method.isAnnotationPresent(SqlUpdate.class)) {
+            return method.getAnnotation(SqlUpdate.class).value();
+        } else if(method.isAnnotationPresent(SqlBatch.class)) {
+            return method.getAnnotation(SqlBatch.class).value();
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,117 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.Network;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.sparrow.io.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockHeaderStoreTest {
+    private static final String GENESIS_HEADER_HEX = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c";
+    private static final String BLOCK_1_HEADER_HEX = "010000006fe28c0ab6f1b372c1a6a246ae63f74f931e8365e15a089c68d6190000000000982051fd1e4ba744bbbe680e1fee14677ba1a3c3540bf7b1cdb606e857233e0e61bc6649ffff001d01e36299";
+    private static final String BLOCK_2_HEADER_HEX = "010000004860eb18bf1b1620e37e9490fc8a427514416fd75159ab86688e9a8300000000d5fdcc541e25de1c7a5addedf24858b8bb665c9f36ef744ee42c316022c90f9bb0bc6649ffff001d08d2bd61";
+
+    @BeforeEach
+    public void setUp() {
+        Network.set(Network.MAINNET);
+    }
+
+    @Test
+    public void storesLinkedRange() {
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        assertEquals(3, store.putRange(0, Utils.hexToBytes(GENESIS_HEADER_HEX + BLOCK_1_HEADER_HEX + BLOCK_2_HEADER_HEX)));
+        assertEquals(2, store.getHighestHeight());
+        assertArrayEquals(Utils.hexToBytes(BLOCK_1_HEADER_HEX), store.get(1).bitcoinSerialize());
+    }
+
+    @Test
+    public void stopsRangeAtUnlinkedHeader() {
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        assertEquals(1, store.putRange(0, Utils.hexToBytes(GENESIS_HEADER_HEX + BLOCK_2_HEADER_HEX)));
+        assertTrue(store.contains(0));
+        assertFalse(store.contains(1));
+    }
+
+    @Test
+    public void rejectsTamperedHeader() {
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        byte[] tampered = Utils.hexToBytes(BLOCK_1_HEADER_HEX);
+        tampered[79] ^= 0x01;
+        assertFalse(store.put(1, tampered));
+        assertNull(store.get(1));
+    }
+
+    /**
+     * A header with valid proof of work that does not link to its stored neighbours replaces them, as they must be on a chain that has been reorganised out.
+     */
+    @Test
+    public void removesUnlinkedNeighbours() {
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        assertTrue(store.put(0, Utils.hexToBytes(GENESIS_HEADER_HEX)));
+        assertTrue(store.put(2, Utils.hexToBytes(BLOCK_2_HEADER_HEX)));
+
+        assertTrue(store.put(1, Utils.hexToBytes(GENESIS_HEADER_HEX)));
+        assertFalse(store.contains(0));
+        assertTrue(store.contains(1));
+        assertFalse(store.contains(2));
+        assertEquals(1, store.getHighestHeight());
+    }
+
+    @Test
+    public void newTipRemovesHeadersAbove() {
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        store.putRange(0, Utils.hexToBytes(GENESIS_HEADER_HEX + BLOCK_1_HEADER_HEX + BLOCK_2_HEADER_HEX));
+
+        assertTrue(store.putTip(1, Utils.hexToBytes(BLOCK_1_HEADER_HEX)));
+        assertEquals(1, store.getHighestHeight());
+        assertTrue(store.contains(0));
+        assertFalse(store.contains(2));
+    }
+
+    @Test
+    public void changingServerClearsHeaders() {
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        store.bindServer("ssl://first.example.com:50002");
+        store.putRange(0, Utils.hexToBytes(GENESIS_HEADER_HEX + BLOCK_1_HEADER_HEX));
+
+        store.bindServer("ssl://first.example.com:50002");
+        assertEquals(1, store.getHighestHeight());
+
+        store.bindServer("ssl://second.example.com:50002");
+        assertEquals(-1, store.getHighestHeight());
+        assertFalse(store.contains(0));
+    }
+
+    @Test
+    public void reconnectingToCoreOnNewPortKeepsHeaders() {
+        Server coreServer = new Server("http://127.0.0.1:8332");
+        BlockHeaderStore store = BlockHeaderStore.inMemory();
+        store.bindServer(ElectrumServer.getBlockHeaderServerId(ServerType.BITCOIN_CORE, new Server("tcp://127.0.0.1:50123"), coreServer));
+        store.putRange(0, Utils.hexToBytes(GENESIS_HEADER_HEX + BLOCK_1_HEADER_HEX));
+
+        store.bindServer(ElectrumServer.getBlockHeaderServerId(ServerType.BITCOIN_CORE, new Server("tcp://127.0.0.1:50456"), coreServer));
+        assertEquals(1, store.getHighestHeight());
+        assertTrue(store.contains(0));
+
+        store.bindServer(ElectrumServer.getBlockHeaderServerId(ServerType.BITCOIN_CORE, new Server("tcp://127.0.0.1:50789"), new Server("http://192.168.1.10:8332")));
+        assertEquals(-1, store.getHighestHeight());
+    }
+
+    @Test
+    public void coalescesNearbyHeights() {
+        Map<Integer, Integer> ranges = ElectrumServer.getBlockHeaderRanges(new TreeSet<>(Set.of(100, 101, 110, 200, 5000)));
+        assertEquals(Map.of(100, 11, 200, 1, 5000, 1), ranges);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Network.set(null);
+    }
+}
@@ -0,0 +1,490 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.github.arteam.simplejsonrpc.client.Transport;
+import com.sparrowwallet.drongo.ExtendedKey;
+import com.sparrowwallet.drongo.KeyDerivation;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.Network;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.address.Address;
+import com.sparrowwallet.drongo.policy.Policy;
+import com.sparrowwallet.drongo.policy.PolicyType;
+import com.sparrowwallet.drongo.protocol.BlockHeader;
+import com.sparrowwallet.drongo.protocol.Script;
+import com.sparrowwallet.drongo.protocol.ScriptType;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.wallet.*;
+import com.sparrowwallet.sparrow.SparrowWallet;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the receive and change chains of a wallet are synchronized concurrently on a pipelined connection, and merged into a consistent history.
+ */
+public class ElectrumServerHistoryTest {
+    private static final String TEST_XPUB = "xpub6BrhGFTWPd3DXo8s2BPxHHzCmBCyj8QvamcEUaq8EDwnwXpvvcU9LzpJqENHcqHkqwTn2vPhynGVoEqj3PAB3NxnYZrvCsSfoCniJKaggdy";
+    private static final String BLOCK_1_HEADER_HEX = "010000006fe28c0ab6f1b372c1a6a246ae63f74f931e8365e15a089c68d6190000000000982051fd1e4ba744bbbe680e1fee14677ba1a3c3540bf7b1cdb606e857233e0e61bc6649ffff001d01e36299";
+    private static final String BLOCK_2_HEADER_HEX = "010000004860eb18bf1b1620e37e9490fc8a427514416fd75159ab86688e9a8300000000d5fdcc541e25de1c7a5addedf24858b8bb665c9f36ef744ee42c316022c90f9bb0bc6649ffff001d08d2bd61";
+
+    @TempDir
+    private Path tempHome;
+
+    private Object previousTransport;
+    private Object previousRpc;
+    private Object previousBlockHeaderStore;
+    private Object previousServerCapability;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Network.set(Network.MAINNET);
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, tempHome.toString());
+        previousTransport = getStaticField("transport");
+        previousRpc = getStaticField("electrumServerRpc");
+        previousBlockHeaderStore = getStaticField("blockHeaderStore");
+        previousServerCapability = getStaticField("serverCapability");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        setStaticField("transport", previousTransport);
+        setStaticField("electrumServerRpc", previousRpc);
+        setStaticField("blockHeaderStore", previousBlockHeaderStore);
+        setStaticField("serverCapability", previousServerCapability);
+        ((Map<?, ?>)getStaticField("subscribedScriptHashes")).clear();
+        ((Map<?, ?>)getStaticField("retrievedScriptHashes")).clear();
+        System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
+        Network.set(null);
+    }
+
+    @Test
+    public void synchronizesChainsConcurrently() throws Exception {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        WalletNode changeNode = wallet.getNode(KeyPurpose.CHANGE);
+        receiveNode.fillToIndex(wallet.getGapLimit() - 1);
+        changeNode.fillToIndex(wallet.getGapLimit() - 1);
+        WalletNode receiveNode0 = receiveNode.getChildren().iterator().next();
+        WalletNode changeNode0 = changeNode.getChildren().iterator().next();
+
+        Transaction fundingTx = new Transaction();
+        fundingTx.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        fundingTx.addOutput(100000L, receiveNode0.getAddress());
+
+        Transaction spendingTx = new Transaction();
+        spendingTx.addInput(fundingTx.getTxId(), 0, new Script(new byte[0]));
+        spendingTx.addOutput(40000L, changeNode0.getAddress());
+        spendingTx.addOutput(50000L, Address.fromString("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4"));
+
+        StubElectrumServerRpc rpc = new StubElectrumServerRpc();
+        rpc.awaitChains = true;
+        rpc.addHistory(ElectrumServer.getScriptHash(receiveNode0), new ScriptHashTx(1, fundingTx.getTxId().toString(), 0), new ScriptHashTx(2, spendingTx.getTxId().toString(), 0));
+        rpc.addHistory(ElectrumServer.getScriptHash(changeNode0), new ScriptHashTx(2, spendingTx.getTxId().toString(), 0));
+        rpc.transactions.put(fundingTx.getTxId().toString(), Utils.bytesToHex(fundingTx.bitcoinSerialize()));
+        rpc.transactions.put(spendingTx.getTxId().toString(), Utils.bytesToHex(spendingTx.bitcoinSerialize()));
+
+        setStaticField("transport", new StubTransport());
+        setStaticField("electrumServerRpc", rpc);
+        setStaticField("blockHeaderStore", BlockHeaderStore.inMemory());
+
+        ElectrumServer electrumServer = new ElectrumServer();
+        Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Map<WalletNode, Set<BlockTransactionHash>> history = electrumServer.getHistory(wallet);
+            electrumServer.getReferencedTransactions(wallet, history);
+            return history;
+        });
+
+        assertEquals(0, rpc.chainsStarted.getCount(), "Receive and change chains should be synchronized concurrently");
+        assertEquals(2, rpc.subscribingThreads.size());
+
+        assertEquals(Set.of(fundingTx.getTxId(), spendingTx.getTxId()), hashes(nodeTransactionMap.get(receiveNode0)));
+        assertEquals(Set.of(spendingTx.getTxId()), hashes(nodeTransactionMap.get(changeNode0)));
+        assertEquals(Set.of(fundingTx.getTxId(), spendingTx.getTxId()), wallet.getTransactions().keySet());
+        assertEquals(1, wallet.getTransactions().get(fundingTx.getTxId()).getHeight());
+        assertEquals(2, wallet.getTransactions().get(spendingTx.getTxId()).getHeight());
+    }
+
+    /**
+     * Addresses derived ahead of the gap limit to find distant used addresses in fewer rounds are trimmed once history is fetched, and are unsubscribed.
+     */
+    @Test
+    public void trimsAndUnsubscribesLookaheadNodes() throws Exception {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(wallet.getGapLimit() - 1);
+        int gapLimit = wallet.getGapLimit();
+
+        //The second used address is only within the gap limit of the first, so it is found in a second round that derives further ahead
+        WalletNode firstUsed = new WalletNode(wallet, KeyPurpose.RECEIVE, gapLimit - 5);
+        WalletNode lastUsed = new WalletNode(wallet, KeyPurpose.RECEIVE, 2 * gapLimit - 10);
+
+        Transaction firstTx = new Transaction();
+        firstTx.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        firstTx.addOutput(100000L, firstUsed.getAddress());
+        Transaction lastTx = new Transaction();
+        lastTx.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000002"), 0, new Script(new byte[0]));
+        lastTx.addOutput(100000L, lastUsed.getAddress());
+
+        StubElectrumServerRpc rpc = new StubElectrumServerRpc();
+        rpc.addHistory(ElectrumServer.getScriptHash(firstUsed), new ScriptHashTx(1, firstTx.getTxId().toString(), 0));
+        rpc.addHistory(ElectrumServer.getScriptHash(lastUsed), new ScriptHashTx(2, lastTx.getTxId().toString(), 0));
+        rpc.transactions.put(firstTx.getTxId().toString(), Utils.bytesToHex(firstTx.bitcoinSerialize()));
+        rpc.transactions.put(lastTx.getTxId().toString(), Utils.bytesToHex(lastTx.bitcoinSerialize()));
+
+        setStaticField("transport", new StubTransport());
+        setStaticField("electrumServerRpc", rpc);
+        setStaticField("blockHeaderStore", BlockHeaderStore.inMemory());
+        setStaticField("serverCapability", new ServerCapability(true, true, true));
+
+        ElectrumServer electrumServer = new ElectrumServer();
+        Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = new TreeMap<>();
+        electrumServer.getHistory(wallet, KeyPurpose.RECEIVE, nodeTransactionMap);
+
+        int gapLimitSize = lastUsed.getIndex() + gapLimit + 1;
+        assertEquals(gapLimitSize, receiveNode.getChildren().size(), "Receive addresses should be trimmed back to the gap limit");
+        assertEquals(gapLimitSize - 1, receiveNode.getChildren().stream().mapToInt(WalletNode::getIndex).max().orElseThrow());
+        assertEquals(Set.of(lastTx.getTxId()), hashes(nodeTransactionMap.get(receiveNode.getChildren().stream().filter(node -> node.getIndex() == lastUsed.getIndex()).findFirst().orElseThrow())));
+
+        //Every address derived beyond the gap limit was subscribed to while looking ahead, and must now be unsubscribed
+        assertFalse(rpc.unsubscribed.isEmpty());
+        for(String scriptHash : rpc.unsubscribed) {
+            assertTrue(rpc.subscribed.contains(scriptHash));
+            assertNull(ElectrumServer.getSubscribedScriptHashStatus(scriptHash));
+        }
+        for(WalletNode node : receiveNode.getChildren()) {
+            assertFalse(rpc.unsubscribed.contains(ElectrumServer.getScriptHash(node)), "Address " + node + " within the gap limit was unsubscribed");
+        }
+        int lookaheadIndex = gapLimitSize;
+        assertTrue(rpc.unsubscribed.contains(ElectrumServer.getScriptHash(new WalletNode(wallet, KeyPurpose.RECEIVE, lookaheadIndex))));
+    }
+
+    /**
+     * Speculative subscriptions cannot be removed from a server without unsubscribe support, so no addresses are derived beyond the gap limit.
+     */
+    @Test
+    public void doesNotLookAheadWithoutUnsubscribe() throws Exception {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(wallet.getGapLimit() - 1);
+        int gapLimit = wallet.getGapLimit();
+
+        WalletNode firstUsed = new WalletNode(wallet, KeyPurpose.RECEIVE, gapLimit - 5);
+        WalletNode lastUsed = new WalletNode(wallet, KeyPurpose.RECEIVE, 2 * gapLimit - 10);
+
+        Transaction firstTx = new Transaction();
+        firstTx.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        firstTx.addOutput(100000L, firstUsed.getAddress());
+        Transaction lastTx = new Transaction();
+        lastTx.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000002"), 0, new Script(new byte[0]));
+        lastTx.addOutput(100000L, lastUsed.getAddress());
+
+        StubElectrumServerRpc rpc = new StubElectrumServerRpc();
+        rpc.addHistory(ElectrumServer.getScriptHash(firstUsed), new ScriptHashTx(1, firstTx.getTxId().toString(), 0));
+        rpc.addHistory(ElectrumServer.getScriptHash(lastUsed), new ScriptHashTx(2, lastTx.getTxId().toString(), 0));
+        rpc.transactions.put(firstTx.getTxId().toString(), Utils.bytesToHex(firstTx.bitcoinSerialize()));
+        rpc.transactions.put(lastTx.getTxId().toString(), Utils.bytesToHex(lastTx.bitcoinSerialize()));
+
+        setStaticField("transport", new StubTransport());
+        setStaticField("electrumServerRpc", rpc);
+        setStaticField("blockHeaderStore", BlockHeaderStore.inMemory());
+        setStaticField("serverCapability", new ServerCapability(true, false, true));
+
+        ElectrumServer electrumServer = new ElectrumServer();
+        Map<WalletNode, Set<BlockTransactionHash>> nodeTransactionMap = new TreeMap<>();
+        electrumServer.getHistory(wallet, KeyPurpose.RECEIVE, nodeTransactionMap);
+
+        int gapLimitSize = lastUsed.getIndex() + gapLimit + 1;
+        assertEquals(gapLimitSize, receiveNode.getChildren().size());
+        assertTrue(rpc.unsubscribed.isEmpty());
+        for(int index = gapLimitSize; index < gapLimitSize + gapLimit; index++) {
+            assertFalse(rpc.subscribed.contains(ElectrumServer.getScriptHash(new WalletNode(wallet, KeyPurpose.RECEIVE, index))), "Address beyond the gap limit at index " + index + " was subscribed");
+        }
+    }
+
+    /**
+     * Fetched transactions are matched to their references by hash, so every reference to a transaction is given it, and transactions the server
+     * does not return or returns an error for are marked unfetchable.
+     */
+    @Test
+    public void matchesDuplicateAndMissingTransactions() throws Exception {
+        Transaction fetchedTx = new Transaction();
+        fetchedTx.addInput(Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000001"), 0, new Script(new byte[0]));
+        fetchedTx.addOutput(100000L, Address.fromString("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4"));
+        Sha256Hash missingHash = Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000002");
+        Sha256Hash errorHash = Sha256Hash.wrap("0000000000000000000000000000000000000000000000000000000000000003");
+
+        StubElectrumServerRpc rpc = new StubElectrumServerRpc();
+        rpc.transactions.put(fetchedTx.getTxId().toString(), Utils.bytesToHex(fetchedTx.bitcoinSerialize()));
+        rpc.transactions.put(errorHash.toString(), Sha256Hash.ZERO_HASH.toString());
+        setStaticField("transport", new StubTransport());
+        setStaticField("electrumServerRpc", rpc);
+
+        BlockTransactionHash mempoolReference = new BlockTransaction(fetchedTx.getTxId(), 0, null, null, null);
+        BlockTransactionHash confirmedReference = new BlockTransaction(fetchedTx.getTxId(), 1, null, null, null);
+        Map<BlockTransactionHash, Transaction> references = new TreeMap<>();
+        references.put(mempoolReference, null);
+        references.put(confirmedReference, null);
+        references.put(new BlockTransaction(missingHash, 0, null, null, null), null);
+        references.put(new BlockTransaction(errorHash, 0, null, null, null), null);
+        Map<Integer, BlockHeader> blockHeaderMap = Map.of(1, new BlockHeader(Utils.hexToBytes(BLOCK_1_HEADER_HEX)));
+
+        Map<Sha256Hash, BlockTransaction> transactionMap = new ElectrumServer().getTransactions(null, references, blockHeaderMap);
+
+        assertEquals(fetchedTx.getTxId(), references.get(mempoolReference).getTxId());
+        assertEquals(fetchedTx.getTxId(), references.get(confirmedReference).getTxId());
+        assertNotSame(ElectrumServer.UNFETCHABLE_BLOCK_TRANSACTION, transactionMap.get(fetchedTx.getTxId()));
+        assertEquals(fetchedTx.getTxId(), transactionMap.get(fetchedTx.getTxId()).getTransaction().getTxId());
+        assertSame(ElectrumServer.UNFETCHABLE_BLOCK_TRANSACTION, transactionMap.get(missingHash));
+        assertSame(ElectrumServer.UNFETCHABLE_BLOCK_TRANSACTION, transactionMap.get(errorHash));
+        assertEquals(3, transactionMap.size());
+    }
+
+    private static Set<Sha256Hash> hashes(Set<BlockTransactionHash> references) {
+        assertNotNull(references);
+        Set<Sha256Hash> hashes = new HashSet<>();
+        references.forEach(reference -> hashes.add(reference.getHash()));
+        return hashes;
+    }
+
+    private static Wallet createWallet() {
+        Wallet wallet = new Wallet("History Test");
+        wallet.setPolicyType(PolicyType.SINGLE_HD);
+        wallet.setScriptType(ScriptType.P2WPKH);
+
+        Keystore keystore = new Keystore("Keystore 1");
+        keystore.setSource(KeystoreSource.SW_WATCH);
+        keystore.setWalletModel(WalletModel.SPARROW);
+        keystore.setKeyDerivation(new KeyDerivation("60bcd3a7", "m/84'/0'/3'"));
+        keystore.setExtendedPublicKey(ExtendedKey.fromDescriptor(TEST_XPUB));
+        wallet.getKeystores().add(keystore);
+        wallet.setDefaultPolicy(Policy.getPolicy(PolicyType.SINGLE_HD, ScriptType.P2WPKH, wallet.getKeystores(), null));
+
+        return wallet;
+    }
+
+    private static Object getStaticField(String name) throws Exception {
+        Field field = ElectrumServer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static void setStaticField(String name, Object value) throws Exception {
+        Field field = ElectrumServer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    private static class StubTransport implements CloseableTransport, PipelinedTransport {
+        private final PageWindow pageWindow = new PageWindow("stub");
+
+        @NotNull
+        @Override
+        public String pass(@NotNull String request) throws IOException {
+            throw new IOException("Requests are answered by the stub server rpc");
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isPipelined() {
+            return true;
+        }
+
+        @Override
+        public PageWindow getPageWindow() {
+            return pageWindow;
+        }
+    }
+
+    private static class StubElectrumServerRpc implements ElectrumServerRpc {
+        private final Map<String, ScriptHashTx[]> history = new HashMap<>();
+        private final Map<String, String> transactions = new HashMap<>();
+        private final Set<Thread> subscribingThreads = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch chainsStarted = new CountDownLatch(2);
+        private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+        private boolean awaitChains;
+        private final Set<String> unsubscribed = ConcurrentHashMap.newKeySet();
+
+        private void addHistory(String scriptHash, ScriptHashTx... txes) {
+            history.put(scriptHash, txes);
+        }
+
+        @Override
+        public Map<String, String> subscribeScriptHashes(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes) {
+            //Hold the first subscription of each chain until both chains have started, which only happens if they run concurrently
+            if(subscribingThreads.add(Thread.currentThread()) && awaitChains) {
+                chainsStarted.countDown();
+                try {
+                    chainsStarted.await(5, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            Map<String, String> statuses = new LinkedHashMap<>();
+            subscribed.addAll(pathScriptHashes.values());
+            for(Map.Entry<String, String> entry : pathScriptHashes.entrySet()) {
+                statuses.put(entry.getKey(), history.containsKey(entry.getValue()) ? "status" + entry.getValue() : null);
+            }
+            return statuses;
+        }
+
+        @Override
+        public Map<String, ScriptHashTx[]> getScriptHashHistory(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
+            Map<String, ScriptHashTx[]> result = new LinkedHashMap<>();
+            for(Map.Entry<String, String> entry : pathScriptHashes.entrySet()) {
+                ScriptHashTx[] txes = history.getOrDefault(entry.getValue(), new ScriptHashTx[0]);
+                result.put(entry.getKey(), Arrays.stream(txes).map(tx -> new ScriptHashTx(tx.height, tx.tx_hash, tx.fee)).toArray(ScriptHashTx[]::new));
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Boolean> unsubscribeScriptHashes(Transport transport, Set<String> scriptHashes) {
+            Map<String, Boolean> result = new LinkedHashMap<>();
+            unsubscribed.addAll(scriptHashes);
+            scriptHashes.forEach(scriptHash -> result.put(scriptHash, true));
+            return result;
+        }
+
+        @Override
+        public Map<Integer, BlockHeaders> getBlockHeaderRanges(Transport transport, Wallet wallet, Map<Integer, Integer> startHeightCounts) {
+            Map<Integer, BlockHeaders> result = new HashMap<>();
+            for(Map.Entry<Integer, Integer> entry : startHeightCounts.entrySet()) {
+                StringBuilder hex = new StringBuilder();
+                for(int height = entry.getKey(); height < entry.getKey() + entry.getValue(); height++) {
+                    hex.append(getHeader(height));
+                }
+                result.put(entry.getKey(), new BlockHeaders(entry.getValue(), hex.toString(), 2016));
+            }
+            return result;
+        }
+
+        @Override
+        public Map<Integer, String> getBlockHeaders(Transport transport, Wallet wallet, Set<Integer> blockHeights) {
+            Map<Integer, String> result = new HashMap<>();
+            blockHeights.forEach(height -> result.put(height, getHeader(height)));
+            return result;
+        }
+
+        private static String getHeader(int height) {
+            return switch(height) {
+                case 1 -> BLOCK_1_HEADER_HEX;
+                case 2 -> BLOCK_2_HEADER_HEX;
+                default -> throw new IllegalArgumentException("No header at height " + height);
+            };
+        }
+
+        @Override
+        public Map<String, String> getTransactions(Transport transport, Wallet wallet, Set<String> txids) {
+            Map<String, String> result = new LinkedHashMap<>();
+            txids.stream().filter(transactions::containsKey).forEach(txid -> result.put(txid, transactions.get(txid)));
+            return result;
+        }
+
+        @Override
+        public void ping(Transport transport) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> getServerVersion(Transport transport, String clientName, String[] supportedVersions) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ServerFeatures getServerFeatures(Transport transport) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getServerBanner(Transport transport) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BlockHeaderTip subscribeBlockHeaders(Transport transport) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, ScriptHashTx[]> getScriptHashMempool(Transport transport, Wallet wallet, Map<String, String> pathScriptHashes, boolean failOnError) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SilentPaymentsSubscription subscribeSilentPayments(Transport transport, Wallet wallet, String scanPrivKeyHex, String spendPubKeyHex, Object start, int[] labels) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String unsubscribeSilentPayments(Transport transport, String scanPrivKeyHex, String spendPubKeyHex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<Integer, BlockStats> getBlockStats(Transport transport, Set<Integer> blockHeights) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, VerboseTransaction> getVerboseTransactions(Transport transport, Set<String> txids, String scriptHash) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<Integer, Double> getFeeEstimates(Transport transport, List<Integer> targetBlocks) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<Double, Long> getFeeRateHistogram(Transport transport) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Double getMinimumRelayFee(Transport transport) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String broadcastTransaction(Transport transport, String txHex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getIdCounterValue() {
+            return 0;
+        }
+    }
+}
@@ -2,12 +2,22 @@ package com.sparrowwallet.sparrow.net;
 
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHash;
+import com.sparrowwallet.drongo.wallet.BlockTransactionHashIndex;
+import com.sparrowwallet.drongo.wallet.WalletNode;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertNull;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class ElectrumServerTest {
     private static final String GENESIS_HEADER_HEX = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c";
@@ -56,6 +66,101 @@ public class ElectrumServerTest {
         assertNotNull(ElectrumServer.getTipValidationError(tip(800000, "cafebabe"), now));
     }
 
+    @Test
+    public void mergeKeepsHighestHeightReference() {
+        Set<BlockTransactionHash> references = ElectrumServer.mergeReferences(new TreeSet<>(), new ScriptHashTx[] {
+                new ScriptHashTx(0, txHash(1), 0), new ScriptHashTx(100, txHash(1), 0), new ScriptHashTx(90, txHash(2), 0), new ScriptHashTx(-1, txHash(2), 0)
+        });
+        assertEquals(2, references.size());
+
+        ElectrumServer.mergeReferences(references, new ScriptHashTx[] { new ScriptHashTx(101, txHash(1), 0), new ScriptHashTx(50, txHash(2), 0) });
+        Map<String, Integer> heights = references.stream().collect(Collectors.toMap(BlockTransactionHash::getHashAsString, BlockTransactionHash::getHeight));
+        assertEquals(Map.of(txHash(1), 101, txHash(2), 90), heights);
+    }
+
+    /**
+     * Deposit addresses can have very long histories, which must be merged in linear rather than quadratic time.
+     */
+    @Test
+    public void mergesLongHistory() {
+        int historySize = 20000;
+        ScriptHashTx[] txes = new ScriptHashTx[historySize * 2];
+        for(int i = 0; i < historySize; i++) {
+            txes[i] = new ScriptHashTx(0, txHash(i), 0);
+            txes[historySize + i] = new ScriptHashTx(800000 + i, txHash(i), 0);
+        }
+
+        Set<BlockTransactionHash> references = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            Set<BlockTransactionHash> merged = ElectrumServer.mergeReferences(new TreeSet<>(), txes);
+            return ElectrumServer.mergeReferences(merged, txes);
+        });
+
+        assertEquals(historySize, references.size());
+        assertTrue(references.stream().allMatch(reference -> reference.getHeight() >= 800000));
+    }
+
+    @Test
+    public void cachedStatusIsReusedUntilOutputsChange() {
+        String scriptHash = txHash(1000);
+        WalletNode node = new WalletNode("m/0/0");
+        node.getTransactionOutputs().add(txo(1, 800000, 0));
+
+        String status = ElectrumServer.getScriptHashStatus(scriptHash, node);
+        assertNotNull(status);
+        assertSame(status, ElectrumServer.getScriptHashStatus(scriptHash, node));
+
+        BlockTransactionHashIndex unconfirmed = txo(2, 0, 0);
+        node.getTransactionOutputs().add(unconfirmed);
+        String updatedStatus = ElectrumServer.getScriptHashStatus(scriptHash, node);
+        assertNotEquals(status, updatedStatus);
+
+        //A change to the fee of an unconfirmed transaction alone must also recalculate the status
+        node.getTransactionOutputs().remove(unconfirmed);
+        node.getTransactionOutputs().add(txo(2, 0, 0, 500L));
+        assertNotSame(updatedStatus, ElectrumServer.getScriptHashStatus(scriptHash, node));
+
+        node.getTransactionOutputs().clear();
+        assertNull(ElectrumServer.getScriptHashStatus(scriptHash, node));
+    }
+
+    @Test
+    public void cachedStatusRecordsItsOwnSameHeightTxios() {
+        String scriptHash = txHash(1001);
+        WalletNode node = new WalletNode("m/0/1");
+        node.getTransactionOutputs().add(txo(3, 800000, 0));
+        node.getTransactionOutputs().add(txo(4, 800000, 1));
+
+        ElectrumServer.getScriptHashStatus(scriptHash, node);
+        assertTrue(ElectrumServer.isSameHeightTxioScriptHash(scriptHash));
+
+        //A cache hit records the ambiguous ordering again after the script hash has been cleared
+        ElectrumServer.clearRetrievedScriptHash(scriptHash);
+        ElectrumServer.getScriptHashStatus(scriptHash, node);
+        assertTrue(ElectrumServer.isSameHeightTxioScriptHash(scriptHash));
+
+        //Once the outputs are at different heights, neither a recalculation nor a later cache hit records it
+        ElectrumServer.clearRetrievedScriptHash(scriptHash);
+        node.getTransactionOutputs().removeIf(txo -> txo.getIndex() == 1);
+        node.getTransactionOutputs().add(txo(4, 800001, 1));
+        ElectrumServer.getScriptHashStatus(scriptHash, node);
+        assertFalse(ElectrumServer.isSameHeightTxioScriptHash(scriptHash));
+        ElectrumServer.getScriptHashStatus(scriptHash, node);
+        assertFalse(ElectrumServer.isSameHeightTxioScriptHash(scriptHash));
+        ElectrumServer.clearRetrievedScriptHash(scriptHash);
+    }
+
+    private static BlockTransactionHashIndex txo(int tx, int height, long index) {
+        return txo(tx, height, index, null);
+    }
+
+    private static BlockTransactionHashIndex txo(int tx, int height, long index, Long fee) {
+        return new BlockTransactionHashIndex(Sha256Hash.wrap(txHash(tx)), height, new Date(0), fee, index, 1000L);
+    }
+
+    private static String txHash(int i) {
+        return String.format("%064x", i);
+    }
+
     private BlockHeaderTip tip(int height, String hex) {
         BlockHeaderTip tip = new BlockHeaderTip();
         tip.height = height;
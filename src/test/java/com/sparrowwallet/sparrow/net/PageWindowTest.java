@@ -0,0 +1,84 @@
+package com.sparrowwallet.sparrow.net;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PageWindowTest {
+    private static final long PAGE_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void windowGrowsToMaximum() {
+        PageWindow pageWindow = new PageWindow("test");
+        Assertions.assertEquals(PageWindow.INITIAL_WINDOW, pageWindow.getWindow());
+
+        int previous = pageWindow.getWindow();
+        for(int i = 0; i < 500; i++) {
+            pageWindow.pageCompleted(100, PAGE_LATENCY_NANOS);
+            Assertions.assertTrue(pageWindow.getWindow() >= previous, "Window should not shrink at a steady latency");
+            previous = pageWindow.getWindow();
+        }
+
+        Assertions.assertEquals(PageWindow.MAX_WINDOW, pageWindow.getWindow());
+    }
+
+    @Test
+    public void windowHalvesOnFailure() {
+        PageWindow pageWindow = grownWindow();
+
+        pageWindow.pageFailed();
+        Assertions.assertEquals(PageWindow.MAX_WINDOW / 2, pageWindow.getWindow());
+
+        for(int i = 0; i < 10; i++) {
+            pageWindow.pageFailed();
+        }
+        Assertions.assertEquals(1, pageWindow.getWindow());
+    }
+
+    @Test
+    public void windowDecreasesWhenLatencyRises() {
+        PageWindow pageWindow = grownWindow();
+
+        for(int i = 0; i < 100; i++) {
+            pageWindow.pageCompleted(100, PAGE_LATENCY_NANOS * 10);
+        }
+
+        Assertions.assertTrue(pageWindow.getWindow() < PageWindow.MAX_WINDOW / 2, "Window should decrease while requests are queueing, was " + pageWindow.getWindow());
+    }
+
+    @Test
+    public void acquireWaitsForWindow() throws Exception {
+        PageWindow pageWindow = new PageWindow("test");
+        for(int i = 0; i < PageWindow.INITIAL_WINDOW; i++) {
+            pageWindow.acquire();
+        }
+        Assertions.assertEquals(PageWindow.INITIAL_WINDOW, pageWindow.getInFlight());
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = Thread.ofVirtual().start(() -> {
+            try {
+                pageWindow.acquire();
+                acquired.countDown();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Assertions.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS), "Acquire should wait while the window is full");
+        pageWindow.release();
+        Assertions.assertTrue(acquired.await(5, TimeUnit.SECONDS), "Acquire should proceed once a page is released");
+        thread.join();
+        Assertions.assertEquals(PageWindow.INITIAL_WINDOW, pageWindow.getInFlight());
+    }
+
+    private static PageWindow grownWindow() {
+        PageWindow pageWindow = new PageWindow("test");
+        for(int i = 0; i < 500; i++) {
+            pageWindow.pageCompleted(100, PAGE_LATENCY_NANOS);
+        }
+        Assertions.assertEquals(PageWindow.MAX_WINDOW, pageWindow.getWindow());
+        return pageWindow;
+    }
+}
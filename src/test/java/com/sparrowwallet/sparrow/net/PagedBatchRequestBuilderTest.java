@@ -0,0 +1,114 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.github.arteam.simplejsonrpc.client.Transport;
+import com.sparrowwallet.sparrow.SparrowWallet;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that concurrently dispatched pages are bounded by the window of the connection, and not by the window of each batch.
+ */
+public class PagedBatchRequestBuilderTest {
+    @TempDir
+    private static Path tempHome;
+
+    private static final int REQUESTS = 2000;
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, tempHome.toString());
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
+    }
+
+    @Test
+    public void concurrentBatchesShareWindow() throws Exception {
+        StubTransport transport = new StubTransport();
+
+        CompletableFuture<Map<String, String>> first = CompletableFuture.supplyAsync(() -> execute(transport, "a"));
+        CompletableFuture<Map<String, String>> second = CompletableFuture.supplyAsync(() -> execute(transport, "b"));
+
+        Map<String, String> firstResults = first.get();
+        Map<String, String> secondResults = second.get();
+        Assertions.assertEquals(REQUESTS, firstResults.size());
+        Assertions.assertEquals(REQUESTS, secondResults.size());
+        Assertions.assertEquals("a0", firstResults.get("a0"));
+        Assertions.assertEquals("b" + (REQUESTS - 1), secondResults.get("b" + (REQUESTS - 1)));
+
+        Assertions.assertTrue(transport.maxInFlight.get() > 1, "Pages should be sent concurrently");
+        Assertions.assertTrue(transport.maxInFlight.get() <= PageWindow.MAX_WINDOW, "In flight pages " + transport.maxInFlight.get() + " exceeded the window");
+        Assertions.assertFalse(transport.windowExceeded, "In flight pages exceeded the current window");
+        Assertions.assertEquals(0, transport.pageWindow.getInFlight());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> execute(StubTransport transport, String prefix) {
+        PagedBatchRequestBuilder<String, String> batchRequest = (PagedBatchRequestBuilder<String, String>)PagedBatchRequestBuilder.create(transport).keysType(String.class).returnType(String.class);
+        for(int i = 0; i < REQUESTS; i++) {
+            batchRequest.add(prefix + i, "echo", prefix + i);
+        }
+
+        try {
+            return batchRequest.execute(1);
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class StubTransport implements Transport, PipelinedTransport {
+        private final ObjectMapper mapper = new ObjectMapper();
+        private final PageWindow pageWindow = new PageWindow("stub");
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile boolean windowExceeded;
+
+        @NotNull
+        @Override
+        public String pass(@NotNull String request) throws IOException {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            if(current > pageWindow.getInFlight()) {
+                windowExceeded = true;
+            }
+
+            try {
+                Thread.sleep(5);
+                ArrayNode responses = mapper.createArrayNode();
+                for(JsonNode requestNode : mapper.readTree(request)) {
+                    responses.addObject().put("jsonrpc", "2.0").put("id", requestNode.get("id").asText()).set("result", requestNode.get("params").get(0));
+                }
+                return mapper.writeValueAsString(responses);
+            } catch(InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean isPipelined() {
+            return true;
+        }
+
+        @Override
+        public PageWindow getPageWindow() {
+            return pageWindow;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.sparrowwallet.drongo.ExtendedKey;
+import com.sparrowwallet.drongo.KeyDerivation;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.Network;
+import com.sparrowwallet.drongo.policy.Policy;
+import com.sparrowwallet.drongo.policy.PolicyType;
+import com.sparrowwallet.drongo.protocol.ScriptType;
+import com.sparrowwallet.drongo.wallet.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScriptHashIndexTest {
+    private static final String TEST_XPUB = "xpub6BrhGFTWPd3DXo8s2BPxHHzCmBCyj8QvamcEUaq8EDwnwXpvvcU9LzpJqENHcqHkqwTn2vPhynGVoEqj3PAB3NxnYZrvCsSfoCniJKaggdy";
+
+    @BeforeEach
+    public void setUp() {
+        Network.set(Network.MAINNET);
+    }
+
+    @Test
+    public void resolvesReceiveAndChangeNodes() {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        WalletNode changeNode = wallet.getNode(KeyPurpose.CHANGE);
+        receiveNode.fillToIndex(19);
+        changeNode.fillToIndex(9);
+
+        ScriptHashIndex index = ScriptHashIndex.get(wallet);
+        assertSame(index, ScriptHashIndex.get(wallet));
+        for(WalletNode node : receiveNode.getChildren()) {
+            assertSame(node, index.getNode(ElectrumServer.getScriptHash(node)));
+        }
+        for(WalletNode node : changeNode.getChildren()) {
+            assertSame(node, index.getNode(ElectrumServer.getScriptHash(node)));
+        }
+        assertNull(index.getNode(ElectrumServer.getScriptHash(new WalletNode(wallet, KeyPurpose.RECEIVE, 100))));
+    }
+
+    @Test
+    public void indexesAppendedNodes() {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(4);
+
+        ScriptHashIndex index = ScriptHashIndex.get(wallet);
+        WalletNode first = receiveNode.getChildren().iterator().next();
+        assertSame(first, index.getNode(ElectrumServer.getScriptHash(first)));
+
+        receiveNode.fillToIndex(49);
+        for(WalletNode node : receiveNode.getChildren()) {
+            assertSame(node, index.getNode(ElectrumServer.getScriptHash(node)));
+        }
+    }
+
+    /**
+     * Filling to an index can add nodes before existing ones, which must be indexed as well as those added after the highest indexed node.
+     */
+    @Test
+    public void indexesFilledGaps() {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(9);
+        receiveNode.getChildren().add(new WalletNode(wallet, KeyPurpose.RECEIVE, 30));
+
+        ScriptHashIndex index = ScriptHashIndex.get(wallet);
+        assertNotNull(index.getNode(ElectrumServer.getScriptHash(new WalletNode(wallet, KeyPurpose.RECEIVE, 30))));
+
+        receiveNode.fillToIndex(29);
+        assertEquals(31, receiveNode.getChildren().size());
+        for(WalletNode node : receiveNode.getChildren()) {
+            assertSame(node, index.getNode(ElectrumServer.getScriptHash(node)), "Node " + node + " was not indexed");
+        }
+    }
+
+    @Test
+    public void rebuildsWhenNodesRemoved() {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(9);
+
+        ScriptHashIndex index = ScriptHashIndex.get(wallet);
+        WalletNode last = receiveNode.getChildren().stream().reduce((a, b) -> b).orElseThrow();
+        String lastScriptHash = ElectrumServer.getScriptHash(last);
+        assertSame(last, index.getNode(lastScriptHash));
+
+        receiveNode.getChildren().remove(last);
+        assertNull(index.getNode(lastScriptHash));
+    }
+
+    @Test
+    public void removedIndexIsReplaced() {
+        Wallet wallet = createWallet();
+        ScriptHashIndex index = ScriptHashIndex.get(wallet);
+        ScriptHashIndex.remove(wallet);
+        assertNotSame(index, ScriptHashIndex.get(wallet));
+    }
+
+    @Test
+    public void clearingRetrievedScriptHashesInvalidatesMemo() {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        WalletNode changeNode = wallet.getNode(KeyPurpose.CHANGE);
+        receiveNode.fillToIndex(4);
+        changeNode.fillToIndex(4);
+
+        WalletNode receive = receiveNode.getChildren().iterator().next();
+        WalletNode change = changeNode.getChildren().iterator().next();
+        String scriptHash = ElectrumServer.getScriptHash(receive);
+        ElectrumServer.getScriptHash(change);
+        assertTrue(ElectrumServer.isScriptHashMemoized(receive));
+        assertTrue(ElectrumServer.isScriptHashMemoized(change));
+
+        ElectrumServer.clearRetrievedScriptHashes(wallet);
+        assertFalse(ElectrumServer.isScriptHashMemoized(receive));
+        assertFalse(ElectrumServer.isScriptHashMemoized(change));
+        assertEquals(scriptHash, ElectrumServer.getScriptHash(receive));
+    }
+
+    /**
+     * A descriptor change clears the history cache and replaces the node tree, so the replacement nodes must not be given the script hashes of the old ones.
+     */
+    @Test
+    public void replacedNodeTreeIsNotGivenStaleScriptHashes() {
+        Wallet wallet = createWallet();
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(9);
+        List<String> scriptHashes = receiveNode.getChildren().stream().map(ElectrumServer::getScriptHash).toList();
+
+        Wallet walletCopy = wallet.copy();
+        walletCopy.setScriptType(ScriptType.P2SH_P2WPKH);
+        walletCopy.setDefaultPolicy(Policy.getPolicy(PolicyType.SINGLE_HD, ScriptType.P2SH_P2WPKH, walletCopy.getKeystores(), null));
+        ElectrumServer.clearRetrievedScriptHashes(wallet);
+        walletCopy.clearNodes(wallet);
+
+        WalletNode copyReceiveNode = walletCopy.getNode(KeyPurpose.RECEIVE);
+        copyReceiveNode.fillToIndex(9);
+        ScriptHashIndex index = ScriptHashIndex.get(walletCopy);
+        for(WalletNode node : copyReceiveNode.getChildren()) {
+            String scriptHash = ElectrumServer.getScriptHash(node);
+            assertEquals(ElectrumServer.getScriptHash(node.getAddress()), scriptHash);
+            assertFalse(scriptHashes.contains(scriptHash), "Node " + node + " was given the script hash of a replaced node");
+            assertSame(node, index.getNode(scriptHash));
+        }
+    }
+
+    private static Wallet createWallet() {
+        Wallet wallet = new Wallet("Test");
+        wallet.setPolicyType(PolicyType.SINGLE_HD);
+        wallet.setScriptType(ScriptType.P2WPKH);
+
+        Keystore keystore = new Keystore("Keystore 1");
+        keystore.setSource(KeystoreSource.SW_WATCH);
+        keystore.setWalletModel(WalletModel.SPARROW);
+        keystore.setKeyDerivation(new KeyDerivation("60bcd3a7", "m/84'/0'/3'"));
+        keystore.setExtendedPublicKey(ExtendedKey.fromDescriptor(TEST_XPUB));
+        wallet.getKeystores().add(keystore);
+        wallet.setDefaultPolicy(Policy.getPolicy(PolicyType.SINGLE_HD, ScriptType.P2WPKH, wallet.getKeystores(), null));
+
+        return wallet;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Network.set(null);
+    }
+}
@@ -0,0 +1,175 @@
+package com.sparrowwallet.sparrow.net;
+
+import com.google.common.net.HostAndPort;
+import com.sparrowwallet.sparrow.SparrowWallet;
+import com.sparrowwallet.sparrow.io.Config;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the pipelined mode of TcpTransport, where requests are written without waiting for earlier responses
+ * and each response is routed back to the caller that sent the matching ids.
+ */
+public class TcpTransportPipeliningTest {
+    @TempDir
+    private static Path tempHome;
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, tempHome.toString());
+        Config.get().setPipelineServerRequests(true);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        Config.get().setPipelineServerRequests(false);
+        System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
+    }
+
+    @Test
+    public void outOfOrderResponsesAreRoutedById() throws Exception {
+        try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            TcpTransport transport = connectTransport(serverSocket);
+            assertTrue(transport.pipelined, "Pipelining should be enabled by the pipelineServerRequests setting");
+
+            //The server only replies once it has read both requests, so this test hangs unless both are in flight at once
+            startReversingServer(serverSocket, 2);
+
+            try {
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                    CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> pass(transport, batchRequest(1, 2)));
+                    CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> pass(transport, batchRequest(3, 4)));
+                    assertEquals(batchResponse(1, 2), first.get());
+                    assertEquals(batchResponse(3, 4), second.get());
+                });
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    @Test
+    public void requestsFailOnceConnectionDrops() throws Exception {
+        try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            TcpTransport transport = connectTransport(serverSocket);
+
+            //The server drops the connection after reading the first request, which must fail rather than wait for the read timeout
+            Thread serverThread = new Thread(() -> {
+                try(Socket accepted = serverSocket.accept()) {
+                    new BufferedReader(new InputStreamReader(accepted.getInputStream(), StandardCharsets.UTF_8)).readLine();
+                } catch(Exception e) {
+                    //Expected once the test tears down the server
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            try {
+                assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                    assertThrows(IllegalStateException.class, () -> pass(transport, batchRequest(1, 2)));
+                    //Requests made after the read thread has seen the connection drop fail immediately
+                    assertThrows(IllegalStateException.class, () -> pass(transport, batchRequest(3, 4)));
+                    assertFalse(transport.isConnected());
+                });
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    private TcpTransport connectTransport(ServerSocket serverSocket) throws ServerException {
+        TcpTransport transport = new TcpTransport(HostAndPort.fromParts("127.0.0.1", serverSocket.getLocalPort()));
+        transport.connect();
+
+        Thread readerThread = new Thread(() -> {
+            try {
+                transport.readInputLoop();
+            } catch(ServerException e) {
+                //Expected once the transport is closed
+            }
+        });
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        return transport;
+    }
+
+    /**
+     * Collects the given number of requests before replying to them in reverse order of receipt.
+     */
+    private void startReversingServer(ServerSocket serverSocket, int requestCount) {
+        Thread serverThread = new Thread(() -> {
+            try(Socket accepted = serverSocket.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(accepted.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(accepted.getOutputStream(), StandardCharsets.UTF_8));
+
+                List<String> requests = new ArrayList<>();
+                String line;
+                while(requests.size() < requestCount && (line = in.readLine()) != null) {
+                    requests.add(line);
+                }
+
+                for(int i = requests.size() - 1; i >= 0; i--) {
+                    Matcher matcher = ID_PATTERN.matcher(requests.get(i));
+                    List<Integer> ids = new ArrayList<>();
+                    while(matcher.find()) {
+                        ids.add(Integer.parseInt(matcher.group(1)));
+                    }
+                    out.println(batchResponse(ids.get(0), ids.get(1)));
+                    out.flush();
+                }
+
+                while(in.readLine() != null) {
+                    //Hold the connection open until the transport closes
+                }
+            } catch(Exception e) {
+                //Expected once the test tears down the server and transport
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    private static String pass(TcpTransport transport, String request) {
+        try {
+            return transport.pass(request);
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String batchRequest(int firstId, int secondId) {
+        return "[{\"id\":" + firstId + ",\"method\":\"server.ping\",\"params\":[]},{\"id\":" + secondId + ",\"method\":\"server.ping\",\"params\":[]}]";
+    }
+
+    private static String batchResponse(int firstId, int secondId) {
+        return "[{\"id\":" + firstId + ",\"result\":null},{\"id\":" + secondId + ",\"result\":null}]";
+    }
+}
@@ -0,0 +1,119 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockWatcherTest {
+    @Test
+    public void retriesAfterErrors() throws Exception {
+        StubBlockSource blockSource = new StubBlockSource();
+        blockSource.bestBlock = block(1);
+        blockSource.results.addAll(List.of(new RuntimeException("Connection refused"), new RuntimeException("Connection refused"), block(1), new RuntimeException("Read timed out"), block(2)));
+
+        CountDownLatch newBlock = new CountDownLatch(1);
+        BlockWatcher blockWatcher = new BlockWatcher(blockSource, () -> false, newBlock::countDown);
+        blockWatcher.minRetryMillis = 10;
+        blockWatcher.maxRetryMillis = 20;
+        blockWatcher.start();
+
+        try {
+            assertTrue(newBlock.await(5, TimeUnit.SECONDS), "New block was not seen after retrying");
+            assertTrue(blockSource.calls.get() >= 5);
+        } finally {
+            blockWatcher.stop();
+            blockSource.results.add(block(2));
+        }
+    }
+
+    @Test
+    public void holdsNewBlockSeenWhileSyncing() throws Exception {
+        StubBlockSource blockSource = new StubBlockSource();
+        AtomicBoolean syncing = new AtomicBoolean(true);
+        AtomicInteger newBlocks = new AtomicInteger();
+        BlockWatcher blockWatcher = new BlockWatcher(blockSource, syncing::get, newBlocks::incrementAndGet);
+        blockWatcher.start();
+
+        try {
+            blockSource.results.add(block(1));
+            blockSource.results.add(block(2));
+            blockSource.awaitCalls(3);
+
+            assertEquals(0, newBlocks.get());
+            assertTrue(blockWatcher.isWatching());
+            assertTrue(blockWatcher.takePendingNewBlock());
+            assertFalse(blockWatcher.takePendingNewBlock());
+
+            syncing.set(false);
+            blockSource.results.add(block(3));
+            blockSource.awaitCalls(4);
+            assertEquals(1, newBlocks.get());
+            assertFalse(blockWatcher.takePendingNewBlock());
+        } finally {
+            blockWatcher.stop();
+            blockSource.results.add(block(3));
+        }
+    }
+
+    @Test
+    public void signalsBlockConnectedDuringFirstWait() throws Exception {
+        StubBlockSource blockSource = new StubBlockSource();
+        blockSource.bestBlock = block(1);
+        blockSource.results.add(block(2));
+
+        CountDownLatch newBlock = new CountDownLatch(1);
+        BlockWatcher blockWatcher = new BlockWatcher(blockSource, () -> false, newBlock::countDown);
+        blockWatcher.start();
+
+        try {
+            assertTrue(newBlock.await(5, TimeUnit.SECONDS), "Block connected during the first wait was not signalled");
+        } finally {
+            blockWatcher.stop();
+            blockSource.results.add(block(2));
+        }
+    }
+
+    private static BlockRef block(int height) {
+        return new BlockRef(String.format("%064x", height), height);
+    }
+
+    private static class StubBlockSource implements BlockWatcher.BlockSource {
+        private final LinkedBlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile BlockRef bestBlock = block(0);
+
+        @Override
+        public BlockRef getBestBlock() {
+            return bestBlock;
+        }
+
+        @Override
+        public BlockRef waitForNewBlock(int timeoutMillis) {
+            calls.incrementAndGet();
+            try {
+                Object result = results.take();
+                if(result instanceof RuntimeException e) {
+                    throw e;
+                }
+                return (BlockRef)result;
+            } catch(InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void awaitCalls(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while(calls.get() < count) {
+                assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the block watcher");
+                Thread.sleep(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MempoolFeeratesTest {
+    private static final long VSIZE_BIN_WIDTH = 50000;
+
+    @Test
+    public void histogramMatchesSortedMempool() {
+        Random random = new Random(1);
+        MempoolFeerates mempoolFeerates = new MempoolFeerates();
+        Map<Sha256Hash, VsizeFeerate> mempool = new HashMap<>();
+
+        for(int i = 0; i < 5000; i++) {
+            Sha256Hash txid = txid(i);
+            VsizeFeerate vsizeFeerate = vsizeFeerate(random);
+            mempool.put(txid, vsizeFeerate);
+            mempoolFeerates.put(txid, vsizeFeerate);
+        }
+        assertHistogramsEqual(mempool, mempoolFeerates);
+
+        //Replacing a transaction moves its vsize to the new feerate
+        for(int i = 0; i < 500; i++) {
+            Sha256Hash txid = txid(random.nextInt(5000));
+            VsizeFeerate vsizeFeerate = vsizeFeerate(random);
+            mempool.put(txid, vsizeFeerate);
+            mempoolFeerates.putAll(Map.of(txid, vsizeFeerate));
+        }
+        assertHistogramsEqual(mempool, mempoolFeerates);
+
+        List<Sha256Hash> removed = new ArrayList<>();
+        for(int i = 0; i < 5000; i += 3) {
+            removed.add(txid(i));
+            mempool.remove(txid(i));
+        }
+        mempoolFeerates.removeAll(removed);
+        assertHistogramsEqual(mempool, mempoolFeerates);
+        assertEquals(mempool.keySet(), mempoolFeerates.getTxids());
+    }
+
+    @Test
+    public void removingLastTransactionAtFeerateRemovesItsTotal() {
+        MempoolFeerates mempoolFeerates = new MempoolFeerates();
+        mempoolFeerates.put(txid(1), vsizeFeerate(200, 5.0));
+        mempoolFeerates.put(txid(2), vsizeFeerate(300, 5.0));
+        mempoolFeerates.put(txid(3), vsizeFeerate(100, 2.0));
+        assertEquals(List.of(List.of(2.0, 600L)), mempoolFeerates.getHistogram(VSIZE_BIN_WIDTH));
+        assertEquals(List.of(List.of(5.0, 500L), List.of(2.0, 100L)), mempoolFeerates.getHistogram(400));
+
+        mempoolFeerates.removeAll(List.of(txid(1)));
+        assertEquals(List.of(List.of(2.0, 400L)), mempoolFeerates.getHistogram(VSIZE_BIN_WIDTH));
+
+        //A feerate whose transactions have all been removed must leave no empty total, which would otherwise end the last bin at its feerate
+        mempoolFeerates.removeAll(List.of(txid(3)));
+        assertEquals(List.of(List.of(5.0, 300L)), mempoolFeerates.getHistogram(VSIZE_BIN_WIDTH));
+
+        mempoolFeerates.put(txid(2), vsizeFeerate(300, 7.0));
+        assertEquals(List.of(List.of(7.0, 300L)), mempoolFeerates.getHistogram(VSIZE_BIN_WIDTH));
+
+        mempoolFeerates.removeAll(List.of(txid(2), txid(4)));
+        assertTrue(mempoolFeerates.getHistogram(VSIZE_BIN_WIDTH).isEmpty());
+        assertTrue(mempoolFeerates.getTxids().isEmpty());
+    }
+
+    private static void assertHistogramsEqual(Map<Sha256Hash, VsizeFeerate> mempool, MempoolFeerates mempoolFeerates) {
+        for(long binWidth : new long[] {0, 1000, VSIZE_BIN_WIDTH, 1000000}) {
+            assertEquals(getSortedHistogram(mempool.values(), binWidth), mempoolFeerates.getHistogram(binWidth), "Histograms differ for bin width " + binWidth);
+        }
+    }
+
+    /**
+     * Builds the histogram by sorting every transaction, as mempool.get_fee_histogram did before the totals were maintained
+     */
+    private static List<List<Number>> getSortedHistogram(Collection<VsizeFeerate> mempool, long binWidth) {
+        List<VsizeFeerate> vsizeFeerates = new ArrayList<>(mempool);
+        Collections.sort(vsizeFeerates);
+
+        List<List<Number>> histogram = new ArrayList<>();
+        long binSize = 0;
+        double lastFeerate = 0.0;
+
+        for(VsizeFeerate vsizeFeerate : vsizeFeerates) {
+            if(binSize > binWidth && Math.abs(lastFeerate - vsizeFeerate.getFeerate()) > 0.0d) {
+                histogram.add(List.of(lastFeerate, binSize));
+                binSize = 0;
+            }
+            binSize += vsizeFeerate.getVsize();
+            lastFeerate = vsizeFeerate.getFeerate();
+        }
+
+        if(binSize > 0) {
+            histogram.add(List.of(lastFeerate, binSize));
+        }
+
+        return histogram;
+    }
+
+    private static VsizeFeerate vsizeFeerate(Random random) {
+        return vsizeFeerate(100 + random.nextInt(900), 1.0 + random.nextInt(500) / 10.0);
+    }
+
+    private static VsizeFeerate vsizeFeerate(int vsize, double feerate) {
+        //Pay slightly over the feerate, so that rounding down to tenths of a sat/vB is not affected by floating point error
+        return new VsizeFeerate(vsize, (feerate + 0.05) * vsize / Transaction.SATOSHIS_PER_BITCOIN);
+    }
+
+    private static Sha256Hash txid(int i) {
+        return Sha256Hash.wrap(String.format("%064x", i));
+    }
+}
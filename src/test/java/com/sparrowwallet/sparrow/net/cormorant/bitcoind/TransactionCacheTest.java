@@ -0,0 +1,93 @@
+package com.sparrowwallet.sparrow.net.cormorant.bitcoind;
+
+import com.sparrowwallet.sparrow.SparrowWallet;
+import com.sparrowwallet.sparrow.io.Config;
+import com.sparrowwallet.sparrow.io.Server;
+import com.sparrowwallet.sparrow.net.CoreAuthType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionCacheTest {
+    @TempDir
+    private Path tempHome;
+
+    @Test
+    public void repeatedLookupsAreHits() {
+        TransactionCache transactionCache = new TransactionCache(1000);
+        transactionCache.put(txid(1), transaction(100));
+
+        assertEquals(transaction(100), transactionCache.get(txid(1)));
+        assertEquals(transaction(100), transactionCache.get(txid(1)));
+        assertNull(transactionCache.get(txid(2)));
+
+        assertEquals(2, transactionCache.stats().hitCount());
+        assertEquals(1, transactionCache.stats().missCount());
+    }
+
+    @Test
+    public void evictionIsWeightedBySize() {
+        TransactionCache transactionCache = new TransactionCache(1000);
+        transactionCache.put(txid(1), transaction(400));
+        transactionCache.put(txid(2), transaction(400));
+        assertNotNull(transactionCache.get(txid(1)));
+
+        //The total is now over the bound, so the least recently used transaction is evicted
+        transactionCache.put(txid(3), transaction(400));
+        assertNull(transactionCache.get(txid(2)));
+        assertNotNull(transactionCache.get(txid(1)));
+        assertNotNull(transactionCache.get(txid(3)));
+
+        //A small transaction fits alongside the remaining two, as the bound is on their total size rather than their number
+        transactionCache.put(txid(4), transaction(100));
+        assertNotNull(transactionCache.get(txid(1)));
+        assertNotNull(transactionCache.get(txid(3)));
+        assertNotNull(transactionCache.get(txid(4)));
+        assertEquals(1, transactionCache.stats().evictionCount());
+
+        //A transaction larger than the bound is not kept, and does not evict the others
+        transactionCache.put(txid(5), transaction(1001));
+        assertNull(transactionCache.get(txid(5)));
+        assertNotNull(transactionCache.get(txid(1)));
+        assertNotNull(transactionCache.get(txid(3)));
+        assertNotNull(transactionCache.get(txid(4)));
+    }
+
+    @Test
+    public void purgedTransactionIsInvalidated() {
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, tempHome.toString());
+        Server coreServer = Config.get().getCoreServer();
+        CoreAuthType coreAuthType = Config.get().getCoreAuthType();
+        String coreAuth = Config.get().getCoreAuth();
+        Config.get().setCoreServer(new Server("http://127.0.0.1:1"));
+        Config.get().setCoreAuthType(CoreAuthType.USERPASS);
+        Config.get().setCoreAuth("user:pass");
+
+        try {
+            BitcoindClient bitcoindClient = new BitcoindClient(true);
+            bitcoindClient.cacheTransaction(txid(1), transaction(100));
+            bitcoindClient.cacheTransaction(txid(2), transaction(100));
+
+            //A conflicted or replaced transaction is purged from the index, and must not then be served from the cache
+            bitcoindClient.purgeTransaction(txid(1));
+            assertNull(bitcoindClient.getCachedTransaction(txid(1)));
+            assertEquals(transaction(100), bitcoindClient.getCachedTransaction(txid(2)));
+        } finally {
+            Config.get().setCoreAuth(coreAuth);
+            Config.get().setCoreAuthType(coreAuthType);
+            Config.get().setCoreServer(coreServer);
+            System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
+        }
+    }
+
+    private static String txid(int i) {
+        return String.format("%064x", i);
+    }
+
+    private static String transaction(int length) {
+        return "00".repeat(length);
+    }
+}
@@ -0,0 +1,191 @@
+package com.sparrowwallet.sparrow.net.cormorant.electrum;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparrowwallet.sparrow.net.cormorant.Cormorant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestHandlerTest {
+    private static final int CLIENTS = 100;
+    private static final int REQUESTS = 50;
+    private static final int NOTIFICATIONS = 100;
+    private static final String SCRIPT_HASH = String.format("%064x", 1);
+    private static final String SLOW_SCRIPT_HASH = String.format("%064x", 2);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ServerSocket serverSocket;
+    private final List<Connection> connections = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, CLIENTS, InetAddress.getLoopbackAddress());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for(Connection connection : connections) {
+            connection.client().close();
+        }
+        for(Connection connection : connections) {
+            connection.thread().join(5000);
+        }
+        serverSocket.close();
+    }
+
+    @Test
+    public void responsesAreOrderedAndNotificationsInterleaveWholeLines() throws Exception {
+        for(int i = 0; i < CLIENTS; i++) {
+            Connection connection = connect(0);
+            connection.handler().subscribeScriptHash(SCRIPT_HASH);
+        }
+
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(CLIENTS);
+        List<Thread> clientThreads = new ArrayList<>();
+        for(Connection connection : connections) {
+            clientThreads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    connection.client().setSoTimeout(10000);
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(connection.client().getOutputStream(), StandardCharsets.UTF_8));
+                    for(int id = 1; id <= REQUESTS; id++) {
+                        out.println("{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"server.version\",\"params\":[\"test\",[\"1.4\",\"1.4\"]]}");
+                    }
+                    out.flush();
+
+                    //The handler has registered for notifications once it has responded, so only then start posting them
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(connection.client().getInputStream(), StandardCharsets.UTF_8));
+                    assertEquals(1, objectMapper.readTree(reader.readLine()).get("id").asInt());
+                    started.countDown();
+
+                    int nextId = 2;
+                    int notifications = 0;
+                    while(nextId <= REQUESTS || notifications < NOTIFICATIONS) {
+                        String line = reader.readLine();
+                        assertNotNull(line, "Connection closed after " + (nextId - 1) + " responses and " + notifications + " notifications");
+                        JsonNode message = objectMapper.readTree(line);
+                        if(message.has("method")) {
+                            assertEquals("blockchain.scripthash.subscribe", message.get("method").asText());
+                            notifications++;
+                        } else {
+                            assertEquals(nextId, message.get("id").asInt(), "Response out of order");
+                            assertTrue(message.has("result"), "Request failed: " + line);
+                            nextId++;
+                        }
+                    }
+                } catch(Throwable e) {
+                    failures.add(e);
+                    started.countDown();
+                }
+            }));
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            started.await();
+            for(int i = 0; i < NOTIFICATIONS; i++) {
+                Cormorant.getEventBus().post(new ScriptHashStatus(SCRIPT_HASH, String.format("%064x", i)));
+            }
+
+            for(Thread clientThread : clientThreads) {
+                clientThread.join();
+            }
+        });
+
+        assertTrue(failures.isEmpty(), () -> "Client failed: " + failures.getFirst());
+    }
+
+    @Test
+    public void clientNotReadingNotificationsIsDisconnected() throws Exception {
+        Connection slowConnection = connect(4096);
+        slowConnection.handler().subscribeScriptHash(SLOW_SCRIPT_HASH);
+        Connection connection = connect(0);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            //The queue is only full once the socket buffers are too, so keep notifying until the handler gives up on the client
+            for(int i = 0; i < 1000000 && slowConnection.thread().isAlive(); i++) {
+                Cormorant.getEventBus().post(new ScriptHashStatus(SLOW_SCRIPT_HASH, String.format("%064x", i)));
+            }
+            slowConnection.thread().join(5000);
+        });
+
+        assertFalse(slowConnection.thread().isAlive(), "Client not reading notifications was not disconnected");
+
+        //Other clients are unaffected
+        connection.client().setSoTimeout(10000);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(connection.client().getOutputStream(), StandardCharsets.UTF_8));
+        out.println("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"server.version\",\"params\":[\"test\",[\"1.4\",\"1.4\"]]}");
+        out.flush();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.client().getInputStream(), StandardCharsets.UTF_8));
+        JsonNode response = objectMapper.readTree(reader.readLine());
+        assertEquals(1, response.get("id").asInt());
+        assertTrue(response.has("result"));
+    }
+
+    @Test
+    public void clientNotReadingResponsesIsDisconnected() throws Exception {
+        Connection slowConnection = connect(4096);
+        Connection connection = connect(0);
+
+        //Keep sending requests without reading any responses, until the handler gives up on the client and closes the connection
+        Thread.ofVirtual().start(() -> {
+            try {
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(slowConnection.client().getOutputStream(), StandardCharsets.UTF_8));
+                for(int id = 1; id <= 1000000 && slowConnection.thread().isAlive(); id++) {
+                    out.println("{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"server.version\",\"params\":[\"test\",[\"1.4\",\"1.4\"]]}");
+                    if(out.checkError()) {
+                        return;
+                    }
+                }
+            } catch(IOException e) {
+                //Expected once the handler closes the connection
+            }
+        });
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> slowConnection.thread().join());
+        assertFalse(slowConnection.thread().isAlive(), "Client not reading responses was not disconnected");
+
+        //Other clients are unaffected
+        connection.client().setSoTimeout(10000);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(connection.client().getOutputStream(), StandardCharsets.UTF_8));
+        out.println("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"server.version\",\"params\":[\"test\",[\"1.4\",\"1.4\"]]}");
+        out.flush();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.client().getInputStream(), StandardCharsets.UTF_8));
+        JsonNode response = objectMapper.readTree(reader.readLine());
+        assertEquals(1, response.get("id").asInt());
+    }
+
+    private Connection connect(int receiveBufferSize) throws IOException {
+        Socket client = new Socket();
+        if(receiveBufferSize > 0) {
+            client.setReceiveBufferSize(receiveBufferSize);
+        }
+        client.connect(serverSocket.getLocalSocketAddress());
+        Socket server = serverSocket.accept();
+        if(receiveBufferSize > 0) {
+            server.setSendBufferSize(receiveBufferSize);
+        }
+
+        RequestHandler handler = new RequestHandler(server, null, serverSocket.getLocalPort());
+        Thread thread = Thread.ofVirtual().name("Test Request Handler").start(handler);
+        Connection connection = new Connection(client, handler, thread);
+        connections.add(connection);
+        return connection;
+    }
+
+    private record Connection(Socket client, RequestHandler handler, Thread thread) {}
+}
@@ -0,0 +1,126 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.drongo.address.Address;
+import com.sparrowwallet.drongo.address.P2PKHAddress;
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.sparrow.SparrowWallet;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.Category;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.ListTransaction;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoreFileTest {
+    @TempDir
+    private static Path tempHome;
+
+    private static final String LAST_BLOCK = String.format("%064x", 100);
+    private static final Set<String> DESCRIPTORS = Set.of("wpkh([60bcd3a7/84h/0h/3h]xpub/0/*)#abcdefgh", "wpkh([60bcd3a7/84h/0h/3h]xpub/1/*)#hgfedcba");
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty(SparrowWallet.APP_HOME_PROPERTY, tempHome.toString());
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        System.clearProperty(SparrowWallet.APP_HOME_PROPERTY);
+    }
+
+    @AfterEach
+    public void deleteStoreFile() {
+        StoreFile.delete();
+    }
+
+    @Test
+    public void roundTripsStoreAndIndexes() {
+        Address address = new P2PKHAddress(new byte[20]);
+        Address otherAddress = new P2PKHAddress(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+        String scriptHash = Store.getScriptHash(address);
+        String otherScriptHash = Store.getScriptHash(otherAddress);
+
+        Store store = new Store();
+        store.addAddressTransaction(address, receive(address, 1, 1));
+        store.addAddressTransaction(address, receive(address, 2, 2));
+        store.addAddressTransaction(otherAddress, receive(otherAddress, 3, 0));
+        HashIndex spentOutput = new HashIndex(Sha256Hash.wrap(txid(1)), 0);
+        store.getSpentOutputs().put(txid(2), Set.of(spentOutput));
+        store.publish();
+
+        StoreFile.save(StoreFile.snapshot(LAST_BLOCK, DESCRIPTORS, store));
+        StoreFile storeFile = StoreFile.load();
+        assertNotNull(storeFile);
+        assertEquals(LAST_BLOCK, storeFile.getLastBlock());
+        assertEquals(DESCRIPTORS, storeFile.getDescriptors());
+
+        Store loaded = storeFile.getStore();
+        assertEquals(store.getHistory(scriptHash), loaded.getHistory(scriptHash));
+        assertEquals(store.getHistory(otherScriptHash), loaded.getHistory(otherScriptHash));
+        assertEquals(store.getStatus(scriptHash), loaded.getStatus(scriptHash));
+        assertEquals(store.getStatus(otherScriptHash), loaded.getStatus(otherScriptHash));
+        assertEquals(address, loaded.getFundingAddress(spentOutput));
+        assertEquals(Set.of(spentOutput), loaded.getSpentOutputs().get(txid(2)));
+        assertEquals(Set.of(txid(3)), loaded.getMempoolEntries().keySet());
+        assertEquals(String.format("%064x", 1000001), loaded.getBlockHash(1));
+
+        //The txid indexes are not written, so check they were rebuilt by using them
+        assertEquals(Set.of(scriptHash), loaded.purgeTransaction(txid(1)));
+        assertNull(loaded.getFundingAddress(spentOutput));
+        assertEquals(Set.of(otherScriptHash), loaded.updateMempoolTransactions());
+        loaded.publish();
+        assertEquals(1, loaded.getHistory(scriptHash).size());
+        assertTrue(loaded.getHistory(otherScriptHash).isEmpty());
+    }
+
+    @Test
+    public void discardsCorruptFile() throws Exception {
+        Files.createDirectories(StoreFile.getStoreFile().getParentFile().toPath());
+        Files.write(StoreFile.getStoreFile().toPath(), new byte[] {0x43, 0x4d, 0x52, 0x54, 0, 0, 0, 1, 0x7f, 0x7f, 0x7f});
+        assertNull(StoreFile.load());
+        assertFalse(StoreFile.getStoreFile().exists());
+
+        Files.write(StoreFile.getStoreFile().toPath(), "not a cormorant index".getBytes());
+        assertNull(StoreFile.load());
+        assertFalse(StoreFile.getStoreFile().exists());
+    }
+
+    @Test
+    public void discardsTruncatedFile() throws Exception {
+        Address address = new P2PKHAddress(new byte[20]);
+        Store store = new Store();
+        for(int height = 1; height <= 10; height++) {
+            store.addAddressTransaction(address, receive(address, height, 1));
+        }
+        store.publish();
+
+        byte[] snapshot = StoreFile.snapshot(LAST_BLOCK, DESCRIPTORS, store);
+        StoreFile.save(snapshot);
+        assertNotNull(StoreFile.load());
+
+        File file = StoreFile.getStoreFile();
+        Files.write(file.toPath(), Arrays.copyOf(snapshot, snapshot.length - 10));
+        assertNull(StoreFile.load());
+        assertFalse(file.exists());
+    }
+
+    private static String txid(int height) {
+        return String.format("%064x", height);
+    }
+
+    private static ListTransaction receive(Address address, int height, int confirmations) {
+        String blockhash = confirmations == 0 ? null : String.format("%064x", height + 1000000);
+        return new ListTransaction(address.toString(), null, Category.receive, 0.001, 0, 0.0, confirmations, blockhash, 0, 0L, confirmations == 0 ? 0 : height, txid(height), 0L, 0L, List.of());
+    }
+}
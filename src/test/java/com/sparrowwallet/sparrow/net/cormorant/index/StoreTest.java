@@ -0,0 +1,264 @@
+package com.sparrowwallet.sparrow.net.cormorant.index;
+
+import com.sparrowwallet.drongo.address.Address;
+import com.sparrowwallet.drongo.address.P2PKHAddress;
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.Category;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.FeesMempoolEntry;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.ListTransaction;
+import com.sparrowwallet.sparrow.net.cormorant.bitcoind.MempoolEntry;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoreTest {
+    private static final int UPDATE_SIZE = 10;
+    private static final byte[] OTHER_HASH = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20};
+
+    @Test
+    public void updatesAreNotVisibleUntilPublished() {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        String scriptHash = Store.getScriptHash(address);
+
+        assertEquals(scriptHash, store.addAddressTransaction(address, receive(address, 1)));
+        assertTrue(store.getHistory(scriptHash).isEmpty());
+        assertNull(store.getStatus(scriptHash));
+
+        store.publish();
+        assertEquals(1, store.getHistory(scriptHash).size());
+        assertNotNull(store.getStatus(scriptHash));
+    }
+
+    @Test
+    public void readsSeeWholeUpdatesWhileUpdating() {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        String scriptHash = Store.getScriptHash(address);
+        int updates = 200;
+
+        AtomicBoolean updating = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> readers = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while(updating.get()) {
+                        Set<TxEntry> history = store.getHistory(scriptHash);
+                        int count = 0;
+                        int lastHeight = 0;
+                        for(TxEntry txEntry : history) {
+                            assertTrue(txEntry.height > lastHeight, "History is not in height order");
+                            lastHeight = txEntry.height;
+                            count++;
+                        }
+                        assertEquals(0, count % UPDATE_SIZE, "Read a partially published update of " + count + " entries");
+                        store.getStatus(scriptHash);
+                    }
+                } catch(Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int height = 1;
+            for(int i = 0; i < updates; i++) {
+                for(int j = 0; j < UPDATE_SIZE; j++) {
+                    store.addAddressTransaction(address, receive(address, height++));
+                }
+                store.publish();
+            }
+
+            updating.set(false);
+            for(Thread reader : readers) {
+                reader.join();
+            }
+        });
+
+        assertNull(failure.get(), () -> "Reader failed: " + failure.get());
+        assertEquals(updates * UPDATE_SIZE, store.getHistory(scriptHash).size());
+    }
+
+    @Test
+    public void indexesUnconfirmedTransactionsWithoutBlockHash() {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        String scriptHash = Store.getScriptHash(address);
+        String txid = String.format("%064x", 1);
+
+        assertEquals(scriptHash, store.addAddressTransaction(address, new ListTransaction(address.toString(), null, Category.receive, 0.001, 0, 0.0, 0, null, 0, 0L, 0, txid, 0L, 0L, List.of())));
+        store.publish();
+        assertEquals(0, store.getHistory(scriptHash).iterator().next().height);
+        assertNull(store.getBlockHash(0));
+    }
+
+    @Test
+    public void addingKeepsIndexesConsistent() throws Exception {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        Address otherAddress = new P2PKHAddress(OTHER_HASH);
+
+        store.addAddressTransaction(address, receive(address, 1));
+        store.addAddressTransaction(address, receive(address, 2));
+        store.addAddressTransaction(otherAddress, receive(otherAddress, 2, 2));
+        store.addAddressTransaction(otherAddress, unconfirmed(otherAddress, 3));
+        store.getMempoolEntries().put(txid(3), mempoolEntry());
+        store.updateMempoolTransactions();
+        store.publish();
+
+        assertIndexesConsistent(store);
+        assertEquals(Set.of(txid(3)), getField(store, "unconfirmedTxids"));
+        assertEquals(Set.of(Store.getScriptHash(address), Store.getScriptHash(otherAddress)), getTxidScriptHashes(store).get(txid(2)));
+    }
+
+    @Test
+    public void purgingKeepsIndexesConsistent() throws Exception {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        Address otherAddress = new P2PKHAddress(OTHER_HASH);
+
+        store.addAddressTransaction(address, receive(address, 1));
+        store.addAddressTransaction(address, receive(address, 2));
+        store.addAddressTransaction(otherAddress, receive(otherAddress, 2, 2));
+        store.addAddressTransaction(otherAddress, unconfirmed(otherAddress, 3));
+        store.getMempoolEntries().put(txid(3), mempoolEntry());
+        store.getSpentOutputs().put(txid(2), Set.of(new HashIndex(Sha256Hash.wrap(txid(1)), 0)));
+        store.updateMempoolTransactions();
+
+        assertEquals(Set.of(Store.getScriptHash(address), Store.getScriptHash(otherAddress)), store.purgeTransaction(txid(2)));
+        assertEquals(Set.of(Store.getScriptHash(otherAddress)), store.purgeTransaction(txid(3)));
+        store.updateMempoolTransactions();
+        store.publish();
+
+        assertIndexesConsistent(store);
+        assertFalse(getTxidScriptHashes(store).containsKey(txid(2)));
+        assertFalse(store.getSpentOutputs().containsKey(txid(2)));
+        assertFalse(store.getMempoolEntries().containsKey(txid(3)));
+        assertEquals(Set.of(), getField(store, "unconfirmedTxids"));
+        assertEquals(1, store.getHistory(Store.getScriptHash(address)).size());
+        assertTrue(store.getHistory(Store.getScriptHash(otherAddress)).isEmpty());
+    }
+
+    @Test
+    public void confirmingMempoolTransactionKeepsIndexesConsistent() throws Exception {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        Address otherAddress = new P2PKHAddress(OTHER_HASH);
+        String scriptHash = Store.getScriptHash(address);
+
+        store.addAddressTransaction(address, unconfirmed(address, 1));
+        store.addAddressTransaction(otherAddress, unconfirmed(otherAddress, 1));
+        store.getMempoolEntries().put(txid(1), mempoolEntry());
+        assertEquals(Set.of(scriptHash, Store.getScriptHash(otherAddress)), store.updateMempoolTransactions());
+        store.publish();
+        assertIndexesConsistent(store);
+        assertEquals(Set.of(txid(1)), getField(store, "unconfirmedTxids"));
+        assertEquals(0, store.getHistory(scriptHash).iterator().next().height);
+
+        store.addAddressTransaction(address, receive(address, 1, 100));
+        store.addAddressTransaction(otherAddress, receive(otherAddress, 1, 100));
+        store.updateMempoolTransactions();
+        store.publish();
+        assertIndexesConsistent(store);
+        assertEquals(Set.of(), getField(store, "unconfirmedTxids"));
+        assertFalse(store.getMempoolEntries().containsKey(txid(1)));
+        assertEquals(100, store.getHistory(scriptHash).iterator().next().height);
+        assertEquals(1, store.getHistory(scriptHash).size());
+    }
+
+    @Test
+    public void droppingMempoolTransactionKeepsIndexesConsistent() throws Exception {
+        Store store = new Store();
+        Address address = new P2PKHAddress(new byte[20]);
+        String scriptHash = Store.getScriptHash(address);
+
+        store.addAddressTransaction(address, receive(address, 1));
+        store.addAddressTransaction(address, unconfirmed(address, 2));
+        store.getMempoolEntries().put(txid(2), mempoolEntry());
+        store.updateMempoolTransactions();
+        assertIndexesConsistent(store);
+
+        store.getMempoolEntries().put(txid(2), null);
+        assertEquals(Set.of(scriptHash), store.updateMempoolTransactions());
+        store.publish();
+        assertIndexesConsistent(store);
+        assertFalse(getTxidScriptHashes(store).containsKey(txid(2)));
+        assertEquals(1, store.getHistory(scriptHash).size());
+    }
+
+    /**
+     * Rebuilds the txid indexes from the primary maps, and checks they are the same as those maintained by the store
+     */
+    @SuppressWarnings("unchecked")
+    private static void assertIndexesConsistent(Store store) throws Exception {
+        Map<String, Set<TxEntry>> scriptHashEntries = (Map<String, Set<TxEntry>>)getField(store, "scriptHashEntries");
+        Map<String, Set<String>> expectedTxidScriptHashes = new HashMap<>();
+        Set<String> expectedUnconfirmedTxids = new HashSet<>();
+        for(Map.Entry<String, Set<TxEntry>> scriptHashEntry : scriptHashEntries.entrySet()) {
+            for(TxEntry txEntry : scriptHashEntry.getValue()) {
+                expectedTxidScriptHashes.computeIfAbsent(txEntry.tx_hash, k -> new HashSet<>()).add(scriptHashEntry.getKey());
+                if(txEntry.height <= 0) {
+                    expectedUnconfirmedTxids.add(txEntry.tx_hash);
+                }
+            }
+        }
+        assertEquals(expectedTxidScriptHashes, getTxidScriptHashes(store));
+        assertEquals(expectedUnconfirmedTxids, getField(store, "unconfirmedTxids"));
+
+        Map<HashIndex, Address> fundingAddresses = (Map<HashIndex, Address>)getField(store, "fundingAddresses");
+        Map<String, Set<HashIndex>> expectedTxidFundingOutputs = new HashMap<>();
+        for(HashIndex fundingOutput : fundingAddresses.keySet()) {
+            expectedTxidFundingOutputs.computeIfAbsent(fundingOutput.getHash().toString(), k -> new HashSet<>()).add(fundingOutput);
+        }
+        assertEquals(expectedTxidFundingOutputs, getField(store, "txidFundingOutputs"));
+
+        for(String txid : expectedUnconfirmedTxids) {
+            assertTrue(store.getMempoolEntries().containsKey(txid), "Unconfirmed " + txid + " has no mempool entry");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Set<String>> getTxidScriptHashes(Store store) throws Exception {
+        return (Map<String, Set<String>>)getField(store, "txidScriptHashes");
+    }
+
+    private static Object getField(Store store, String name) throws Exception {
+        Field field = Store.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(store);
+    }
+
+    private static MempoolEntry mempoolEntry() {
+        return new MempoolEntry(100, 100, false, new FeesMempoolEntry(0.00001, 0.00001));
+    }
+
+    private static String txid(int height) {
+        return String.format("%064x", height);
+    }
+
+    private static ListTransaction unconfirmed(Address address, int txNumber) {
+        return new ListTransaction(address.toString(), null, Category.receive, 0.001, 0, 0.0, 0, null, 0, 0L, 0, txid(txNumber), 0L, 0L, List.of());
+    }
+
+    private static ListTransaction receive(Address address, int txNumber, int height) {
+        String blockhash = String.format("%064x", height + 1000000);
+        return new ListTransaction(address.toString(), null, Category.receive, 0.001, 0, 0.0, 1, blockhash, 0, 0L, height, txid(txNumber), 0L, 0L, List.of());
+    }
+
+    private static ListTransaction receive(Address address, int height) {
+        String txid = String.format("%064x", height);
+        String blockhash = String.format("%064x", height + 1000000);
+        return new ListTransaction(address.toString(), null, Category.receive, 0.001, 0, 0.0, 1, blockhash, 0, 0L, height, txid, 0L, 0L, List.of());
+    }
+}